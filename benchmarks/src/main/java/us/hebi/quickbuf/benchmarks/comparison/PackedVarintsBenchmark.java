@@ -0,0 +1,119 @@
+/*-
+ * #%L
+ * benchmarks
+ * %%
+ * Copyright (C) 2019 HEBI Robotics
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package us.hebi.quickbuf.benchmarks.comparison;
+
+import com.google.protobuf.CodedOutputStream;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.VerboseMode;
+import protos.test.quickbuf.RepeatedPackables.Packed;
+import us.hebi.quickbuf.ProtoSink;
+import us.hebi.quickbuf.ProtoSource;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Integer counterpart of {@link PackedDoublesBenchmark}. Serializes massive packed int32 and
+ * sint64 arrays with values of mixed varint sizes, so every element needs to be sized and
+ * encoded individually.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(2)
+@Warmup(iterations = 5, time = 250, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 250, timeUnit = TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class PackedVarintsBenchmark {
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(".*" + PackedVarintsBenchmark.class.getSimpleName() + ".*")
+                .verbosity(VerboseMode.NORMAL)
+                .build();
+        new Runner(options).run();
+    }
+
+    final byte[] input = createInput(4 * 1024 * 1024);
+    final byte[] output = new byte[input.length + 100];
+
+    final ProtoSource source = ProtoSource.newArraySource();
+    final ProtoSink sink = ProtoSink.newArraySink();
+
+    final Packed message = Packed.newInstance();
+
+    private static byte[] createInput(int count) {
+        Random rnd = new Random(0);
+        Packed msg = Packed.newInstance();
+        for (int i = 0; i < count; i++) {
+            final long value = rnd.nextLong() >>> rnd.nextInt(64);
+            msg.getMutableInt32S().add((int) value & Integer.MAX_VALUE);
+            msg.getMutableSint64S().add(i % 2 == 0 ? value : -value);
+        }
+        return msg.toByteArray();
+    }
+
+    @Benchmark
+    public Object readQuick() throws IOException {
+        source.setInput(input);
+        return message.clear().mergeFrom(source);
+    }
+
+    @Benchmark
+    public int readWriteQuick() throws IOException {
+        message.clear().mergeFrom(source.setInput(input)).writeTo(sink.setOutput(output));
+        return sink.getTotalBytesWritten();
+    }
+
+    @Benchmark
+    public int writeQuick() throws IOException {
+        message.writeTo(sink.setOutput(output));
+        return sink.getTotalBytesWritten();
+    }
+
+    @Benchmark
+    public int computeSizeQuick() {
+        return message.getSerializedSize();
+    }
+
+    @Benchmark
+    public Object readProto() throws IOException {
+        return protos.test.protobuf.RepeatedPackables.Packed.parseFrom(input);
+    }
+
+    @Benchmark
+    public int readWriteProto() throws IOException {
+        CodedOutputStream out = CodedOutputStream.newInstance(output);
+        protos.test.protobuf.RepeatedPackables.Packed.parseFrom(input)
+                .writeTo(out);
+        return out.getTotalBytesWritten();
+    }
+
+    @Setup(Level.Trial)
+    public void setupMessage() throws IOException {
+        message.clear().mergeFrom(source.setInput(input));
+    }
+
+}
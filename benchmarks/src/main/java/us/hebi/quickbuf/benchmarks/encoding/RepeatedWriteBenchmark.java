@@ -155,6 +155,21 @@ public class RepeatedWriteBenchmark {
         return write(packed.clear().addAllInt64S(longArray));
     }
 
+    @Benchmark
+    public int writePackedUInt32() throws IOException {
+        return write(packed.clear().addAllUint32S(intArray));
+    }
+
+    @Benchmark
+    public int writePackedSInt32() throws IOException {
+        return write(packed.clear().addAllSint32S(intArray));
+    }
+
+    @Benchmark
+    public int writePackedSInt64() throws IOException {
+        return write(packed.clear().addAllSint64S(longArray));
+    }
+
     @Benchmark
     public int writePackedIntFixed32() throws IOException {
         return write(packed.clear().addAllFixed32S(intArray));
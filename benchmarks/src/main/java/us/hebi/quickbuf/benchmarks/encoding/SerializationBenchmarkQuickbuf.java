@@ -152,6 +152,7 @@ public class SerializationBenchmarkQuickbuf {
 
     final ByteArrayOutputStream baos = new ByteArrayOutputStream(stringMsgOutBuffer.length);
     final ProtoSink streamSink = ProtoSink.newInstance(baos);
+    final ProtoSink bufferedStreamSink = ProtoSink.newBufferedStreamSink().setOutput(baos);
     final ProtoSink byteBufferSink = ProtoSink.newInstance(ByteBuffer.allocate(stringMsgOutBuffer.length));
     final ProtoSink directByteBufferSink = ProtoSink.newInstance(ByteBuffer.allocateDirect(stringMsgOutBuffer.length));
 
@@ -218,6 +219,14 @@ public class SerializationBenchmarkQuickbuf {
         return baos.size();
     }
 
+    @Benchmark
+    public int writeMessageToBufferedOutputStream() throws IOException {
+        baos.reset();
+        msg.writeTo(bufferedStreamSink);
+        bufferedStreamSink.flush();
+        return baos.size();
+    }
+
     @Benchmark
     public int writeMessageToByteBuffer() throws IOException {
         msg.writeTo(byteBufferSink.reset());
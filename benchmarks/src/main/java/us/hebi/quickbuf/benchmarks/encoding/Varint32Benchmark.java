@@ -26,7 +26,10 @@ import org.openjdk.jmh.runner.RunnerException;
 import org.openjdk.jmh.runner.options.Options;
 import org.openjdk.jmh.runner.options.OptionsBuilder;
 import org.openjdk.jmh.runner.options.VerboseMode;
+import us.hebi.quickbuf.ProtoSink;
+import us.hebi.quickbuf.ProtoSource;
 
+import java.io.IOException;
 import java.util.Random;
 import java.util.concurrent.TimeUnit;
 
@@ -91,8 +94,13 @@ public class Varint32Benchmark {
     int[] values = new int[512];
     byte[] output = new byte[10];
 
+    byte[] input = new byte[values.length * 5];
+    int inputLength;
+    ProtoSource arraySource = ProtoSource.newArraySource();
+    ProtoSource directSource = ProtoSource.newDirectSource();
+
     @Setup(Level.Iteration)
-    public void setup() {
+    public void setup() throws IOException {
         Random random = new Random(System.nanoTime());
         for (int i = 0; i < values.length; i++) {
 //            values[i] = Math.abs(random.nextInt()) % 128; // all 1 byte varint (best case)
@@ -101,6 +109,13 @@ public class Varint32Benchmark {
 //            values[i] = 1 << random.nextInt(10); // random long bit distribution
             values[i] = withProductionDistribution(random);
         }
+
+        // Encoded input for the read benchmarks
+        ProtoSink sink = ProtoSink.newInstance(input);
+        for (int value : values) {
+            sink.writeUInt32NoTag(value);
+        }
+        inputLength = sink.getTotalBytesWritten();
     }
 
     private int withProductionDistribution(Random random) {
@@ -285,4 +300,23 @@ public class Varint32Benchmark {
         }
         return size;
     }
+
+    @Benchmark
+    public int readVarint32Array() throws IOException {
+        return readVarint32(arraySource.setInput(input, 0, inputLength));
+    }
+
+    @Benchmark
+    public int readVarint32Direct() throws IOException {
+        return readVarint32(directSource.setInput(input, 0, inputLength));
+    }
+
+    private int readVarint32(ProtoSource source) throws IOException {
+        int sum = 0;
+        for (int i = 0; i < values.length; i++) {
+            sum += source.readRawVarint32();
+        }
+        return sum;
+    }
+
 }
@@ -27,6 +27,7 @@ import org.openjdk.jmh.runner.options.Options;
 import org.openjdk.jmh.runner.options.OptionsBuilder;
 import org.openjdk.jmh.runner.options.VerboseMode;
 import us.hebi.quickbuf.ProtoSink;
+import us.hebi.quickbuf.ProtoSource;
 
 import java.io.IOException;
 import java.util.Random;
@@ -126,6 +127,11 @@ public class Varint64Benchmark {
     ProtoSink sink = ProtoSink.newInstance(output);
     private static final boolean ENABLE_ALIGNED_ACCESS = false;
 
+    byte[] input = new byte[values.length * 10];
+    int inputLength;
+    ProtoSource arraySource = ProtoSource.newArraySource();
+    ProtoSource directSource = ProtoSource.newDirectSource();
+
     @Setup(Level.Iteration)
     public void setup() {
         Random random = new Random(System.nanoTime());
@@ -138,6 +144,17 @@ public class Varint64Benchmark {
 //            values[i] = 1L << random.nextInt(64); // random long bit distribution
             values[i] = withProductionDistribution(random);
         }
+
+        // Encoded input for the read benchmarks
+        try {
+            ProtoSink inputSink = ProtoSink.newInstance(input);
+            for (long value : values) {
+                inputSink.writeRawVarint64(value);
+            }
+            inputLength = inputSink.getTotalBytesWritten();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
     }
 
     private long withProductionDistribution(Random random) {
@@ -369,6 +386,47 @@ public class Varint64Benchmark {
         return sink.getTotalBytesWritten();
     }
 
+    @Benchmark
+    public long readUInt64Array() throws IOException {
+        return readUInt64(arraySource.setInput(input, 0, inputLength));
+    }
+
+    @Benchmark
+    public long readUInt64Direct() throws IOException {
+        return readUInt64(directSource.setInput(input, 0, inputLength));
+    }
+
+    @Benchmark
+    public long readUInt64Bytewise() throws IOException {
+        arraySource.setInput(input, 0, inputLength);
+        long sum = 0;
+        for (int i = 0; i < values.length; i++) {
+            sum += readRawVarint64Bytewise(arraySource);
+        }
+        return sum;
+    }
+
+    private long readUInt64(ProtoSource source) throws IOException {
+        long sum = 0;
+        for (int i = 0; i < values.length; i++) {
+            sum += source.readRawVarint64();
+        }
+        return sum;
+    }
+
+    // Implementation of ProtoSource::readRawVarint64 before adding the single load (SWAR) path
+    private static long readRawVarint64Bytewise(ProtoSource source) throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final byte b = source.readRawByte();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+
     @Benchmark
     public int computeRawVarInt64Size_branches() {
         int sum = 0;
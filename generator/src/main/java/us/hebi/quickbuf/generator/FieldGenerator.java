@@ -23,7 +23,10 @@ package us.hebi.quickbuf.generator;
 import com.squareup.javapoet.*;
 
 import javax.lang.model.element.Modifier;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.function.Consumer;
 
 /**
@@ -60,6 +63,14 @@ public class FieldGenerator {
         }
         type.addField(field.build());
 
+        if (info.isLazyParsingEnabled()) {
+            // serialized contents that have not been parsed yet
+            type.addField(FieldSpec.builder(RuntimeClasses.BytesType, info.getSerializedFieldName())
+                    .addModifiers(Modifier.PRIVATE, Modifier.FINAL)
+                    .initializer("$T.newEmptyInstance()", RuntimeClasses.BytesType)
+                    .build());
+        }
+
         if (info.isBytes() && info.hasDefaultValue()) {
             // byte[] default values are stored as utf8 strings, so we need to convert it first
             type.addField(FieldSpec.builder(ArrayTypeName.get(byte[].class), info.getDefaultFieldName())
@@ -133,6 +144,9 @@ public class FieldGenerator {
         if (info.isLazyAllocationEnabled()) {
             method.endControlFlow();
         }
+        if (info.isLazyParsingEnabled()) {
+            method.addStatement(named("$serialized:N.clear()"));
+        }
     }
 
     protected void generateClearQuickCode(MethodSpec.Builder method) {
@@ -155,12 +169,33 @@ public class FieldGenerator {
         if (info.isLazyAllocationEnabled()) {
             method.endControlFlow();
         }
+        if (info.isLazyParsingEnabled()) {
+            method.addStatement(named("$serialized:N.clear()"));
+        }
     }
 
     protected void generateCopyFromCode(MethodSpec.Builder method) {
         if (info.isSingularPrimitiveOrEnum()) {
             method.addStatement(named("$field:N = other.$field:N"));
 
+        } else if (info.isLazyParsingEnabled()) {
+            // copy serialized contents without parsing them
+            method.addCode(named("" +
+                    "if (other.$hasMethod:N()) {$>\n" +
+                    "if (other.$serialized:N.length() > 0) {$>\n" +
+                    "if ($field:N != null) {$>\n" +
+                    "$field:N.clearQuick();\n" +
+                    "$<}\n" +
+                    "$serialized:N.copyFrom(other.$serialized:N);\n" +
+                    "$<} else {$>\n" +
+                    "$lazyInitMethod:L();\n" +
+                    "$field:N.copyFrom(other.$field:N);\n" +
+                    "$serialized:N.clear();\n" +
+                    "$<}\n" +
+                    "$<} else {$>\n" +
+                    "$clearMethod:L();\n" +
+                    "$<}\n"));
+
         } else if (info.isRepeated() || info.isBytes() || info.isMessageOrGroup() || info.isString()) {
             if (info.isLazyAllocationEnabled()) {
                 method.addCode(named("" +
@@ -181,6 +216,8 @@ public class FieldGenerator {
     protected void generateMergeFromMessageCode(MethodSpec.Builder method) {
         if (info.isRepeated()) {
             method.addStatement(named("$getMutableMethod:N().addAll(other.$field:N)"));
+        } else if (info.isLazyParsingEnabled()) {
+            method.addStatement(named("$getMutableMethod:N().mergeFrom(other.$getMethod:N())"));
         } else if (info.isMessageOrGroup()) {
             method.addStatement(named("$getMutableMethod:N().mergeFrom(other.$field:N)"));
         } else if (info.isBytes()) {
@@ -197,7 +234,10 @@ public class FieldGenerator {
     }
 
     protected void generateEqualsStatement(MethodSpec.Builder method) {
-        if (info.isRepeated() || info.isBytes() || info.isMessageOrGroup() || info.isString()) {
+        if (info.isLazyParsingEnabled()) {
+            method.addNamedCode("$getMethod:N().equals(other.$getMethod:N())", m);
+
+        } else if (info.isRepeated() || info.isBytes() || info.isMessageOrGroup() || info.isString()) {
             method.addNamedCode("$field:N.equals(other.$field:N)", m);
 
         } else if (typeName == TypeName.DOUBLE || typeName == TypeName.FLOAT) {
@@ -215,6 +255,19 @@ public class FieldGenerator {
      * @return true if the tag needs to be read
      */
     protected boolean generateMergingCode(MethodSpec.Builder method) {
+        if (info.isLazyParsingEnabled()) {
+            // store the serialized contents and parse them on first access
+            method.addCode(clearOtherOneOfs)
+                    .beginControlFlow(named("if ($hasMethod:N())"))
+                    .addStatement(named("$materializeMethod:N()"))
+                    .addStatement(named("input.readMessage($field:N)"))
+                    .nextControlFlow("else")
+                    .addStatement(named("input.readDelimitedBytes($serialized:N)"))
+                    .endControlFlow()
+                    .addStatement(named("$setHas:L"));
+            return true;
+        }
+
         method.addCode(clearOtherOneOfs).addCode(ensureFieldNotNull);
         if (info.isRepeated()) {
             method
@@ -258,6 +311,29 @@ public class FieldGenerator {
         return true;
     }
 
+    /**
+     * Same as {@link #generateMergingCode(MethodSpec.Builder)}, but nested messages
+     * only merge the fields that are part of the nested projection.
+     *
+     * @return true if the tag needs to be read
+     */
+    protected boolean generateProjectedMergingCode(MethodSpec.Builder method) {
+        if (!info.isMessageOrGroup()) {
+            return generateMergingCode(method);
+        }
+        method.addCode(clearOtherOneOfs).addCode(ensureFieldNotNull);
+        if (info.isRepeated()) {
+            method
+                    .addNamedCode("tag = input.readRepeated$capitalizedType:L($field:N, tag, projection.getNested($number:L));\n", m)
+                    .addStatement(named("$setHas:L"));
+            return false; // tag is already read, so don't read again
+        }
+        method
+                .addStatement(named("input.read$capitalizedType:L($field:N$secondArgs:L, projection.getNested($number:L))"))
+                .addStatement(named("$setHas:L"));
+        return true;
+    }
+
     /**
      * @return true if the tag needs to be read
      */
@@ -283,7 +359,16 @@ public class FieldGenerator {
         m.put("writeEndGroupTagToOutput", !info.isGroup() ? "" :
                 generateWriteVarint32(getInfo().getEndGroupTag()));
 
-        if (info.isPacked()) {
+        if (info.isLazyParsingEnabled()) {
+            method.addNamedCode("" +
+                    "$writeTagToOutput:L" +
+                    "if ($serialized:N.length() > 0) {$>\n" +
+                    "output.writeRawBytes($serialized:N);\n" +
+                    "$<} else {$>\n" +
+                    "output.write$capitalizedType:LNoTag($field:N);\n" +
+                    "$<}\n", m);
+
+        } else if (info.isPacked()) {
             method.addNamedCode("" +
                     "$writePackedTagToOutput:L" +
                     "output.writePacked$capitalizedType:LNoTag($field:N);\n", m);
@@ -306,6 +391,52 @@ public class FieldGenerator {
         }
     }
 
+    protected void generateReverseSerializationCode(MethodSpec.Builder method) {
+        // Same as generateSerializationCode, but in reverse order
+        m.put("writeTagToOutput", reverseStatements(generateWriteVarint32(getInfo().getTag())));
+        if (info.isPacked()) {
+            m.put("writePackedTagToOutput", reverseStatements(generateWriteVarint32(getInfo().getPackedTag())));
+        }
+        m.put("writeEndGroupTagToOutput", !info.isGroup() ? "" :
+                reverseStatements(generateWriteVarint32(getInfo().getEndGroupTag())));
+
+        if (info.isLazyParsingEnabled()) {
+            method.addNamedCode("" +
+                    "if ($serialized:N.length() > 0) {$>\n" +
+                    "output.writeRawBytes($serialized:N);\n" +
+                    "$<} else {$>\n" +
+                    "output.write$capitalizedType:LNoTag($field:N);\n" +
+                    "$<}\n" +
+                    "$writeTagToOutput:L", m);
+
+        } else if (info.isPacked()) {
+            method.addNamedCode("" +
+                    "output.writePacked$capitalizedType:LNoTag($field:N);\n" +
+                    "$writePackedTagToOutput:L", m);
+
+        } else if (info.isRepeated()) {
+            method.addNamedCode("" +
+                    "for (int i = $field:N.length() - 1; i >= 0; i--) {$>\n" +
+                    "$writeEndGroupTagToOutput:L" +
+                    "output.write$capitalizedType:LNoTag($field:N.$getRepeatedIndex_i:L);\n" +
+                    "$writeTagToOutput:L" +
+                    "$<}\n", m);
+
+        } else {
+            method.addNamedCode("" + // non-repeated
+                    "$writeEndGroupTagToOutput:L" +
+                    "output.write$capitalizedType:LNoTag($field:N);\n" +
+                    "$writeTagToOutput:L", m
+            );
+        }
+    }
+
+    private static String reverseStatements(String statements) {
+        final List<String> lines = Arrays.asList(statements.split("\n"));
+        Collections.reverse(lines);
+        return String.join("\n", lines) + "\n";
+    }
+
     private static String generateWriteVarint32(int value) {
         // Split tag into individual bytes
         int[] bytes = new int[5];
@@ -348,7 +479,15 @@ public class FieldGenerator {
     }
 
     protected void generateComputeSerializedSizeCode(MethodSpec.Builder method) {
-        if (info.isFixedWidth() && info.isPacked()) {
+        if (info.isLazyParsingEnabled()) {
+            method.addNamedCode("" +
+                    "if ($serialized:N.length() > 0) {$>\n" +
+                    "size += $bytesPerTag:L + $serialized:N.length();\n" +
+                    "$<} else {$>\n" +
+                    "size += $bytesPerTag:L + $protoSink:T.compute$capitalizedType:LSizeNoTag($field:N);\n" +
+                    "$<}\n", m);
+
+        } else if (info.isFixedWidth() && info.isPacked()) {
             method.addNamedCode("" +
                     "final int dataSize = $fixedWidth:L * $field:N.length();\n" +
                     "size += $bytesPerTag:L + $protoSink:T.computeDelimitedSize(dataSize);\n", m);
@@ -375,7 +514,9 @@ public class FieldGenerator {
     }
 
     protected void generateJsonSerializationCode(MethodSpec.Builder method) {
-        if (info.isRepeated()) {
+        if (info.isLazyParsingEnabled()) {
+            method.addStatement(named("output.write$capitalizedType:L($fieldNames:T.$field:N, $getMethod:N())"));
+        } else if (info.isRepeated()) {
             method.addStatement(named("output.writeRepeated$capitalizedType:L($fieldNames:T.$field:N, $field:N)"));
         } else if (info.isEnum()) {
             method.addStatement(named("output.write$capitalizedType:L($fieldNames:T.$field:N, $field:N, $type:T.converter())"));
@@ -437,10 +578,23 @@ public class FieldGenerator {
                             .build())
                     .build());
         }
+        if (info.isLazyParsingEnabled()) {
+            type.addMethod(MethodSpec.methodBuilder(info.getMaterializeName())
+                    .addModifiers(Modifier.PRIVATE)
+                    .addStatement(named("$lazyInitMethod:L()"))
+                    .beginControlFlow(named("if ($serialized:N.length() > 0)"))
+                    .addStatement(named("mergeLazyField($field:N, $serialized:N)"))
+                    .endControlFlow()
+                    .build());
+        }
     }
 
     private CodeBlock lazyFieldInit() {
-        if (info.isLazyAllocationEnabled()) {
+        if (info.isLazyParsingEnabled()) {
+            return CodeBlock.builder()
+                    .addStatement("$N()", info.getMaterializeName())
+                    .build();
+        } else if (info.isLazyAllocationEnabled()) {
             return CodeBlock.builder()
                     .addStatement("$N()", info.getLazyInitName())
                     .build();
@@ -784,6 +938,8 @@ public class FieldGenerator {
         m.put("storeType", storeType);
         m.put("getMutableMethod", info.getMutableGetterName());
         m.put("lazyInitMethod", info.getLazyInitName());
+        m.put("materializeMethod", info.getMaterializeName());
+        m.put("serialized", info.getSerializedFieldName());
         m.put("getMethod", info.getGetterName());
         m.put("setMethod", info.getSetterName());
         m.put("addMethod", info.getAdderName());
@@ -103,8 +103,12 @@ class MessageGenerator {
         generateClear(type);
         generateEquals(type);
         generateWriteTo(type);
+        generateWriteToReverse(type);
         generateComputeSerializedSize(type);
         generateMergeFrom(type);
+        if (info.getParentFile().getParentRequest().getPluginOptions().isGenerateProjections()) {
+            generateProjectedMergeFrom(type);
+        }
         generateIsInitialized(type);
         generateWriteToJson(type);
         generateMergeFromJson(type);
@@ -117,6 +121,7 @@ class MessageGenerator {
         generateParseFrom(type);
         generateMessageFactory(type);
         generateJsonFieldNames(type);
+        generateFieldPaths(type);
         type.addField(FieldSpec.builder(TypeName.LONG, "serialVersionUID")
                 .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
                 .initializer("0L")
@@ -127,6 +132,11 @@ class MessageGenerator {
             generateDescriptors(type);
         }
 
+        // Visitors
+        if (info.getParentFile().getParentRequest().getPluginOptions().isGenerateVisitors()) {
+            generateVisitor(type);
+        }
+
         return type.build();
     }
 
@@ -335,6 +345,73 @@ class MessageGenerator {
         type.addMethod(mergeFrom.build());
     }
 
+    private void generateProjectedMergeFrom(TypeSpec.Builder type) {
+        MethodSpec.Builder mergeFrom = MethodSpec.methodBuilder("mergeFrom")
+                .addJavadoc(Javadoc.inherit())
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(info.getTypeName())
+                .addParameter(RuntimeClasses.ProtoSource, "input", Modifier.FINAL)
+                .addParameter(RuntimeClasses.FieldProjection, "projection", Modifier.FINAL)
+                .addException(IOException.class);
+
+        mergeFrom.addStatement(named("int tag = input.readTag()"))
+                .beginControlFlow("while (true)");
+
+        // Skip everything that is not part of the projection without decoding it
+        mergeFrom.beginControlFlow("if (!projection.contains(tag >>> 3))")
+                .beginControlFlow("if (tag == 0 || !input.skipField(tag))")
+                .addStatement("return this")
+                .endControlFlow()
+                .addStatement(named("tag = input.readTag()"))
+                .addStatement("continue")
+                .endControlFlow();
+
+        // Projected fields are rare, so there is no need for the fall-through optimization
+        mergeFrom.beginControlFlow("switch (tag)");
+        for (FieldGenerator field : getFieldSortedByExpectedInputOrder()) {
+            boolean readTag;
+            if (field.getInfo().isPackable()) {
+                mergeFrom.beginControlFlow("case $L:", field.getInfo().getPackedTag());
+                mergeFrom.addComment("$L [packed=true]", field.getInfo().getFieldName());
+                readTag = field.generateMergingCodeFromPacked(mergeFrom);
+                if (readTag) {
+                    mergeFrom.addCode(named("tag = input.readTag();\n"));
+                }
+                mergeFrom.addStatement("break").endControlFlow();
+
+                mergeFrom.beginControlFlow("case $L:", field.getInfo().getTag());
+                mergeFrom.addComment("$L [packed=false]", field.getInfo().getFieldName());
+                readTag = field.generateMergingCode(mergeFrom);
+            } else {
+                mergeFrom.beginControlFlow("case $L:", field.getInfo().getTag());
+                mergeFrom.addComment("$L", field.getInfo().getFieldName());
+                readTag = field.generateProjectedMergingCode(mergeFrom);
+            }
+            if (readTag) {
+                mergeFrom.addCode(named("tag = input.readTag();\n"));
+            }
+            mergeFrom.addStatement("break").endControlFlow();
+        }
+
+        // default case -> skip field, e.g., projected numbers with an unexpected wire type
+        CodeBlock ifSkipField = info.isStoreUnknownFieldsEnabled() ?
+                named("if (!input.skipField(tag, $unknownBytes:N))") :
+                named("if (!input.skipField(tag))");
+
+        mergeFrom.beginControlFlow("default:")
+                .beginControlFlow(ifSkipField)
+                .addStatement("return this");
+        mergeFrom.endControlFlow()
+                .addStatement(named("tag = input.readTag()"))
+                .addStatement("break")
+                .endControlFlow();
+
+        mergeFrom.endControlFlow();
+        mergeFrom.endControlFlow();
+        type.addMethod(mergeFrom.build());
+    }
+
     private int getPackedTagOrTag(FieldGenerator field) {
         if (field.getInfo().isPackable())
             return field.getInfo().getPackedTag();
@@ -383,6 +460,50 @@ class MessageGenerator {
         type.addMethod(writeTo.build());
     }
 
+    private void generateWriteToReverse(TypeSpec.Builder type) {
+        MethodSpec.Builder writeTo = MethodSpec.methodBuilder("writeToReverse")
+                .addJavadoc(Javadoc.inherit())
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(void.class)
+                .addParameter(RuntimeClasses.ReverseSink, "output", Modifier.FINAL);
+
+        boolean needsInitializationChecks = info.hasRequiredFieldsInHierarchy();
+        if (needsInitializationChecks) {
+            // Fail if any required bits are missing
+            insertFailOnMissingRequiredBits(writeTo);
+            writeTo.beginControlFlow("try");
+        }
+
+        // Same output as writeTo, but everything is written back to front
+        if (info.isStoreUnknownFieldsEnabled()) {
+            writeTo.addCode(named("if ($unknownBytes:N.length() > 0)"))
+                    .beginControlFlow("")
+                    .addStatement(named("output.writeRawBytes($unknownBytes:N)"))
+                    .endControlFlow();
+        }
+        final List<FieldGenerator> reversedFields = new ArrayList<>(getFieldSortedByOutputOrder());
+        Collections.reverse(reversedFields);
+        reversedFields.forEach(f -> {
+            if (f.getInfo().isRequired()) {
+                // no need to check has state again
+                f.generateReverseSerializationCode(writeTo);
+            } else {
+                writeTo.beginControlFlow("if ($L)", f.getInfo().getHasBit());
+                f.generateReverseSerializationCode(writeTo);
+                writeTo.endControlFlow();
+            }
+        });
+
+        if (needsInitializationChecks) {
+            writeTo.nextControlFlow("catch ($T nestedFail)", RuntimeClasses.UninitializedMessageException)
+                    .addStatement("throw rethrowFromParent(nestedFail)")
+                    .endControlFlow();
+        }
+
+        type.addMethod(writeTo.build());
+    }
+
     private void generateComputeSerializedSize(TypeSpec.Builder type) {
         MethodSpec.Builder computeSerializedSize = MethodSpec.methodBuilder("computeSerializedSize")
                 .addJavadoc(Javadoc.inherit())
@@ -841,6 +962,166 @@ class MessageGenerator {
         type.addType(fieldNamesClass.build());
     }
 
+    private void generateFieldPaths(TypeSpec.Builder type) {
+        TypeSpec.Builder fieldPathsClass = TypeSpec.classBuilder(info.getFieldPathsClass().simpleName())
+                .addJavadoc("Contains path constants for finding fields in serialized data\n")
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL);
+
+        fields.forEach(f -> fieldPathsClass.addField(FieldSpec.builder(RuntimeClasses.FieldPath,
+                        f.getInfo().getProtoFieldName().toUpperCase(Locale.US),
+                        Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL)
+                .initializer("$T.of($L)", RuntimeClasses.FieldPath, f.getInfo().getNumber())
+                .build()));
+
+        type.addType(fieldPathsClass.build());
+    }
+
+    private void generateVisitor(TypeSpec.Builder type) {
+        TypeSpec.Builder visitor = TypeSpec.classBuilder("Visitor")
+                .addJavadoc("Adapter that turns the events of {@link $T#visit} into typed callbacks for each\n" +
+                        "field. Unknown fields and values with an unexpected wire type are ignored.\n", RuntimeClasses.ProtoSource)
+                .addModifiers(Modifier.PUBLIC, Modifier.ABSTRACT, Modifier.STATIC)
+                .addSuperinterface(RuntimeClasses.ProtoVisitor);
+
+        MethodSpec.Builder onVarint = visitorMethod("onVarint").addParameter(long.class, "value");
+        MethodSpec.Builder onFixed32 = visitorMethod("onFixed32").addParameter(int.class, "value");
+        MethodSpec.Builder onFixed64 = visitorMethod("onFixed64").addParameter(long.class, "value");
+        MethodSpec.Builder onLengthDelimited = visitorMethod("onLengthDelimited")
+                .addParameter(RuntimeClasses.ProtoSource, "source")
+                .addParameter(int.class, "length");
+        MethodSpec.Builder onGroup = visitorMethod("onGroup").addParameter(RuntimeClasses.ProtoSource, "source");
+        for (MethodSpec.Builder method : Arrays.asList(onVarint, onFixed32, onFixed64, onLengthDelimited, onGroup)) {
+            method.beginControlFlow("switch (fieldNumber)");
+        }
+
+        List<MethodSpec> callbacks = new ArrayList<>();
+        for (FieldGenerator field : fields) {
+            final FieldInfo f = field.getInfo();
+            final String callback = "on" + f.getUpperName();
+            final MethodSpec.Builder method = MethodSpec.methodBuilder(callback)
+                    .addModifiers(Modifier.PUBLIC)
+                    .addException(IOException.class);
+
+            switch (f.getDescriptor().getType()) {
+                case TYPE_STRING:
+                case TYPE_BYTES:
+                case TYPE_MESSAGE:
+                    method.addParameter(RuntimeClasses.ProtoSource, "source").addParameter(int.class, "length");
+                    addVisitorCase(onLengthDelimited, f, "$N(source, length)", callback);
+                    break;
+                case TYPE_GROUP:
+                    method.addParameter(RuntimeClasses.ProtoSource, "source");
+                    addVisitorCase(onGroup, f, "$N(source)", callback);
+                    break;
+                default:
+                    final TypeName valueType;
+                    final MethodSpec.Builder wireMethod;
+                    final String decode;
+                    switch (f.getDescriptor().getType()) {
+                        case TYPE_INT32:
+                        case TYPE_UINT32:
+                        case TYPE_ENUM:
+                            valueType = TypeName.INT;
+                            wireMethod = onVarint;
+                            decode = "$N((int) value)";
+                            break;
+                        case TYPE_SINT32:
+                            valueType = TypeName.INT;
+                            wireMethod = onVarint;
+                            decode = "$N($T.decodeZigZag32((int) value))";
+                            break;
+                        case TYPE_INT64:
+                        case TYPE_UINT64:
+                            valueType = TypeName.LONG;
+                            wireMethod = onVarint;
+                            decode = "$N(value)";
+                            break;
+                        case TYPE_SINT64:
+                            valueType = TypeName.LONG;
+                            wireMethod = onVarint;
+                            decode = "$N($T.decodeZigZag64(value))";
+                            break;
+                        case TYPE_BOOL:
+                            valueType = TypeName.BOOLEAN;
+                            wireMethod = onVarint;
+                            decode = "$N(value != 0)";
+                            break;
+                        case TYPE_FIXED32:
+                        case TYPE_SFIXED32:
+                            valueType = TypeName.INT;
+                            wireMethod = onFixed32;
+                            decode = "$N(value)";
+                            break;
+                        case TYPE_FLOAT:
+                            valueType = TypeName.FLOAT;
+                            wireMethod = onFixed32;
+                            decode = "$N(Float.intBitsToFloat(value))";
+                            break;
+                        case TYPE_FIXED64:
+                        case TYPE_SFIXED64:
+                            valueType = TypeName.LONG;
+                            wireMethod = onFixed64;
+                            decode = "$N(value)";
+                            break;
+                        case TYPE_DOUBLE:
+                            valueType = TypeName.DOUBLE;
+                            wireMethod = onFixed64;
+                            decode = "$N(Double.longBitsToDouble(value))";
+                            break;
+                        default:
+                            throw new GeneratorException("Unsupported visitor type: " + f.getDescriptor().getType());
+                    }
+                    method.addParameter(valueType, "value");
+                    if (decode.contains("$T")) {
+                        addVisitorCase(wireMethod, f, decode, callback, RuntimeClasses.ProtoSource);
+                    } else {
+                        addVisitorCase(wireMethod, f, decode, callback);
+                    }
+
+                    // Repeated values may also be received in packed form
+                    if (f.isPackable()) {
+                        onLengthDelimited.beginControlFlow("case $L:", f.getNumber())
+                                .addComment("$L [packed=true]", f.getProtoFieldName())
+                                .beginControlFlow("while (!source.isAtEnd())")
+                                .addStatement("$N(source.read$L())", callback,
+                                        FieldUtil.getCapitalizedType(f.getDescriptor().getType()))
+                                .endControlFlow()
+                                .addStatement("break")
+                                .endControlFlow();
+                    }
+                    break;
+            }
+            callbacks.add(method.build());
+        }
+
+        for (MethodSpec.Builder method : Arrays.asList(onVarint, onFixed32, onFixed64, onLengthDelimited, onGroup)) {
+            visitor.addMethod(method.endControlFlow().build());
+        }
+        visitor.addMethod(visitorMethod("onStartMessage").build());
+        visitor.addMethod(visitorMethod("onEndMessage").build());
+        callbacks.forEach(visitor::addMethod);
+        type.addType(visitor.build());
+    }
+
+    private static MethodSpec.Builder visitorMethod(String name) {
+        MethodSpec.Builder method = MethodSpec.methodBuilder(name)
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .addException(IOException.class);
+        if (!name.endsWith("Message")) {
+            method.addParameter(int.class, "fieldNumber");
+        }
+        return method;
+    }
+
+    private static void addVisitorCase(MethodSpec.Builder method, FieldInfo field, String callCode, Object... args) {
+        method.beginControlFlow("case $L:", field.getNumber())
+                .addComment("$L", field.getProtoFieldName())
+                .addStatement(callCode, args)
+                .addStatement("break")
+                .endControlFlow();
+    }
+
     private void generateDescriptors(TypeSpec.Builder type) {
         ClassName descriptorClass = info.getParentFile().getOuterClassName();
         String fieldName = DescriptorGenerator.getDescriptorFieldName(info);
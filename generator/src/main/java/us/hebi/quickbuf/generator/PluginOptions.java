@@ -50,6 +50,8 @@ class PluginOptions {
         enforceHasChecksEnabled = parseBoolean(map.getOrDefault("enforce_has_checks", "false"));
         tryGetAccessorsEnabled = parseBoolean(map.getOrDefault("java8_optional", "false"));
         generateDescriptors = parseBoolean(map.getOrDefault("gen_descriptors", "false"));
+        generateVisitors = parseBoolean(map.getOrDefault("gen_visitors", "false"));
+        generateProjections = parseBoolean(map.getOrDefault("gen_projections", "false"));
     }
 
     enum FieldSerializationOrder {
@@ -96,6 +98,7 @@ class PluginOptions {
     enum AllocationStrategy {
         Lazy,
         LazyMessage,
+        LazyParsing,
         Eager;
 
         static AllocationStrategy parseFromString(String string) {
@@ -104,10 +107,12 @@ class PluginOptions {
                     return Lazy;
                 case "lazymsg":
                     return LazyMessage;
+                case "lazyparse":
+                    return LazyParsing;
                 case "eager":
                     return Eager;
             }
-            throw new GeneratorException("'allocation' parameter accepts ['lazy', 'lazymsg', 'eager']. Found: " + string);
+            throw new GeneratorException("'allocation' parameter accepts ['lazy', 'lazymsg', 'lazyparse', 'eager']. Found: " + string);
         }
 
     }
@@ -169,6 +174,8 @@ class PluginOptions {
     final boolean enforceHasChecksEnabled;
     final boolean tryGetAccessorsEnabled;
     final boolean generateDescriptors;
+    final boolean generateVisitors;
+    final boolean generateProjections;
     final Function<String, String> replacePackageFunction;
 
 }
@@ -28,6 +28,7 @@ import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.ToString;
 import lombok.Value;
+import us.hebi.quickbuf.generator.PluginOptions.AllocationStrategy;
 import us.hebi.quickbuf.generator.PluginOptions.ExtensionSupport;
 import us.hebi.quickbuf.generator.PluginOptions.FieldSerializationOrder;
 
@@ -158,6 +159,7 @@ public class RequestInfo {
             this.parentFile = parentFile;
             this.typeName = isNested ? parentType.nestedClass(name) : parentType.peerClass(name);
             this.fieldNamesClass = this.typeName.nestedClass("FieldNames");
+            this.fieldPathsClass = this.typeName.nestedClass("FieldPaths");
             this.typeId = parentTypeId + "." + name;
             this.fullName = typeId.startsWith(".") ? typeId.substring(1) : typeId;
             this.isNested = isNested;
@@ -170,6 +172,7 @@ public class RequestInfo {
         protected final String fullName;
         protected final ClassName typeName;
         protected final ClassName fieldNamesClass;
+        protected final ClassName fieldPathsClass;
         private final SourceCodeInfo.Location sourceLocation;
 
     }
@@ -414,6 +417,7 @@ public class RequestInfo {
             // only messages
             switch (getPluginOptions().getAllocationStrategy()) {
                 case Lazy:
+                case LazyParsing:
                     return true;
                 case LazyMessage:
                     return isMessageOrGroup();
@@ -423,6 +427,22 @@ public class RequestInfo {
             }
         }
 
+        public boolean isLazyParsingEnabled() {
+            // Groups are not length delimited, and messages with required fields
+            // would need to be parsed for initialization checks anyway
+            return getPluginOptions().getAllocationStrategy() == AllocationStrategy.LazyParsing
+                    && isMessage() && !isRepeated() && !isRequired()
+                    && !isMessageOrGroupWithRequiredFieldsInHierarchy();
+        }
+
+        public String getSerializedFieldName() {
+            return "_serialized" + getUpperName();
+        }
+
+        public String getMaterializeName() {
+            return "materialize" + getUpperName();
+        }
+
         public boolean isEnforceHasCheckEnabled() {
             return getPluginOptions().isEnforceHasChecksEnabled();
         }
@@ -35,6 +35,10 @@ class RuntimeClasses {
 
     static final ClassName ProtoSource = ClassName.get(API_PACKAGE, "ProtoSource");
     static final ClassName ProtoSink = ClassName.get(API_PACKAGE, "ProtoSink");
+    static final ClassName ReverseSink = ClassName.get(API_PACKAGE, "ReverseSink");
+    static final ClassName FieldProjection = ClassName.get(API_PACKAGE, "FieldProjection");
+    static final ClassName FieldPath = ClassName.get(API_PACKAGE, "FieldPath");
+    static final ClassName ProtoVisitor = ClassName.get(API_PACKAGE, "ProtoVisitor");
     static final ClassName ProtoUtil = ClassName.get(API_PACKAGE, "ProtoUtil");
     static final ClassName AbstractMessage = ClassName.get(API_PACKAGE, "ProtoMessage");
     static final ClassName MessageFactory = ClassName.get(API_PACKAGE, "MessageFactory");
@@ -66,8 +66,26 @@ class ArraySink extends ProtoSink {
         return new OutOfSpaceException(position, limit);
     }
 
+    /**
+     * Gets called when the remaining space is smaller than the number of bytes
+     * that are about to be written. Sinks that own their memory may grow, while
+     * all other sinks run out of space.
+     *
+     * @param numBytes minimum number of bytes that are required
+     * @return true if at least numBytes are available after returning
+     */
+    protected boolean grow(final int numBytes) {
+        return false;
+    }
+
     @Override
     public final void writeStringNoTag(final CharSequence value) throws IOException {
+        // Growable sinks reserve the worst case up-front because the encoder can't resize
+        final int maxSize = MAX_VARINT32_SIZE + value.length() * Utf8.MAX_UTF8_EXPANSION;
+        if (spaceLeft() < maxSize) {
+            grow(maxSize);
+        }
+
         // UTF-8 byte length of the string is at least its UTF-16 code unit length (value.length()),
         // and at most 3 times of it. Optimize for the case where we know this length results in a
         // constant varint length - saves measuring length of the string.
@@ -91,7 +109,7 @@ class ArraySink extends ProtoSink {
 
     @Override
     public void writeRawByte(final byte value) throws IOException {
-        if (position == limit) {
+        if (position == limit && !grow(1)) {
             throw outOfSpace();
         }
         buffer[position++] = value;
@@ -154,35 +172,53 @@ class ArraySink extends ProtoSink {
 
     @Override
     protected void writeRawBooleans(final boolean[] values, final int length) throws IOException {
-        ByteUtil.writeBooleans(buffer, require(length), values, length);
+        ByteUtil.writeBooleans(buffer, require(length), values, 0, length);
     }
 
     @Override
     protected void writeRawFixed32s(final int[] values, final int length) throws IOException {
-        ByteUtil.writeLittleEndian32s(buffer, require(length * FIXED_32_SIZE), values, length);
+        ByteUtil.writeLittleEndian32s(buffer, require(length * FIXED_32_SIZE), values, 0, length);
     }
 
     @Override
     protected void writeRawFixed64s(final long[] values, final int length) throws IOException {
-        ByteUtil.writeLittleEndian64s(buffer, require(length * FIXED_64_SIZE), values, length);
+        ByteUtil.writeLittleEndian64s(buffer, require(length * FIXED_64_SIZE), values, 0, length);
     }
 
     @Override
     protected void writeRawFloats(final float[] values, final int length) throws IOException {
-        ByteUtil.writeFloats(buffer, require(length * FIXED_32_SIZE), values, length);
+        ByteUtil.writeFloats(buffer, require(length * FIXED_32_SIZE), values, 0, length);
     }
 
     @Override
     protected void writeRawDoubles(final double[] values, final int length) throws IOException {
-        ByteUtil.writeDoubles(buffer, require(length * FIXED_64_SIZE), values, length);
+        ByteUtil.writeDoubles(buffer, require(length * FIXED_64_SIZE), values, 0, length);
     }
 
     protected int writeUtf8Encoded(final CharSequence value, final byte[] buffer, final int position, final int maxSize) {
         return Utf8.encodeArray(value, buffer, position, maxSize);
     }
 
+    @Override
+    protected void writeRawVarint32s(final int[] values, final int length, final int numBytes, final int encoding) throws IOException {
+        int offset = require(numBytes);
+        final int limit = offset + numBytes;
+        for (int i = 0; i < length; i++) {
+            offset = ByteUtil.writeVarint(buffer, offset, limit, toVarint64(values[i], encoding));
+        }
+    }
+
+    @Override
+    protected void writeRawVarint64s(final long[] values, final int length, final int numBytes, final int encoding) throws IOException {
+        int offset = require(numBytes);
+        final int limit = offset + numBytes;
+        for (int i = 0; i < length; i++) {
+            offset = ByteUtil.writeVarint(buffer, offset, limit, toVarint64(values[i], encoding));
+        }
+    }
+
     private int require(final int numBytes) throws OutOfSpaceException {
-        if (spaceLeft() < numBytes)
+        if (spaceLeft() < numBytes && !grow(numBytes))
             throw outOfSpace();
         try {
             return position;
@@ -238,7 +274,7 @@ class ArraySink extends ProtoSink {
 
         @Override
         public void writeRawByte(final byte value) throws IOException {
-            if (position == limit) {
+            if (position == limit && !grow(1)) {
                 throw outOfSpace();
             }
             UNSAFE.putByte(buffer, baseOffset + position++, value);
@@ -277,27 +313,27 @@ class ArraySink extends ProtoSink {
 
         @Override
         protected void writeRawBooleans(final boolean[] values, final int length) throws IOException {
-            ByteUtil.writeUnsafeBooleans(buffer, require(length), values, length);
+            ByteUtil.writeUnsafeBooleans(buffer, require(length), values, 0, length);
         }
 
         @Override
         protected void writeRawFixed32s(final int[] values, final int length) throws IOException {
-            ByteUtil.writeUnsafeLittleEndian32s(buffer, require(length * FIXED_32_SIZE), values, length);
+            ByteUtil.writeUnsafeLittleEndian32s(buffer, require(length * FIXED_32_SIZE), values, 0, length);
         }
 
         @Override
         protected void writeRawFixed64s(final long[] values, final int length) throws IOException {
-            ByteUtil.writeUnsafeLittleEndian64s(buffer, require(length * FIXED_64_SIZE), values, length);
+            ByteUtil.writeUnsafeLittleEndian64s(buffer, require(length * FIXED_64_SIZE), values, 0, length);
         }
 
         @Override
         protected void writeRawFloats(final float[] values, final int length) throws IOException {
-            ByteUtil.writeUnsafeFloats(buffer, require(length * FIXED_32_SIZE), values, length);
+            ByteUtil.writeUnsafeFloats(buffer, require(length * FIXED_32_SIZE), values, 0, length);
         }
 
         @Override
         protected void writeRawDoubles(final double[] values, final int length) throws IOException {
-            ByteUtil.writeUnsafeDoubles(buffer, require(length * FIXED_64_SIZE), values, length);
+            ByteUtil.writeUnsafeDoubles(buffer, require(length * FIXED_64_SIZE), values, 0, length);
         }
 
         @Override
@@ -305,8 +341,26 @@ class ArraySink extends ProtoSink {
             return Utf8.encodeUnsafe(value, buffer, baseOffset, position, maxSize);
         }
 
+        @Override
+        protected void writeRawVarint32s(final int[] values, final int length, final int numBytes, final int encoding) throws IOException {
+            long offset = require(numBytes);
+            final long limit = offset + numBytes;
+            for (int i = 0; i < length; i++) {
+                offset = ByteUtil.writeUnsafeVarint(buffer, offset, limit, toVarint64(values[i], encoding));
+            }
+        }
+
+        @Override
+        protected void writeRawVarint64s(final long[] values, final int length, final int numBytes, final int encoding) throws IOException {
+            long offset = require(numBytes);
+            final long limit = offset + numBytes;
+            for (int i = 0; i < length; i++) {
+                offset = ByteUtil.writeUnsafeVarint(buffer, offset, limit, toVarint64(values[i], encoding));
+            }
+        }
+
         private long require(final int numBytes) throws OutOfSpaceException {
-            if (spaceLeft() < numBytes)
+            if (spaceLeft() < numBytes && !grow(numBytes))
                 throw outOfSpace();
             try {
                 return baseOffset + position;
@@ -399,31 +453,31 @@ class ArraySink extends ProtoSink {
         @Override
         protected void writeRawBooleans(final boolean[] values, final int length) {
             final int position = output.addLength(length);
-            ByteUtil.writeBooleans(output.array(), position, values, length);
+            ByteUtil.writeBooleans(output.array(), position, values, 0, length);
         }
 
         @Override
         protected void writeRawFixed32s(final int[] values, final int length) {
             final int position = output.addLength(length * FIXED_32_SIZE);
-            ByteUtil.writeLittleEndian32s(output.array(), position, values, length);
+            ByteUtil.writeLittleEndian32s(output.array(), position, values, 0, length);
         }
 
         @Override
         protected void writeRawFixed64s(final long[] values, final int length) {
             final int position = output.addLength(length * FIXED_64_SIZE);
-            ByteUtil.writeLittleEndian64s(output.array(), position, values, length);
+            ByteUtil.writeLittleEndian64s(output.array(), position, values, 0, length);
         }
 
         @Override
         protected void writeRawFloats(final float[] values, final int length) {
             final int position = output.addLength(length * FIXED_32_SIZE);
-            ByteUtil.writeFloats(output.array(), position, values, length);
+            ByteUtil.writeFloats(output.array(), position, values, 0, length);
         }
 
         @Override
         protected void writeRawDoubles(final double[] values, final int length) {
             final int position = output.addLength(length * FIXED_64_SIZE);
-            ByteUtil.writeDoubles(output.array(), position, values, length);
+            ByteUtil.writeDoubles(output.array(), position, values, 0, length);
         }
 
         int initialPosition = 0;
@@ -40,6 +40,7 @@ class ArraySource extends ProtoSource{
     protected int limit;
     protected int position;
     protected byte[] buffer;
+    private boolean aliasing = false;
 
     @Override
     protected ProtoSource resetInternalState() {
@@ -221,6 +222,115 @@ class ArraySource extends ProtoSource{
         return buffer[position++];
     }
 
+    @Override
+    public int readRawVarint32() throws IOException {
+        if (!ENABLE_UNSAFE_UNALIGNED || getReadableBytes() < FIXED_64_SIZE) {
+            return super.readRawVarint32();
+        }
+        return (int) readRawVarint(ByteUtil.readLittleEndian64(buffer, position), false);
+    }
+
+    @Override
+    public long readRawVarint64() throws IOException {
+        if (!ENABLE_UNSAFE_UNALIGNED || getReadableBytes() < FIXED_64_SIZE) {
+            return super.readRawVarint64();
+        }
+        return readRawVarint(ByteUtil.readLittleEndian64(buffer, position), true);
+    }
+
+    /**
+     * Decodes a varint from the 8 bytes at the current position using SWAR (SIMD within
+     * a register) instructions. The word may extend beyond the current limit as long as
+     * it stays within the buffer. Varints that are longer than 8 bytes or that exceed the
+     * limit get decoded byte by byte.
+     */
+    protected final long readRawVarint(final long word, final boolean is64) throws IOException {
+        if ((word & 0x80) == 0) {
+            position++;
+            return word & 0x7F;
+        }
+        final long stopBits = ByteUtil.getVarintStopBits(word);
+        final int length = ByteUtil.getVarintLength(stopBits);
+        if (stopBits == 0 || length > limit - position) {
+            return is64 ? super.readRawVarint64() : super.readRawVarint32();
+        }
+        position += length;
+        return ByteUtil.decodeVarint(word, stopBits);
+    }
+
+    @Override
+    protected int readRawVarint64s(final long[] values, final int offset, final int length) throws IOException {
+        if (!ENABLE_UNSAFE_UNALIGNED) {
+            return 0;
+        }
+        int count = 0;
+        while (count < length && getReadableBytes() >= FIXED_64_SIZE) {
+            // find the boundaries of all varints that terminate within the next 8 bytes
+            long word = readRawWord(position);
+            long stopBits = ByteUtil.getVarintStopBits(word);
+            if (stopBits == 0) {
+                return count; // 9 or 10 byte varint
+            }
+            do {
+                final int numBytes = ByteUtil.getVarintLength(stopBits);
+                if (numBytes > limit - position) {
+                    return count;
+                }
+                values[offset + count++] = ByteUtil.decodeVarint(word, stopBits);
+                position += numBytes;
+                if (numBytes == FIXED_64_SIZE) {
+                    break;
+                }
+                word >>>= numBytes << 3;
+                stopBits >>>= numBytes << 3;
+            } while (stopBits != 0 && count < length);
+        }
+        return count;
+    }
+
+    @Override
+    protected int readRawVarint32s(final int[] values, final int offset, final int length) throws IOException {
+        if (!ENABLE_UNSAFE_UNALIGNED) {
+            return 0;
+        }
+        int count = 0;
+        while (count < length && getReadableBytes() >= FIXED_64_SIZE) {
+            // find the boundaries of all varints that terminate within the next 8 bytes
+            long word = readRawWord(position);
+            long stopBits = ByteUtil.getVarintStopBits(word);
+            if (stopBits == 0) {
+                return count; // e.g. negative int32 that got sign extended to 10 bytes
+            }
+            do {
+                final int numBytes = ByteUtil.getVarintLength(stopBits);
+                if (numBytes > limit - position) {
+                    return count;
+                }
+                values[offset + count++] = (int) ByteUtil.decodeVarint(word, stopBits);
+                position += numBytes;
+                if (numBytes == FIXED_64_SIZE) {
+                    break;
+                }
+                word >>>= numBytes << 3;
+                stopBits >>>= numBytes << 3;
+            } while (stopBits != 0 && count < length);
+        }
+        return count;
+    }
+
+    /**
+     * @return the 8 bytes at the given position in little endian order. The caller
+     * needs to make sure that the bytes are within the buffer.
+     */
+    protected long readRawWord(int position) {
+        return ByteUtil.readLittleEndian64(buffer, position);
+    }
+
+    /** @return the number of bytes that can be read from the buffer, including bytes after the current limit */
+    protected final int getReadableBytes() {
+        return limit + bufferSizeAfterLimit - position;
+    }
+
     @Override
     public short readRawLittleEndian16() throws IOException {
         return ByteUtil.readLittleEndian16(buffer, require(FIXED_16_SIZE));
@@ -246,6 +356,24 @@ class ArraySource extends ProtoSource{
         return ByteUtil.readDouble(buffer, require(FIXED_64_SIZE));
     }
 
+    @Override
+    public ProtoSource enableAliasing(boolean enabled) {
+        aliasing = enabled;
+        return this;
+    }
+
+    @Override
+    public void readString(final Utf8String store) throws IOException {
+        if (!aliasing || buffer == null) {
+            super.readString(store);
+            return;
+        }
+        final int length = readLength();
+        requireRemaining(length);
+        store.setAlias(buffer, position, length);
+        position += length;
+    }
+
     @Override
     public void readRawBytes(byte[] values, int offset, int length) throws IOException {
         ByteUtil.readBytes(buffer, require(length), values, offset, length);
@@ -338,6 +466,27 @@ class ArraySource extends ProtoSource{
             return UNSAFE.getByte(buffer, baseOffset + position++);
         }
 
+        @Override
+        public int readRawVarint32() throws IOException {
+            if (!ENABLE_UNSAFE_UNALIGNED || getReadableBytes() < FIXED_64_SIZE) {
+                return super.readRawVarint32();
+            }
+            return (int) readRawVarint(ByteUtil.readUnsafeLittleEndian64(buffer, baseOffset + position), false);
+        }
+
+        @Override
+        public long readRawVarint64() throws IOException {
+            if (!ENABLE_UNSAFE_UNALIGNED || getReadableBytes() < FIXED_64_SIZE) {
+                return super.readRawVarint64();
+            }
+            return readRawVarint(ByteUtil.readUnsafeLittleEndian64(buffer, baseOffset + position), true);
+        }
+
+        @Override
+        protected long readRawWord(int position) {
+            return ByteUtil.readUnsafeLittleEndian64(buffer, baseOffset + position);
+        }
+
         @Override
         public short readRawLittleEndian16() throws IOException {
             return ByteUtil.readUnsafeLittleEndian16(buffer, require(FIXED_16_SIZE));
@@ -0,0 +1,169 @@
+/*-
+ * #%L
+ * quickbuf-runtime
+ * %%
+ * Copyright (C) 2019 - 2022 HEBI Robotics
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package us.hebi.quickbuf;
+
+import java.io.IOException;
+
+import static us.hebi.quickbuf.ProtoUtil.*;
+
+/**
+ * Serializes many messages back to back into a single reusable buffer. The
+ * sizes of all messages get computed in a first pass, so the buffer only
+ * needs to be allocated once and the messages can be written without any
+ * bounds checks on the output.
+ * <p>
+ * Each call returns an offset index where entry {@code i} is the start of
+ * message {@code i} and entry {@code count} is the end of the last message.
+ * The buffer and the index are reused by subsequent calls.
+ */
+public final class BatchEncoder {
+
+    public static BatchEncoder newInstance() {
+        return new BatchEncoder();
+    }
+
+    private BatchEncoder() {
+    }
+
+    /**
+     * Serializes all messages back to back without length delimiters.
+     *
+     * @return offset index with {@code messages.length() + 1} valid entries
+     */
+    public int[] encode(RepeatedMessage<?> messages) {
+        return encode(messages.array, 0, messages.length(), false);
+    }
+
+    /**
+     * Serializes all messages back to back without length delimiters.
+     *
+     * @return offset index with {@code length + 1} valid entries
+     */
+    public int[] encode(ProtoMessage<?>[] messages, int offset, int length) {
+        return encode(messages, offset, length, false);
+    }
+
+    /**
+     * Serializes all messages back to back in length delimited form, i.e., in
+     * the same format as {@link ProtoMessage#writeDelimitedTo(ProtoSink)}. The
+     * offsets point at the start of the length prefix.
+     *
+     * @return offset index with {@code messages.length() + 1} valid entries
+     */
+    public int[] encodeDelimited(RepeatedMessage<?> messages) {
+        return encode(messages.array, 0, messages.length(), true);
+    }
+
+    /**
+     * Serializes all messages back to back in length delimited form, i.e., in
+     * the same format as {@link ProtoMessage#writeDelimitedTo(ProtoSink)}. The
+     * offsets point at the start of the length prefix.
+     *
+     * @return offset index with {@code length + 1} valid entries
+     */
+    public int[] encodeDelimited(ProtoMessage<?>[] messages, int offset, int length) {
+        return encode(messages, offset, length, true);
+    }
+
+    private int[] encode(Object[] messages, int offset, int length, boolean delimited) {
+        checkArgument(offset >= 0 && length >= 0 && offset + length <= messages.length, "index out of bounds");
+        if (offsets.length <= length) {
+            offsets = new int[Math.max(length + 1, offsets.length * 2)];
+        }
+
+        // Compute sizes and offsets in a first pass
+        long position = 0;
+        offsets[0] = 0;
+        for (int i = 0; i < length; i++) {
+            final int size = ((ProtoMessage<?>) messages[offset + i]).getSerializedSize();
+            position += delimited ? ProtoSink.computeUInt32SizeNoTag(size) + size : size;
+            if (position > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("batch exceeds the maximum array size");
+            }
+            offsets[i + 1] = (int) position;
+        }
+        count = length;
+        bytes.setLength(0);
+        bytes.addLength(offsets[length]);
+
+        // Write using the cached sizes
+        try {
+            sink.setOutput(bytes.array, 0, bytes.length);
+            for (int i = 0; i < length; i++) {
+                final ProtoMessage<?> msg = (ProtoMessage<?>) messages[offset + i];
+                if (delimited) {
+                    sink.writeMessageNoTag(msg);
+                } else {
+                    msg.writeTo(sink);
+                }
+            }
+            sink.checkNoSpaceLeft();
+        } catch (IOException e) {
+            throw new RuntimeException("Serializing to a byte array threw an IOException "
+                    + "(should never happen).", e);
+        }
+        return offsets;
+    }
+
+    /**
+     * @return the internal buffer that contains the serialized messages
+     * from index zero to {@link #getLength()}
+     */
+    public byte[] getBuffer() {
+        return bytes.array;
+    }
+
+    /**
+     * @return the total number of serialized bytes
+     */
+    public int getLength() {
+        return bytes.length;
+    }
+
+    /**
+     * @return the number of messages in the last batch
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return offset index with {@code getCount() + 1} valid entries. The
+     * array is reused and may be longer than required.
+     */
+    public int[] getOffsets() {
+        return offsets;
+    }
+
+    /**
+     * Returns a copy of the serialized messages, e.g., for handing
+     * the data off to another thread.
+     */
+    public byte[] toByteArray() {
+        return bytes.toArray();
+    }
+
+    private final RepeatedByte bytes = RepeatedByte.newEmptyInstance();
+    private final ProtoSink sink = ProtoSink.newArraySink();
+    private int[] offsets = new int[1];
+    private int count = 0;
+
+}
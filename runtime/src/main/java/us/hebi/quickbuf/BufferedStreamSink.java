@@ -0,0 +1,473 @@
+/*-
+ * #%L
+ * quickbuf-runtime
+ * %%
+ * Copyright (C) 2019 - 2022 HEBI Robotics
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package us.hebi.quickbuf;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+import static us.hebi.quickbuf.ProtoUtil.*;
+import static us.hebi.quickbuf.UnsafeAccess.*;
+import static us.hebi.quickbuf.WireFormat.*;
+
+/**
+ * Sink that encodes into an internal buffer and writes to an {@link OutputStream}
+ * whenever the buffer is full or when {@link #flush()} gets called. Byte arrays
+ * that are larger than the buffer bypass the buffer and get written directly
+ * to the stream.
+ */
+class BufferedStreamSink extends ProtoSink {
+
+    BufferedStreamSink(int bufferSize) {
+        this(new byte[checkBufferSize(bufferSize)], bufferSize);
+    }
+
+    /**
+     * @param buffer   internal buffer, or null if a subclass manages its own storage
+     * @param capacity size of the internal buffer
+     */
+    BufferedStreamSink(byte[] buffer, int capacity) {
+        this.buffer = buffer;
+        this.capacity = checkBufferSize(capacity);
+    }
+
+    static int checkBufferSize(int bufferSize) {
+        checkArgument(bufferSize >= MIN_BUFFER_SIZE, "buffer size must be at least " + MIN_BUFFER_SIZE);
+        return bufferSize;
+    }
+
+    /**
+     * Changes the output to the given stream. Data that has not been flushed
+     * to the previous stream gets discarded.
+     */
+    @Override
+    public ProtoSink setOutput(OutputStream outputStream) {
+        this.stream = checkNotNull(outputStream);
+        position = 0;
+        totalBytesFlushed = 0;
+        return this;
+    }
+
+    @Override
+    public ProtoSink setOutput(WritableByteChannel channel) {
+        return setOutput(Channels.newOutputStream(channel));
+    }
+
+    @Override
+    public ProtoSink clear() {
+        return setOutput(EMPTY_OUTPUT_STREAM);
+    }
+
+    @Override
+    public int getTotalBytesWritten() {
+        return totalBytesFlushed + position;
+    }
+
+    /**
+     * Resets the counter for the total bytes written. Buffered
+     * data is kept and still gets written on the next flush.
+     */
+    @Override
+    public ProtoSink reset() {
+        totalBytesFlushed = -position;
+        return this;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        stream.flush();
+    }
+
+    protected final void flushBuffer() throws IOException {
+        if (position > 0) {
+            writeOutput(position);
+            totalBytesFlushed += position;
+            position = 0;
+        }
+    }
+
+    /** Writes the first length bytes of the internal buffer to the output */
+    protected void writeOutput(int length) throws IOException {
+        stream.write(buffer, 0, length);
+    }
+
+    /** Writes the bytes directly to the output without going through the internal buffer */
+    protected void writeOutput(byte[] value, int offset, int length) throws IOException {
+        stream.write(value, offset, length);
+    }
+
+    /** Copies length bytes from the source to the internal buffer at the given position */
+    protected void copyToBuffer(byte[] value, int offset, int position, int length) {
+        System.arraycopy(value, offset, buffer, position, length);
+    }
+
+    protected int writeUtf8Encoded(final CharSequence value, final int position, final int maxSize) {
+        return Utf8.encodeArray(value, buffer, position, maxSize);
+    }
+
+    /** moves forward by numBytes and returns the current position */
+    protected final int require(final int numBytes) throws IOException {
+        if (capacity - position < numBytes) {
+            flushBuffer();
+        }
+        final int pos = position;
+        position += numBytes;
+        return pos;
+    }
+
+    @Override
+    public void writeRawByte(final byte value) throws IOException {
+        if (position == capacity) {
+            flushBuffer();
+        }
+        buffer[position++] = value;
+    }
+
+    @Override
+    public void writeUInt32NoTag(int value) throws IOException {
+        int pos = position;
+        if (capacity - pos < MAX_VARINT32_SIZE) {
+            flushBuffer();
+            pos = 0;
+        }
+        final byte[] buffer = this.buffer;
+        while ((value & ~0x7F) != 0) {
+            buffer[pos++] = (byte) (value | 0x80);
+            value >>>= 7;
+        }
+        buffer[pos++] = (byte) value;
+        position = pos;
+    }
+
+    @Override
+    public void writeUInt64NoTag(long value) throws IOException {
+        int pos = position;
+        if (capacity - pos < MAX_VARINT64_SIZE) {
+            flushBuffer();
+            pos = 0;
+        }
+        final byte[] buffer = this.buffer;
+        while ((value & ~0x7FL) != 0) {
+            buffer[pos++] = (byte) (((int) value) | 0x80);
+            value >>>= 7;
+        }
+        buffer[pos++] = (byte) value;
+        position = pos;
+    }
+
+    @Override
+    public void writeRawLittleEndian16(final short value) throws IOException {
+        final int pos = require(FIXED_16_SIZE);
+        ByteUtil.writeLittleEndian16(buffer, pos, value);
+    }
+
+    @Override
+    public void writeRawLittleEndian32(final int value) throws IOException {
+        final int pos = require(FIXED_32_SIZE);
+        ByteUtil.writeLittleEndian32(buffer, pos, value);
+    }
+
+    @Override
+    public void writeRawLittleEndian64(final long value) throws IOException {
+        final int pos = require(FIXED_64_SIZE);
+        ByteUtil.writeLittleEndian64(buffer, pos, value);
+    }
+
+    @Override
+    public void writeFloatNoTag(final float value) throws IOException {
+        final int pos = require(FIXED_32_SIZE);
+        ByteUtil.writeFloat(buffer, pos, value);
+    }
+
+    @Override
+    public void writeDoubleNoTag(final double value) throws IOException {
+        final int pos = require(FIXED_64_SIZE);
+        ByteUtil.writeDouble(buffer, pos, value);
+    }
+
+    @Override
+    public void writeRawBytes(final byte[] value, int offset, int length) throws IOException {
+        if (length <= capacity - position) {
+            copyToBuffer(value, offset, position, length);
+            position += length;
+        } else if (length < capacity) {
+            flushBuffer();
+            copyToBuffer(value, offset, 0, length);
+            position = length;
+        } else {
+            // Large payloads get written directly to the output
+            flushBuffer();
+            writeOutput(value, offset, length);
+            totalBytesFlushed += length;
+        }
+    }
+
+    @Override
+    public void writeStringNoTag(final CharSequence value) throws IOException {
+        // Encode directly into the buffer if the worst case fits. See ArraySink for
+        // notes on reserving space for the length delimiter.
+        final int maxSize = value.length() * Utf8.MAX_UTF8_EXPANSION;
+        if (maxSize > capacity - MAX_VARINT32_SIZE) {
+            super.writeStringNoTag(value);
+            return;
+        }
+        if (capacity - position < maxSize + MAX_VARINT32_SIZE) {
+            flushBuffer();
+        }
+        final int maxLengthVarIntSize = computeRawVarint32Size(maxSize);
+        if (maxLengthVarIntSize == 1 || maxLengthVarIntSize == computeRawVarint32Size(value.length())) {
+            final int startPosition = position + maxLengthVarIntSize;
+            final int endPosition = writeUtf8Encoded(value, startPosition, maxSize);
+            writeLength(endPosition - startPosition);
+            position = endPosition;
+        } else {
+            writeLength(Utf8.encodedLength(value));
+            position = writeUtf8Encoded(value, position, maxSize);
+        }
+    }
+
+    @Override
+    protected void writeRawBooleans(final boolean[] values, final int length) throws IOException {
+        // copy in chunks that fit into the buffer
+        for (int offset = 0; offset < length; ) {
+            final int n = Math.min(length - offset, capacity);
+            final int pos = require(n);
+            ByteUtil.writeBooleans(buffer, pos, values, offset, n);
+            offset += n;
+        }
+    }
+
+    @Override
+    protected void writeRawFixed32s(final int[] values, final int length) throws IOException {
+        // copy in chunks that fit into the buffer
+        for (int offset = 0; offset < length; ) {
+            final int n = Math.min(length - offset, capacity / FIXED_32_SIZE);
+            final int pos = require(n * FIXED_32_SIZE);
+            ByteUtil.writeLittleEndian32s(buffer, pos, values, offset, n);
+            offset += n;
+        }
+    }
+
+    @Override
+    protected void writeRawFixed64s(final long[] values, final int length) throws IOException {
+        // copy in chunks that fit into the buffer
+        for (int offset = 0; offset < length; ) {
+            final int n = Math.min(length - offset, capacity / FIXED_64_SIZE);
+            final int pos = require(n * FIXED_64_SIZE);
+            ByteUtil.writeLittleEndian64s(buffer, pos, values, offset, n);
+            offset += n;
+        }
+    }
+
+    @Override
+    protected void writeRawFloats(final float[] values, final int length) throws IOException {
+        // copy in chunks that fit into the buffer
+        for (int offset = 0; offset < length; ) {
+            final int n = Math.min(length - offset, capacity / FIXED_32_SIZE);
+            final int pos = require(n * FIXED_32_SIZE);
+            ByteUtil.writeFloats(buffer, pos, values, offset, n);
+            offset += n;
+        }
+    }
+
+    @Override
+    protected void writeRawDoubles(final double[] values, final int length) throws IOException {
+        // copy in chunks that fit into the buffer
+        for (int offset = 0; offset < length; ) {
+            final int n = Math.min(length - offset, capacity / FIXED_64_SIZE);
+            final int pos = require(n * FIXED_64_SIZE);
+            ByteUtil.writeDoubles(buffer, pos, values, offset, n);
+            offset += n;
+        }
+    }
+
+    protected byte[] buffer;
+    protected final int capacity;
+    protected int position = 0;
+    protected int totalBytesFlushed = 0;
+    private OutputStream stream = EMPTY_OUTPUT_STREAM;
+
+    static final int DEFAULT_BUFFER_SIZE = 4096;
+    static final int MIN_BUFFER_SIZE = MAX_VARINT_SIZE;
+    private static final OutputStream EMPTY_OUTPUT_STREAM = new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+            // do nothing
+        }
+    };
+
+    /**
+     * Sink that encodes into a native buffer using the potentially unsupported
+     * (e.g. Android) sun.misc.Unsafe intrinsics, similar to the
+     * {@link ArraySink.DirectArraySink}. Subclasses are responsible for
+     * providing the address of the current buffer.
+     */
+    static abstract class DirectStreamSink extends BufferedStreamSink {
+
+        protected long address;
+
+        DirectStreamSink(int capacity) {
+            super(null, capacity);
+            if (!UnsafeAccess.isAvailable() || !UnsafeAccess.BufferAccess.isAvailable())
+                throw new AssertionError(getClass().getSimpleName() + " requires access to sun.misc.Unsafe");
+        }
+
+        @Override
+        protected void copyToBuffer(byte[] value, int offset, int position, int length) {
+            ProtoUtil.checkBounds(value, offset, length);
+            ByteUtil.writeUnsafeBytes(null, address + position, value, offset, length);
+        }
+
+        @Override
+        protected int writeUtf8Encoded(final CharSequence value, final int position, final int maxSize) {
+            return Utf8.encodeUnsafe(value, null, address, position, maxSize);
+        }
+
+        @Override
+        public void writeRawByte(final byte value) throws IOException {
+            if (position == capacity) {
+                flushBuffer();
+            }
+            UNSAFE.putByte(address + position++, value);
+        }
+
+        @Override
+        public void writeUInt32NoTag(int value) throws IOException {
+            int pos = position;
+            if (capacity - pos < MAX_VARINT32_SIZE) {
+                flushBuffer();
+                pos = 0;
+            }
+            final long address = this.address;
+            while ((value & ~0x7F) != 0) {
+                UNSAFE.putByte(address + pos++, (byte) (value | 0x80));
+                value >>>= 7;
+            }
+            UNSAFE.putByte(address + pos++, (byte) value);
+            position = pos;
+        }
+
+        @Override
+        public void writeUInt64NoTag(long value) throws IOException {
+            int pos = position;
+            if (capacity - pos < MAX_VARINT64_SIZE) {
+                flushBuffer();
+                pos = 0;
+            }
+            final long address = this.address;
+            while ((value & ~0x7FL) != 0) {
+                UNSAFE.putByte(address + pos++, (byte) (((int) value) | 0x80));
+                value >>>= 7;
+            }
+            UNSAFE.putByte(address + pos++, (byte) value);
+            position = pos;
+        }
+
+        @Override
+        public void writeRawLittleEndian16(final short value) throws IOException {
+            final int pos = require(FIXED_16_SIZE);
+            ByteUtil.writeUnsafeLittleEndian16(null, address + pos, value);
+        }
+
+        @Override
+        public void writeRawLittleEndian32(final int value) throws IOException {
+            final int pos = require(FIXED_32_SIZE);
+            ByteUtil.writeUnsafeLittleEndian32(null, address + pos, value);
+        }
+
+        @Override
+        public void writeRawLittleEndian64(final long value) throws IOException {
+            final int pos = require(FIXED_64_SIZE);
+            ByteUtil.writeUnsafeLittleEndian64(null, address + pos, value);
+        }
+
+        @Override
+        public void writeFloatNoTag(final float value) throws IOException {
+            final int pos = require(FIXED_32_SIZE);
+            ByteUtil.writeUnsafeFloat(null, address + pos, value);
+        }
+
+        @Override
+        public void writeDoubleNoTag(final double value) throws IOException {
+            final int pos = require(FIXED_64_SIZE);
+            ByteUtil.writeUnsafeDouble(null, address + pos, value);
+        }
+
+        @Override
+        protected void writeRawBooleans(final boolean[] values, final int length) throws IOException {
+            // copy in chunks that fit into the buffer
+            for (int offset = 0; offset < length; ) {
+                final int n = Math.min(length - offset, capacity);
+                final int pos = require(n);
+                ByteUtil.writeUnsafeBooleans(null, address + pos, values, offset, n);
+                offset += n;
+            }
+        }
+
+        @Override
+        protected void writeRawFixed32s(final int[] values, final int length) throws IOException {
+            // copy in chunks that fit into the buffer
+            for (int offset = 0; offset < length; ) {
+                final int n = Math.min(length - offset, capacity / FIXED_32_SIZE);
+                final int pos = require(n * FIXED_32_SIZE);
+                ByteUtil.writeUnsafeLittleEndian32s(null, address + pos, values, offset, n);
+                offset += n;
+            }
+        }
+
+        @Override
+        protected void writeRawFixed64s(final long[] values, final int length) throws IOException {
+            // copy in chunks that fit into the buffer
+            for (int offset = 0; offset < length; ) {
+                final int n = Math.min(length - offset, capacity / FIXED_64_SIZE);
+                final int pos = require(n * FIXED_64_SIZE);
+                ByteUtil.writeUnsafeLittleEndian64s(null, address + pos, values, offset, n);
+                offset += n;
+            }
+        }
+
+        @Override
+        protected void writeRawFloats(final float[] values, final int length) throws IOException {
+            // copy in chunks that fit into the buffer
+            for (int offset = 0; offset < length; ) {
+                final int n = Math.min(length - offset, capacity / FIXED_32_SIZE);
+                final int pos = require(n * FIXED_32_SIZE);
+                ByteUtil.writeUnsafeFloats(null, address + pos, values, offset, n);
+                offset += n;
+            }
+        }
+
+        @Override
+        protected void writeRawDoubles(final double[] values, final int length) throws IOException {
+            // copy in chunks that fit into the buffer
+            for (int offset = 0; offset < length; ) {
+                final int n = Math.min(length - offset, capacity / FIXED_64_SIZE);
+                final int pos = require(n * FIXED_64_SIZE);
+                ByteUtil.writeUnsafeDoubles(null, address + pos, values, offset, n);
+                offset += n;
+            }
+        }
+
+    }
+
+}
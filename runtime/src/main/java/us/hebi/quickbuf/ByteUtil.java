@@ -167,55 +167,55 @@ final class ByteUtil {
         System.arraycopy(values, srcOffset, buffer, offset, length);
     }
 
-    static void writeBooleans(final byte[] buffer, int offset, final boolean[] values, final int length) {
+    static void writeBooleans(final byte[] buffer, int offset, final boolean[] values, final int srcOffset, final int length) {
         if (ENABLE_UNSAFE_COPY) {
             UNSAFE.copyMemory(
-                    values, BOOLEAN_ARRAY_OFFSET,
+                    values, BOOLEAN_ARRAY_OFFSET + srcOffset,
                     buffer, BYTE_ARRAY_OFFSET + offset,
                     length);
         } else {
             for (int i = 0; i < length; i++) {
-                buffer[offset + i] = values[i] ? (byte) 1 : 0;
+                buffer[offset + i] = values[srcOffset + i] ? (byte) 1 : 0;
             }
         }
     }
 
-    static void writeLittleEndian32s(final byte[] buffer, int offset, final int[] values, final int length) {
+    static void writeLittleEndian32s(final byte[] buffer, int offset, final int[] values, final int srcOffset, final int length) {
         if (IS_LITTLE_ENDIAN && ENABLE_UNSAFE_COPY) {
-            UNSAFE.copyMemory(values, INT_ARRAY_OFFSET, buffer, BYTE_ARRAY_OFFSET + offset, FIXED_32_SIZE * (long) length);
+            UNSAFE.copyMemory(values, INT_ARRAY_OFFSET + (long) srcOffset * FIXED_32_SIZE, buffer, BYTE_ARRAY_OFFSET + offset, FIXED_32_SIZE * (long) length);
         } else {
             for (int i = 0; i < length; i++, offset += FIXED_32_SIZE) {
-                writeLittleEndian32(buffer, offset, values[i]);
+                writeLittleEndian32(buffer, offset, values[srcOffset + i]);
             }
         }
     }
 
-    static void writeLittleEndian64s(final byte[] buffer, int offset, final long[] values, final int length) {
+    static void writeLittleEndian64s(final byte[] buffer, int offset, final long[] values, final int srcOffset, final int length) {
         if (IS_LITTLE_ENDIAN && ENABLE_UNSAFE_COPY) {
-            UNSAFE.copyMemory(values, LONG_ARRAY_OFFSET, buffer, BYTE_ARRAY_OFFSET + offset, FIXED_64_SIZE * (long) length);
+            UNSAFE.copyMemory(values, LONG_ARRAY_OFFSET + (long) srcOffset * FIXED_64_SIZE, buffer, BYTE_ARRAY_OFFSET + offset, FIXED_64_SIZE * (long) length);
         } else {
             for (int i = 0; i < length; i++, offset += FIXED_64_SIZE) {
-                writeLittleEndian64(buffer, offset, values[i]);
+                writeLittleEndian64(buffer, offset, values[srcOffset + i]);
             }
         }
     }
 
-    static void writeFloats(final byte[] buffer, int offset, final float[] values, final int length) {
+    static void writeFloats(final byte[] buffer, int offset, final float[] values, final int srcOffset, final int length) {
         if (IS_LITTLE_ENDIAN && ENABLE_UNSAFE_COPY) {
-            UNSAFE.copyMemory(values, FLOAT_ARRAY_OFFSET, buffer, BYTE_ARRAY_OFFSET + offset, FIXED_32_SIZE * (long) length);
+            UNSAFE.copyMemory(values, FLOAT_ARRAY_OFFSET + (long) srcOffset * FIXED_32_SIZE, buffer, BYTE_ARRAY_OFFSET + offset, FIXED_32_SIZE * (long) length);
         } else {
             for (int i = 0; i < length; i++, offset += FIXED_32_SIZE) {
-                writeFloat(buffer, offset, values[i]);
+                writeFloat(buffer, offset, values[srcOffset + i]);
             }
         }
     }
 
-    static void writeDoubles(final byte[] buffer, int offset, final double[] values, final int length) {
+    static void writeDoubles(final byte[] buffer, int offset, final double[] values, final int srcOffset, final int length) {
         if (IS_LITTLE_ENDIAN && ENABLE_UNSAFE_COPY) {
-            UNSAFE.copyMemory(values, DOUBLE_ARRAY_OFFSET, buffer, BYTE_ARRAY_OFFSET + offset, FIXED_64_SIZE * (long) length);
+            UNSAFE.copyMemory(values, DOUBLE_ARRAY_OFFSET + (long) srcOffset * FIXED_64_SIZE, buffer, BYTE_ARRAY_OFFSET + offset, FIXED_64_SIZE * (long) length);
         } else {
             for (int i = 0; i < length; i++, offset += FIXED_64_SIZE) {
-                writeDouble(buffer, offset, values[i]);
+                writeDouble(buffer, offset, values[srcOffset + i]);
             }
         }
     }
@@ -257,6 +257,76 @@ final class ByteUtil {
         }
     }
 
+    /**
+     * Returns a mask with the most significant bit set for every byte of the little
+     * endian word that terminates a varint, i.e., for every byte without the
+     * continuation bit. A result of zero means that the varint is longer than 8 bytes.
+     */
+    static long getVarintStopBits(long word) {
+        return ~word & 0x8080808080808080L;
+    }
+
+    /**
+     * @param stopBits non-zero result of {@link #getVarintStopBits(long)}
+     * @return number of bytes of the first varint in the word
+     */
+    static int getVarintLength(long stopBits) {
+        return (Long.numberOfTrailingZeros(stopBits) + 1) >>> 3;
+    }
+
+    /**
+     * Decodes the first varint of a little endian word without branching on the individual
+     * bytes. The bytes after the terminating byte get masked out and the 7 bit groups get
+     * compacted in three steps of pairs, i.e., 8x7 bits to 4x14 bits to 2x28 bits to 56 bits.
+     *
+     * @param word     8 bytes starting with the varint
+     * @param stopBits non-zero result of {@link #getVarintStopBits(long)}
+     * @return value of a varint with up to 8 bytes
+     */
+    static long decodeVarint(long word, long stopBits) {
+        long x = word & (stopBits ^ (stopBits - 1));
+        x = (x & 0x007F007F007F007FL) | ((x & 0x7F007F007F007F00L) >>> 1);
+        x = (x & 0x00003FFF00003FFFL) | ((x & 0x3FFF00003FFF0000L) >>> 2);
+        return (x & 0x000000000FFFFFFFL) | ((x & 0x0FFFFFFF00000000L) >>> 4);
+    }
+
+    /**
+     * Spreads the lower 56 bits of a value into 8 groups of 7 bits and sets the continuation
+     * bits of all but the last byte, i.e., the inverse of {@link #decodeVarint(long, long)}.
+     *
+     * @param value value with up to 56 bits
+     * @param size  number of bytes of the varint
+     * @return little endian word starting with the varint
+     */
+    static long encodeVarint(long value, int size) {
+        long x = (value & 0x000000000FFFFFFFL) | ((value & 0x00FFFFFFF0000000L) << 4);
+        x = (x & 0x00003FFF00003FFFL) | ((x & 0x0FFFC0000FFFC000L) << 2);
+        x = (x & 0x007F007F007F007FL) | ((x & 0x3F803F803F803F80L) << 1);
+        return x | (0x8080808080808080L & ((1L << ((size - 1) << 3)) - 1));
+    }
+
+    /**
+     * Writes a varint without checking for available space. Values that fit into 8 bytes get
+     * written as a single word if there are at least 8 bytes until the limit. The bytes after
+     * the varint get overwritten by subsequent values.
+     *
+     * @return position after the varint
+     */
+    static int writeVarint(final byte[] buffer, final int offset, final int limit, long value) {
+        final int size = ProtoSink.computeVarintSize(value);
+        if (ENABLE_UNSAFE_UNALIGNED && size <= FIXED_64_SIZE && limit - offset >= FIXED_64_SIZE) {
+            writeLittleEndian64(buffer, offset, encodeVarint(value, size));
+            return offset + size;
+        }
+        int position = offset;
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) (value | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+        return position;
+    }
+
     static float readFloat(byte[] buffer, int offset) {
         if (ENABLE_UNSAFE_UNALIGNED && IS_LITTLE_ENDIAN) {
             return UNSAFE.getFloat(buffer, BYTE_ARRAY_OFFSET + offset);
@@ -284,7 +354,7 @@ final class ByteUtil {
             UNSAFE.copyMemory(buffer, BYTE_ARRAY_OFFSET + offset, dst, targetOffset, numBytes);
         } else {
             for (int i = 0; i < dstLength; i++, offset += FIXED_32_SIZE) {
-                dst[i] = readLittleEndian32(buffer, offset);
+                dst[dstOffset + i] = readLittleEndian32(buffer, offset);
             }
         }
     }
@@ -296,7 +366,7 @@ final class ByteUtil {
             UNSAFE.copyMemory(buffer, BYTE_ARRAY_OFFSET + offset, dst, targetOffset, numBytes);
         } else {
             for (int i = 0; i < dstLength; i++, offset += FIXED_64_SIZE) {
-                dst[i] = readLittleEndian64(buffer, offset);
+                dst[dstOffset + i] = readLittleEndian64(buffer, offset);
             }
         }
     }
@@ -308,7 +378,7 @@ final class ByteUtil {
             UNSAFE.copyMemory(buffer, BYTE_ARRAY_OFFSET + offset, dst, targetOffset, numBytes);
         } else {
             for (int i = 0; i < dstLength; i++, offset += FIXED_32_SIZE) {
-                dst[i] = readFloat(buffer, offset);
+                dst[dstOffset + i] = readFloat(buffer, offset);
             }
         }
     }
@@ -320,7 +390,7 @@ final class ByteUtil {
             UNSAFE.copyMemory(buffer, BYTE_ARRAY_OFFSET + offset, dst, targetOffset, numBytes);
         } else {
             for (int i = 0; i < dstLength; i++, offset += FIXED_64_SIZE) {
-                dst[i] = readDouble(buffer, offset);
+                dst[dstOffset + i] = readDouble(buffer, offset);
             }
         }
     }
@@ -340,6 +410,21 @@ final class ByteUtil {
         }
     }
 
+    static long writeUnsafeVarint(final byte[] buffer, final long offset, final long limit, long value) {
+        final int size = ProtoSink.computeVarintSize(value);
+        if (ENABLE_UNSAFE_UNALIGNED && size <= FIXED_64_SIZE && limit - offset >= FIXED_64_SIZE) {
+            writeUnsafeLittleEndian64(buffer, offset, encodeVarint(value, size));
+            return offset + size;
+        }
+        long position = offset;
+        while ((value & ~0x7FL) != 0) {
+            UNSAFE.putByte(buffer, position++, (byte) (value | 0x80));
+            value >>>= 7;
+        }
+        UNSAFE.putByte(buffer, position++, (byte) value);
+        return position;
+    }
+
     static void writeUnsafeLittleEndian16(final byte[] buffer, final long offset, final short value) {
         if (ENABLE_UNSAFE_UNALIGNED) {
             if (IS_LITTLE_ENDIAN) {
@@ -417,55 +502,55 @@ final class ByteUtil {
         }
     }
 
-    static void writeUnsafeBooleans(byte[] buffer, long offset, final boolean[] values, final int length) {
+    static void writeUnsafeBooleans(byte[] buffer, long offset, final boolean[] values, final int srcOffset, final int length) {
         if (ENABLE_UNSAFE_COPY) {
             UNSAFE.copyMemory(
-                    values, BOOLEAN_ARRAY_OFFSET,
+                    values, BOOLEAN_ARRAY_OFFSET + srcOffset,
                     buffer, offset,
                     length);
         } else {
             for (int i = 0; i < length; i++, offset++) {
-                UNSAFE.putByte(buffer, offset, values[i] ? (byte) 1 : 0);
+                UNSAFE.putByte(buffer, offset, values[srcOffset + i] ? (byte) 1 : 0);
             }
         }
     }
 
-    static void writeUnsafeLittleEndian32s(final byte[] buffer, long offset, final int[] values, final int length) {
+    static void writeUnsafeLittleEndian32s(final byte[] buffer, long offset, final int[] values, final int srcOffset, final int length) {
         if (IS_LITTLE_ENDIAN && ENABLE_UNSAFE_COPY) {
-            UNSAFE.copyMemory(values, INT_ARRAY_OFFSET, buffer, offset, FIXED_32_SIZE * (long) length);
+            UNSAFE.copyMemory(values, INT_ARRAY_OFFSET + (long) srcOffset * FIXED_32_SIZE, buffer, offset, FIXED_32_SIZE * (long) length);
         } else {
             for (int i = 0; i < length; i++, offset += FIXED_32_SIZE) {
-                writeUnsafeLittleEndian32(buffer, offset, values[i]);
+                writeUnsafeLittleEndian32(buffer, offset, values[srcOffset + i]);
             }
         }
     }
 
-    static void writeUnsafeLittleEndian64s(final byte[] buffer, long offset, final long[] values, final int length) {
+    static void writeUnsafeLittleEndian64s(final byte[] buffer, long offset, final long[] values, final int srcOffset, final int length) {
         if (IS_LITTLE_ENDIAN && ENABLE_UNSAFE_COPY) {
-            UNSAFE.copyMemory(values, LONG_ARRAY_OFFSET, buffer, offset, FIXED_64_SIZE * (long) length);
+            UNSAFE.copyMemory(values, LONG_ARRAY_OFFSET + (long) srcOffset * FIXED_64_SIZE, buffer, offset, FIXED_64_SIZE * (long) length);
         } else {
             for (int i = 0; i < length; i++, offset += FIXED_64_SIZE) {
-                writeUnsafeLittleEndian64(buffer, offset, values[i]);
+                writeUnsafeLittleEndian64(buffer, offset, values[srcOffset + i]);
             }
         }
     }
 
-    static void writeUnsafeFloats(final byte[] buffer, long offset, final float[] values, final int length) {
+    static void writeUnsafeFloats(final byte[] buffer, long offset, final float[] values, final int srcOffset, final int length) {
         if (IS_LITTLE_ENDIAN && ENABLE_UNSAFE_COPY) {
-            UNSAFE.copyMemory(values, FLOAT_ARRAY_OFFSET, buffer, offset, FIXED_32_SIZE * (long) length);
+            UNSAFE.copyMemory(values, FLOAT_ARRAY_OFFSET + (long) srcOffset * FIXED_32_SIZE, buffer, offset, FIXED_32_SIZE * (long) length);
         } else {
             for (int i = 0; i < length; i++, offset += FIXED_32_SIZE) {
-                writeUnsafeFloat(buffer, offset, values[i]);
+                writeUnsafeFloat(buffer, offset, values[srcOffset + i]);
             }
         }
     }
 
-    static void writeUnsafeDoubles(final byte[] buffer, long offset, final double[] values, final int length) {
+    static void writeUnsafeDoubles(final byte[] buffer, long offset, final double[] values, final int srcOffset, final int length) {
         if (IS_LITTLE_ENDIAN && ENABLE_UNSAFE_COPY) {
-            UNSAFE.copyMemory(values, DOUBLE_ARRAY_OFFSET, buffer, offset, FIXED_64_SIZE * (long) length);
+            UNSAFE.copyMemory(values, DOUBLE_ARRAY_OFFSET + (long) srcOffset * FIXED_64_SIZE, buffer, offset, FIXED_64_SIZE * (long) length);
         } else {
             for (int i = 0; i < length; i++, offset += FIXED_64_SIZE) {
-                writeUnsafeDouble(buffer, offset, values[i]);
+                writeUnsafeDouble(buffer, offset, values[srcOffset + i]);
             }
         }
     }
@@ -541,7 +626,7 @@ final class ByteUtil {
             UNSAFE.copyMemory(buffer, offset, dst, targetOffset, numBytes);
         } else {
             for (int i = 0; i < dstLength; i++) {
-                dst[i] = readUnsafeLittleEndian32(buffer, offset);
+                dst[dstOffset + i] = readUnsafeLittleEndian32(buffer, offset);
                 offset += FIXED_32_SIZE;
             }
         }
@@ -554,7 +639,7 @@ final class ByteUtil {
             UNSAFE.copyMemory(buffer, offset, dst, targetOffset, numBytes);
         } else {
             for (int i = 0; i < dstLength; i++) {
-                dst[i] = readUnsafeLittleEndian64(buffer, offset);
+                dst[dstOffset + i] = readUnsafeLittleEndian64(buffer, offset);
                 offset += FIXED_64_SIZE;
             }
         }
@@ -567,7 +652,7 @@ final class ByteUtil {
             UNSAFE.copyMemory(buffer, offset, dst, targetOffset, numBytes);
         } else {
             for (int i = 0; i < dstLength; i++) {
-                dst[i] = readUnsafeFloat(buffer, offset);
+                dst[dstOffset + i] = readUnsafeFloat(buffer, offset);
                 offset += FIXED_32_SIZE;
             }
         }
@@ -580,7 +665,7 @@ final class ByteUtil {
             UNSAFE.copyMemory(buffer, offset, dst, targetOffset, numBytes);
         } else {
             for (int i = 0; i < dstLength; i++) {
-                dst[i] = readUnsafeDouble(buffer, offset);
+                dst[dstOffset + i] = readUnsafeDouble(buffer, offset);
                 offset += FIXED_64_SIZE;
             }
         }
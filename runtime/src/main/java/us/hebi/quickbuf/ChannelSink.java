@@ -0,0 +1,117 @@
+/*-
+ * #%L
+ * quickbuf-runtime
+ * %%
+ * Copyright (C) 2019 - 2022 HEBI Robotics
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package us.hebi.quickbuf;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+import static us.hebi.quickbuf.UnsafeAccess.*;
+
+/**
+ * Sink that encodes into a reusable direct buffer and writes to a
+ * {@link WritableByteChannel} whenever the buffer is full or when
+ * {@link #flush()} gets called. The channel can write from native
+ * memory without an extra copy.
+ * <p>
+ * Non-blocking channels are not supported and get rejected. Use {@link SuspendableWriter}
+ * to write messages into buffers that get drained separately.
+ */
+class ChannelSink extends BufferedStreamSink.DirectStreamSink {
+
+    ChannelSink(int bufferSize) {
+        super(bufferSize);
+        directBuffer = ByteBuffer.allocateDirect(bufferSize);
+        address = BufferAccess.address(directBuffer);
+    }
+
+    /**
+     * Changes the output to the given channel. Data that has not been flushed
+     * to the previous channel gets discarded.
+     */
+    @Override
+    public ProtoSink setOutput(WritableByteChannel channel) {
+        ProtoUtil.checkArgument(ChannelSource.isBlocking(channel), "non-blocking channels are not supported");
+        this.channel = channel;
+        position = 0;
+        return reset();
+    }
+
+    @Override
+    public ProtoSink setOutput(OutputStream outputStream) {
+        return setOutput(Channels.newChannel(outputStream));
+    }
+
+    @Override
+    public ProtoSink clear() {
+        return setOutput(EMPTY_CHANNEL);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+    }
+
+    @Override
+    protected void writeOutput(int length) throws IOException {
+        final Buffer buffer = directBuffer;
+        buffer.limit(length).position(0);
+        writeFully(directBuffer);
+    }
+
+    @Override
+    protected void writeOutput(byte[] value, int offset, int length) throws IOException {
+        writeFully(ByteBuffer.wrap(value, offset, length));
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.write(buffer) == 0) {
+                throw new IOException("non-blocking channels are not supported");
+            }
+        }
+    }
+
+    private final ByteBuffer directBuffer; // keeps the native memory alive
+    private WritableByteChannel channel = EMPTY_CHANNEL;
+
+    private static final WritableByteChannel EMPTY_CHANNEL = new WritableByteChannel() {
+        @Override
+        public int write(ByteBuffer src) {
+            final int remaining = src.remaining();
+            ((Buffer) src).position(src.limit());
+            return remaining;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+}
@@ -0,0 +1,112 @@
+/*-
+ * #%L
+ * quickbuf-runtime
+ * %%
+ * Copyright (C) 2019 - 2022 HEBI Robotics
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package us.hebi.quickbuf;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+
+import static us.hebi.quickbuf.UnsafeAccess.*;
+
+/**
+ * Source that reads from a {@link ReadableByteChannel} in chunks into a reusable
+ * direct buffer. The channel can read into the native memory without an extra
+ * copy, and values get decoded using the sun.misc.Unsafe intrinsics.
+ * <p>
+ * Non-blocking channels are not supported and get rejected, i.e., reads
+ * that return no data result in an {@link IOException} rather than a spin.
+ */
+class ChannelSource extends StreamSource.DirectStreamSource {
+
+    ChannelSource(int bufferSize) {
+        super(bufferSize);
+        directBuffer = ByteBuffer.allocateDirect(bufferSize);
+        address = BufferAccess.address(directBuffer);
+    }
+
+    @Override
+    public ProtoSource setInput(ReadableByteChannel channel) {
+        ProtoUtil.checkArgument(isBlocking(channel), "non-blocking channels are not supported");
+        this.channel = channel;
+        return resetInternalState();
+    }
+
+    @Override
+    public ProtoSource setInput(InputStream stream) {
+        return setInput(Channels.newChannel(stream));
+    }
+
+    @Override
+    public ProtoSource clear() {
+        return setInput(EMPTY_CHANNEL);
+    }
+
+    @Override
+    protected int fillBuffer(int offset, int length) throws IOException {
+        final Buffer buffer = directBuffer;
+        buffer.limit(offset + length).position(offset);
+        return checkRead(channel.read(directBuffer), length);
+    }
+
+    @Override
+    protected int readInput(byte[] dst, int offset, int length) throws IOException {
+        return checkRead(channel.read(ByteBuffer.wrap(dst, offset, length)), length);
+    }
+
+    private static int checkRead(int numBytes, int length) throws IOException {
+        if (numBytes == 0 && length > 0) {
+            throw new IOException("non-blocking channels are not supported");
+        }
+        return numBytes;
+    }
+
+    static boolean isBlocking(Object channel) {
+        return !(ProtoUtil.checkNotNull(channel) instanceof SelectableChannel)
+                || ((SelectableChannel) channel).isBlocking();
+    }
+
+    @Override
+    protected long skipInput(long length) throws IOException {
+        if (channel instanceof FileChannel) {
+            final FileChannel file = (FileChannel) channel;
+            final long position = file.position();
+            final long skipped = Math.min(length, file.size() - position);
+            if (skipped > 0) {
+                file.position(position + skipped);
+                return skipped;
+            }
+        }
+        return 0;
+    }
+
+    private final ByteBuffer directBuffer; // keeps the native memory alive
+    private ReadableByteChannel channel = EMPTY_CHANNEL;
+
+    private static final ReadableByteChannel EMPTY_CHANNEL = Channels.newChannel(
+            new ByteArrayInputStream(ProtoUtil.EMPTY_BYTE_ARRAY));
+
+}
@@ -0,0 +1,348 @@
+/*-
+ * #%L
+ * quickbuf-runtime
+ * %%
+ * Copyright (C) 2019 - 2022 HEBI Robotics
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package us.hebi.quickbuf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static us.hebi.quickbuf.ProtoUtil.*;
+import static us.hebi.quickbuf.WireFormat.*;
+
+/**
+ * Source that reads from a sequence of heap or direct {@link ByteBuffer} fragments
+ * without concatenating them. The current fragment gets wrapped by an {@link ArraySource}
+ * or {@link ArraySource.DirectArraySource}, so all values that are fully contained in a
+ * fragment get decoded using the regular array code. Only values that straddle a fragment
+ * boundary get assembled byte by byte.
+ * <p>
+ * The remaining bytes of each buffer get read, and the buffer state does not get modified.
+ */
+class CompositeSource extends ProtoSource {
+
+    @Override
+    public ProtoSource setInput(ByteBuffer[] buffers, int offset, int length) {
+        if (offset < 0 || length < 0 || offset > buffers.length || offset + length > buffers.length)
+            throw new ArrayIndexOutOfBoundsException();
+        long totalLength = 0;
+        for (int i = offset; i < offset + length; i++) {
+            totalLength += buffers[i].remaining();
+        }
+        checkArgument(totalLength <= Integer.MAX_VALUE, "total length exceeds the maximum array size");
+        this.buffers = buffers;
+        this.nextBuffer = offset;
+        this.endBuffer = offset + length;
+        this.totalLength = (int) totalLength;
+        this.fragmentStart = 0;
+        this.bufferSizeAfterLimit = 0;
+        this.fragment = heapSource;
+        heapSource.setInput(EMPTY_BYTE_ARRAY);
+        return resetInternalState();
+    }
+
+    @Override
+    public ProtoSource setInput(ByteBuffer buffer) {
+        single[0] = buffer;
+        return setInput(single);
+    }
+
+    @Override
+    public ProtoSource clear() {
+        single[0] = null;
+        return setInput(EMPTY_BUFFERS);
+    }
+
+    @Override
+    public int pushLimit(int byteLimit) throws InvalidProtocolBufferException {
+        if (byteLimit < 0) {
+            throw InvalidProtocolBufferException.negativeSize();
+        }
+        byteLimit += getTotalBytesRead();
+        if (byteLimit > currentLimit || byteLimit > totalLength) {
+            throw InvalidProtocolBufferException.truncatedMessage();
+        }
+        final int oldLimit = currentLimit;
+        currentLimit = byteLimit;
+        recomputeBufferSizeAfterLimit();
+        return oldLimit;
+    }
+
+    @Override
+    public void popLimit(final int oldLimit) {
+        currentLimit = oldLimit;
+        recomputeBufferSizeAfterLimit();
+    }
+
+    private void recomputeBufferSizeAfterLimit() {
+        final ArraySource fragment = this.fragment;
+        fragment.limit += bufferSizeAfterLimit;
+        final int fragmentEnd = fragmentStart + fragment.limit - fragment.offset;
+        if (fragmentEnd > currentLimit) {
+            // Limit is in current fragment.
+            bufferSizeAfterLimit = fragmentEnd - currentLimit;
+            fragment.limit -= bufferSizeAfterLimit;
+        } else {
+            // Limit is beyond bounds or not set
+            bufferSizeAfterLimit = 0;
+        }
+    }
+
+    @Override
+    public boolean isAtEnd() throws IOException {
+        return fragment.position == fragment.limit && !nextFragment();
+    }
+
+    @Override
+    public int getTotalBytesRead() {
+        return fragmentStart + fragment.position - fragment.offset;
+    }
+
+    @Override
+    public void rewindTo(int totalBytesRead) {
+        throw new UnsupportedOperationException("Composite source can't be rewound");
+    }
+
+    /**
+     * Moves to the next non-empty fragment if the current fragment has been
+     * fully consumed and the current limit has not been reached.
+     *
+     * @return true if more bytes are available
+     */
+    private boolean nextFragment() {
+        if (bufferSizeAfterLimit > 0 || getTotalBytesRead() == currentLimit) {
+            return false;
+        }
+        while (nextBuffer < endBuffer) {
+            fragmentStart += fragment.limit - fragment.offset;
+            final ByteBuffer buffer = buffers[nextBuffer++];
+            if (buffer.isDirect()) {
+                if (directSource == null) {
+                    directSource = new ArraySource.DirectArraySource();
+                }
+                fragment = directSource;
+            } else {
+                fragment = heapSource;
+            }
+            fragment.setInput(buffer);
+            if (fragment.position < fragment.limit) {
+                recomputeBufferSizeAfterLimit();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int remaining() {
+        return fragment.limit - fragment.position;
+    }
+
+    private void requireWithinLimits(int numBytes) throws IOException {
+        if (numBytes < 0) {
+            throw InvalidProtocolBufferException.negativeSize();
+        }
+        final int totalBytesRead = getTotalBytesRead();
+        if (numBytes > currentLimit - totalBytesRead || numBytes > totalLength - totalBytesRead) {
+            throw InvalidProtocolBufferException.truncatedMessage();
+        }
+    }
+
+    @Override
+    public byte readRawByte() throws IOException {
+        if (fragment.position == fragment.limit && !nextFragment()) {
+            throw InvalidProtocolBufferException.truncatedMessage();
+        }
+        return fragment.readRawByte();
+    }
+
+    @Override
+    public int readRawVarint32() throws IOException {
+        if (remaining() >= MAX_VARINT_SIZE) {
+            return fragment.readRawVarint32();
+        }
+        return super.readRawVarint32();
+    }
+
+    @Override
+    public long readRawVarint64() throws IOException {
+        if (remaining() >= MAX_VARINT_SIZE) {
+            return fragment.readRawVarint64();
+        }
+        return super.readRawVarint64();
+    }
+
+    @Override
+    public short readRawLittleEndian16() throws IOException {
+        if (remaining() >= FIXED_16_SIZE) {
+            return fragment.readRawLittleEndian16();
+        }
+        return (short) ((readRawByte() & 0xFF) | (readRawByte() & 0xFF) << 8);
+    }
+
+    @Override
+    public int readRawLittleEndian32() throws IOException {
+        if (remaining() >= FIXED_32_SIZE) {
+            return fragment.readRawLittleEndian32();
+        }
+        return readStraddlingLittleEndian32();
+    }
+
+    @Override
+    public long readRawLittleEndian64() throws IOException {
+        if (remaining() >= FIXED_64_SIZE) {
+            return fragment.readRawLittleEndian64();
+        }
+        return readStraddlingLittleEndian64();
+    }
+
+    @Override
+    public float readFloat() throws IOException {
+        if (remaining() >= FIXED_32_SIZE) {
+            return fragment.readFloat();
+        }
+        return Float.intBitsToFloat(readStraddlingLittleEndian32());
+    }
+
+    @Override
+    public double readDouble() throws IOException {
+        if (remaining() >= FIXED_64_SIZE) {
+            return fragment.readDouble();
+        }
+        return Double.longBitsToDouble(readStraddlingLittleEndian64());
+    }
+
+    private int readStraddlingLittleEndian32() throws IOException {
+        return (readRawByte() & 0xFF)
+                | (readRawByte() & 0xFF) << 8
+                | (readRawByte() & 0xFF) << 16
+                | (readRawByte() & 0xFF) << 24;
+    }
+
+    private long readStraddlingLittleEndian64() throws IOException {
+        final long low = readStraddlingLittleEndian32() & 0xFFFFFFFFL;
+        final long high = readStraddlingLittleEndian32() & 0xFFFFFFFFL;
+        return low | high << 32;
+    }
+
+    @Override
+    public void readRawBytes(byte[] values, int offset, int length) throws IOException {
+        if (length >= 0 && length <= remaining()) {
+            fragment.readRawBytes(values, offset, length);
+            return;
+        }
+        checkBounds(values, offset, length);
+        requireWithinLimits(length);
+        while (length > 0) {
+            if (fragment.position == fragment.limit) {
+                nextFragment();
+            }
+            final int n = Math.min(length, remaining());
+            fragment.readRawBytes(values, offset, n);
+            offset += n;
+            length -= n;
+        }
+    }
+
+    @Override
+    public void skipRawBytes(int size) throws IOException {
+        if (size >= 0 && size <= remaining()) {
+            fragment.position += size;
+            return;
+        }
+        requireWithinLimits(size);
+        while (size > 0) {
+            if (fragment.position == fragment.limit) {
+                nextFragment();
+            }
+            final int n = Math.min(size, remaining());
+            fragment.position += n;
+            size -= n;
+        }
+    }
+
+    @Override
+    protected void readRawFixed32s(int[] values, int offset, int length) throws IOException {
+        final int limit = offset + length;
+        while (offset < limit) {
+            final int n = Math.min(limit - offset, remaining() / FIXED_32_SIZE);
+            if (n > 0) {
+                fragment.readRawFixed32s(values, offset, n);
+                offset += n;
+            } else {
+                values[offset++] = readRawLittleEndian32(); // straddles fragments
+            }
+        }
+    }
+
+    @Override
+    protected void readRawFixed64s(long[] values, int offset, int length) throws IOException {
+        final int limit = offset + length;
+        while (offset < limit) {
+            final int n = Math.min(limit - offset, remaining() / FIXED_64_SIZE);
+            if (n > 0) {
+                fragment.readRawFixed64s(values, offset, n);
+                offset += n;
+            } else {
+                values[offset++] = readRawLittleEndian64(); // straddles fragments
+            }
+        }
+    }
+
+    @Override
+    protected void readRawFloats(float[] values, int offset, int length) throws IOException {
+        final int limit = offset + length;
+        while (offset < limit) {
+            final int n = Math.min(limit - offset, remaining() / FIXED_32_SIZE);
+            if (n > 0) {
+                fragment.readRawFloats(values, offset, n);
+                offset += n;
+            } else {
+                values[offset++] = readFloat(); // straddles fragments
+            }
+        }
+    }
+
+    @Override
+    protected void readRawDoubles(double[] values, int offset, int length) throws IOException {
+        final int limit = offset + length;
+        while (offset < limit) {
+            final int n = Math.min(limit - offset, remaining() / FIXED_64_SIZE);
+            if (n > 0) {
+                fragment.readRawDoubles(values, offset, n);
+                offset += n;
+            } else {
+                values[offset++] = readDouble(); // straddles fragments
+            }
+        }
+    }
+
+    private final ByteBuffer[] single = new ByteBuffer[1];
+    private final ArraySource heapSource = new ArraySource();
+    private ArraySource directSource = null;
+    private ArraySource fragment = heapSource;
+    private ByteBuffer[] buffers = EMPTY_BUFFERS;
+    private int nextBuffer = 0;
+    private int endBuffer = 0;
+    private int fragmentStart = 0;
+    private int totalLength = 0;
+    private int bufferSizeAfterLimit = 0;
+
+    private static final ByteBuffer[] EMPTY_BUFFERS = new ByteBuffer[0];
+
+}
@@ -0,0 +1,231 @@
+/*-
+ * #%L
+ * quickbuf-runtime
+ * %%
+ * Copyright (C) 2019 - 2022 HEBI Robotics
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package us.hebi.quickbuf;
+
+import java.io.IOException;
+
+import static us.hebi.quickbuf.ProtoUtil.*;
+
+/**
+ * Reads a sequence of length delimited messages, e.g., written via
+ * {@link ProtoMessage#writeDelimitedTo(ProtoSink)}, from any type of {@link ProtoSource}.
+ * Each call to {@link #next()} reads the length prefix of the next record, which can
+ * then be parsed via {@link #read()}, copied without parsing via {@link #readBytes(RepeatedByte)},
+ * forwarded via {@link #forwardTo(ProtoSink)}, or skipped. Records that were not consumed get
+ * skipped automatically.
+ * <p>
+ * Until the record gets consumed, the source stays positioned at the start of the payload, and
+ * {@link #getRecordOffset()} and {@link #getRecordLength()} provide its byte range. Callers that
+ * read from arrays or mapped files can use the range to filter or forward records without copying.
+ * <p>
+ * Parsed messages get reused from a ring of instances, so a returned message stays valid
+ * until the ring wraps around. A ring size of one reuses the same instance for every record.
+ * <pre>{@code
+ * DelimitedReader<MyMessage> reader = DelimitedReader.newInstance(MyMessage.getFactory());
+ * reader.setInput(ProtoSource.newInstance(bytes));
+ * while (reader.next()) {
+ *     MyMessage msg = reader.read();
+ * }
+ * }</pre>
+ */
+public final class DelimitedReader<T extends ProtoMessage<T>> {
+
+    public static <T extends ProtoMessage<T>> DelimitedReader<T> newInstance(MessageFactory<T> factory) {
+        return newInstance(factory, 1);
+    }
+
+    /**
+     * @param factory  factory for the message type
+     * @param ringSize number of message instances that get returned in round-robin order
+     */
+    public static <T extends ProtoMessage<T>> DelimitedReader<T> newInstance(MessageFactory<T> factory, int ringSize) {
+        checkNotNull(factory);
+        checkArgument(ringSize > 0, "ring size must be positive");
+        return new DelimitedReader<T>(factory, ringSize);
+    }
+
+    private DelimitedReader(MessageFactory<T> factory, int ringSize) {
+        this.factory = factory;
+        this.ring = new ProtoMessage[ringSize];
+    }
+
+    /**
+     * Changes the input to the given source and starts reading records
+     * at its current position.
+     */
+    public DelimitedReader<T> setInput(ProtoSource source) {
+        this.source = checkNotNull(source);
+        pending = false;
+        recordLength = 0;
+        recordOffset = 0;
+        return this;
+    }
+
+    /**
+     * Removes the reference to the current source. Message instances
+     * are kept for reuse.
+     */
+    public DelimitedReader<T> clear() {
+        return setInput(emptySource.clear());
+    }
+
+    /**
+     * Advances to the next record and skips the current record if it has
+     * not been consumed.
+     *
+     * @return true if there is another record, or false if the source ended cleanly
+     * after the previous record
+     * @throws InvalidProtocolBufferException if the source ended within a record
+     */
+    public boolean next() throws IOException {
+        if (pending) {
+            skip();
+        }
+        if (source.isAtEnd()) {
+            return false;
+        }
+        recordLength = source.readLength();
+        if (recordLength < 0) {
+            throw InvalidProtocolBufferException.negativeSize();
+        }
+        recordOffset = source.getTotalBytesRead();
+        pending = true;
+        return true;
+    }
+
+    /**
+     * @return the size of the current record in bytes, excluding the length prefix
+     */
+    public int getRecordLength() {
+        return recordLength;
+    }
+
+    /**
+     * Returns the start of the payload of the current record relative to the start of the
+     * input, i.e., the value of {@link ProtoSource#getTotalBytesRead()} after the length prefix.
+     * For array sources the payload starts at {@code offset + getRecordOffset()} of the array
+     * that was passed to the source, and for {@link java.nio.ByteBuffer} sources it is the
+     * position within the buffer. Sources that support long offsets, e.g., memory-mapped
+     * files, provide the absolute position via {@link ProtoSource#getPosition()} until the
+     * record gets consumed.
+     *
+     * @return the offset of the payload of the current record
+     */
+    public int getRecordOffset() {
+        return recordOffset;
+    }
+
+    /**
+     * Parses the current record into the next instance of the ring.
+     *
+     * @return the parsed message
+     */
+    public T read() throws IOException {
+        final T msg = nextInstance();
+        consume();
+        final int oldLimit = source.pushLimit(recordLength);
+        msg.mergeFrom(source);
+        source.checkLastTagWas(0);
+        source.popLimit(oldLimit);
+        return msg;
+    }
+
+    /**
+     * Copies the encoded bytes of the current record without parsing them,
+     * e.g., for filtering or for forwarding them to a {@link ProtoSink}.
+     *
+     * @param store destination for the bytes. Existing contents get replaced.
+     */
+    public void readBytes(RepeatedByte store) throws IOException {
+        consume();
+        store.setLength(recordLength);
+        source.readRawBytes(store.array(), 0, recordLength);
+    }
+
+    /**
+     * Writes the encoded bytes of the current record to the sink without parsing them. The
+     * length prefix does not get written. Records in heap arrays get written directly from the
+     * source array, and all other sources get copied through a small internal buffer.
+     *
+     * @param sink destination for the bytes
+     */
+    public void forwardTo(ProtoSink sink) throws IOException {
+        checkNotNull(sink);
+        consume();
+        if (source.getClass() == ArraySource.class) {
+            final ArraySource array = (ArraySource) source;
+            final int position = array.position;
+            array.skipRawBytes(recordLength); // checks bounds before writing
+            sink.writeRawBytes(array.buffer, position, recordLength);
+            return;
+        }
+        if (scratch == null) {
+            scratch = new byte[SCRATCH_SIZE];
+        }
+        for (int remaining = recordLength; remaining > 0; ) {
+            final int n = Math.min(remaining, scratch.length);
+            source.readRawBytes(scratch, 0, n);
+            sink.writeRawBytes(scratch, 0, n);
+            remaining -= n;
+        }
+    }
+
+    /**
+     * Skips the current record without parsing it.
+     */
+    public void skip() throws IOException {
+        consume();
+        source.skipRawBytes(recordLength);
+    }
+
+    private void consume() {
+        if (!pending) {
+            throw new IllegalStateException("no record available. next() needs to be called first");
+        }
+        pending = false;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T nextInstance() {
+        if (ringIndex == ring.length) {
+            ringIndex = 0;
+        }
+        T msg = (T) ring[ringIndex];
+        if (msg == null) {
+            ring[ringIndex] = msg = factory.create();
+        }
+        ringIndex++;
+        return msg.clearQuick();
+    }
+
+    private final MessageFactory<T> factory;
+    private final ProtoMessage<?>[] ring;
+    private final ProtoSource emptySource = ProtoSource.newArraySource(); // sources are stateful, so don't share
+    private int ringIndex = 0;
+    private ProtoSource source = emptySource;
+    private int recordLength = 0;
+    private int recordOffset = 0;
+    private boolean pending = false;
+    private byte[] scratch = null;
+
+    private static final int SCRATCH_SIZE = 4096;
+
+}
@@ -0,0 +1,147 @@
+/*-
+ * #%L
+ * quickbuf-runtime
+ * %%
+ * Copyright (C) 2019 HEBI Robotics
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package us.hebi.quickbuf;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import static us.hebi.quickbuf.ProtoUtil.*;
+import static us.hebi.quickbuf.UnsafeAccess.*;
+
+/**
+ * Sink that writes to a range of off-heap memory that is addressed with long
+ * offsets, so outputs larger than 2 GB can be written without copying. Values
+ * get encoded directly into a window of the memory that moves forward like the
+ * buffer of a stream.
+ * <p>
+ * Once the remaining memory is smaller than the window, the tail gets encoded into
+ * an internal buffer to avoid writing beyond the end, so {@link #flush()} needs to
+ * be called before the data is complete. Writing more than fits fails with an
+ * {@link OutOfSpaceException} once the data gets flushed.
+ */
+class DirectMemorySink extends BufferedStreamSink.DirectStreamSink {
+
+    DirectMemorySink(int windowSize) {
+        super(windowSize);
+        setUnassigned();
+    }
+
+    /**
+     * Changes the output to the memory starting at the given address
+     */
+    @Override
+    public ProtoSink setOutput(long address, long length) {
+        checkArgument(address != 0, "invalid address");
+        checkArgument(length >= 0, "length must not be negative");
+        baseAddress = address;
+        outputLength = length;
+        moveWindow(0);
+        position = 0;
+        return reset();
+    }
+
+    @Override
+    public ProtoSink setOutput(OutputStream outputStream) {
+        throw new UnsupportedOperationException("DirectMemorySink requires a memory address");
+    }
+
+    @Override
+    public ProtoSink setOutput(WritableByteChannel channel) {
+        throw new UnsupportedOperationException("DirectMemorySink requires a memory address");
+    }
+
+    @Override
+    public ProtoSink clear() {
+        setUnassigned();
+        return reset();
+    }
+
+    /**
+     * Returns the offset from the start address at which the next value will be written
+     */
+    @Override
+    public long getPosition() {
+        return windowStart + position;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+    }
+
+    /**
+     * Marks the buffer as full so that any write attempts to flush it and
+     * fails before accessing the memory.
+     */
+    private void setUnassigned() {
+        baseAddress = 0;
+        outputLength = 0;
+        address = 0;
+        windowStart = -capacity;
+        position = capacity;
+    }
+
+    private void moveWindow(long offset) {
+        windowStart = offset;
+        if (outputLength - offset >= capacity) {
+            address = baseAddress + offset;
+            return;
+        }
+        if (tailBuffer == null) {
+            tailBuffer = ByteBuffer.allocateDirect(capacity);
+            tailAddress = BufferAccess.address(tailBuffer);
+        }
+        address = tailAddress;
+    }
+
+    private void requireSpace(int length) throws OutOfSpaceException {
+        if (baseAddress == 0 || length > outputLength - windowStart) {
+            throw new OutOfSpaceException(position, capacity);
+        }
+    }
+
+    @Override
+    protected void writeOutput(int length) throws IOException {
+        requireSpace(length);
+        if (address == tailAddress) {
+            UNSAFE.copyMemory(tailAddress, baseAddress + windowStart, length);
+        }
+        moveWindow(windowStart + length);
+    }
+
+    @Override
+    protected void writeOutput(byte[] value, int offset, int length) throws IOException {
+        requireSpace(length);
+        ByteUtil.writeUnsafeBytes(null, baseAddress + windowStart, value, offset, length);
+        moveWindow(windowStart + length);
+    }
+
+    private long baseAddress;
+    private long outputLength;
+    private long windowStart;
+    private ByteBuffer tailBuffer = null; // keeps the native memory alive
+    private long tailAddress = 0;
+
+    static final int DEFAULT_WINDOW_SIZE = 64 * 1024;
+
+}
@@ -0,0 +1,150 @@
+/*-
+ * #%L
+ * quickbuf-runtime
+ * %%
+ * Copyright (C) 2019 HEBI Robotics
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package us.hebi.quickbuf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.ReadableByteChannel;
+
+import static us.hebi.quickbuf.ProtoUtil.*;
+
+/**
+ * Source that reads from a range of off-heap memory that is addressed with long
+ * offsets, so inputs larger than 2 GB can be parsed without copying. The memory gets
+ * read through a window that moves forward like the buffer of a stream, so limits
+ * of nested messages stay int based while the top level may exceed 2 GB.
+ * <p>
+ * Positions within the memory are addressed with long offsets via {@link #getPosition()}
+ * and {@link #setPosition(long)}. The memory is owned by the caller and must remain
+ * valid while it is being read.
+ */
+class DirectMemorySource extends StreamSource.DirectStreamSource {
+
+    DirectMemorySource(int windowSize) {
+        super(windowSize);
+    }
+
+    /**
+     * Changes the input to the memory starting at the given address
+     */
+    @Override
+    public ProtoSource setInput(long address, long length) {
+        checkArgument(address != 0, "invalid address");
+        checkArgument(length >= 0, "length must not be negative");
+        baseAddress = address;
+        inputLength = length;
+        return setPosition(0);
+    }
+
+    @Override
+    public ProtoSource setInput(InputStream stream) {
+        throw new UnsupportedOperationException("DirectMemorySource requires a memory address");
+    }
+
+    @Override
+    public ProtoSource setInput(ReadableByteChannel channel) {
+        throw new UnsupportedOperationException("DirectMemorySource requires a memory address");
+    }
+
+    @Override
+    public ProtoSource clear() {
+        baseAddress = 0;
+        inputLength = 0;
+        return setPosition(0);
+    }
+
+    @Override
+    public long getPosition() {
+        return windowStart + position;
+    }
+
+    @Override
+    public ProtoSource setPosition(long offset) {
+        checkArgument(offset >= 0 && offset <= inputLength, "position out of bounds");
+        resetInternalState();
+        moveWindow(offset);
+        return this;
+    }
+
+    @Override
+    protected void moveToFront(int position, int length) {
+        moveWindow(windowStart + position);
+    }
+
+    /** The unread bytes are already in place, so moving only needs to update the address */
+    private void moveWindow(long offset) {
+        windowStart = offset;
+        windowLength = (int) Math.min(capacity, inputLength - offset);
+        address = baseAddress + offset;
+    }
+
+    @Override
+    protected int fillBuffer(int offset, int length) throws IOException {
+        final int available = windowLength - offset;
+        return available <= 0 ? EOF : Math.min(available, length);
+    }
+
+    @Override
+    public void readRawBytes(byte[] values, int offset, int length) throws IOException {
+        if (length >= 0 && length <= limit - position) {
+            copyFromBuffer(position, values, offset, length);
+            position += length;
+            return;
+        }
+        checkBounds(values, offset, length);
+        requireWithinLimits(length);
+        while (length > 0) {
+            if (position == limit) {
+                refillBuffer(1);
+            }
+            final int n = Math.min(length, limit - position);
+            copyFromBuffer(position, values, offset, n);
+            position += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    @Override
+    public void skipRawBytes(final int size) throws IOException {
+        if (size >= 0 && size <= limit - position) {
+            position += size;
+            return;
+        }
+        requireWithinLimits(size);
+        final long target = getPosition() + size;
+        if (target > inputLength) {
+            position = limit;
+            throw InvalidProtocolBufferException.truncatedMessage();
+        }
+        totalBytesRetired += position + size;
+        position = limit = 0;
+        moveWindow(target);
+    }
+
+    private long baseAddress = 0;
+    private long inputLength = 0;
+    private long windowStart = 0;
+    private int windowLength = 0;
+
+    static final int DEFAULT_WINDOW_SIZE = 1 << 30;
+
+}
@@ -0,0 +1,276 @@
+/*-
+ * #%L
+ * quickbuf-runtime
+ * %%
+ * Copyright (C) 2019 - 2022 HEBI Robotics
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package us.hebi.quickbuf;
+
+import us.hebi.quickbuf.UnsafeAccess.BufferAccess;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static us.hebi.quickbuf.ProtoUtil.*;
+
+/**
+ * Overwrites fixed width fields, i.e., {@code fixed32}, {@code sfixed32}, {@code float},
+ * {@code fixed64}, {@code sfixed64}, and {@code double}, directly inside of an already
+ * serialized message without parsing and re-serializing it. This is useful for updating
+ * sequence numbers or timestamps before forwarding a message.
+ * <p>
+ * Parsers take the last occurrence of a field, e.g., after messages were concatenated
+ * or merged, so the entire message gets scanned and every occurrence of the field gets
+ * patched. All occurrences get validated before any bytes get modified. Varint encoded
+ * fields can't be patched because changing the value may change the encoded size.
+ * <pre>{@code
+ * FieldPatcher patcher = FieldPatcher.newInstance();
+ * patcher.setInput(bytes).setFixed64(MyMessage.FieldPaths.TIMESTAMP, System.nanoTime());
+ * }</pre>
+ */
+public final class FieldPatcher {
+
+    public static FieldPatcher newInstance() {
+        return new FieldPatcher();
+    }
+
+    private FieldPatcher() {
+    }
+
+    public FieldPatcher setInput(byte[] buffer) {
+        return setInput(buffer, 0, buffer.length);
+    }
+
+    public FieldPatcher setInput(byte[] buffer, int offset, int length) {
+        arraySource.setInput(buffer, offset, length);
+        this.source = arraySource;
+        this.array = buffer;
+        this.offset = offset;
+        this.length = length;
+        this.address = 0;
+        this.gcRef = null;
+        return this;
+    }
+
+    /**
+     * Patches the remaining bytes of the buffer. Direct buffers require
+     * access to sun.misc.Unsafe.
+     */
+    public FieldPatcher setInput(ByteBuffer buffer) {
+        checkArgument(!buffer.isReadOnly(), "ByteBuffer is read only");
+        if (buffer.hasArray()) {
+            return setInput(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+        checkArgument(BufferAccess.isAvailable(), "Accessors for direct buffers are not available");
+        if (directSource == null) {
+            directSource = ProtoSource.newDirectSource();
+        }
+        this.source = directSource;
+        this.array = null;
+        this.offset = 0;
+        this.length = buffer.remaining();
+        this.address = BufferAccess.address(buffer) + buffer.position();
+        this.gcRef = buffer; // keep native memory from being garbage collected
+        directSource.setInput(null, address, length);
+        return this;
+    }
+
+    /**
+     * Finds the offset of the value of a fixed width field relative to the start of the input.
+     * If the field occurs more than once, the offset of the last occurrence gets returned,
+     * i.e., the value that a parser would see.
+     *
+     * @return offset of the value, or -1 if the field is not present
+     * @throws IllegalArgumentException       if the field is not encoded with a fixed width
+     * @throws InvalidProtocolBufferException if the value is truncated or exceeds the enclosing message
+     */
+    public int findOffset(FieldPath path) throws IOException {
+        final int count = finder.find(path, ANY_FIXED_WIDTH);
+        return count == 0 ? -1 : offsets[count - 1];
+    }
+
+    /**
+     * Overwrites a {@code fixed32} or {@code sfixed32} field
+     *
+     * @return true if the field was found, or false if it is not present
+     */
+    public boolean setFixed32(FieldPath path, int value) throws IOException {
+        final int count = finder.find(path, WireFormat.WIRETYPE_FIXED32);
+        for (int i = 0; i < count; i++) {
+            if (array != null) {
+                ByteUtil.writeLittleEndian32(array, offset + offsets[i], value);
+            } else {
+                ByteUtil.writeUnsafeLittleEndian32(null, address + offsets[i], value);
+            }
+        }
+        return count > 0;
+    }
+
+    /**
+     * Overwrites a {@code fixed64} or {@code sfixed64} field
+     *
+     * @return true if the field was found, or false if it is not present
+     */
+    public boolean setFixed64(FieldPath path, long value) throws IOException {
+        final int count = finder.find(path, WireFormat.WIRETYPE_FIXED64);
+        for (int i = 0; i < count; i++) {
+            if (array != null) {
+                ByteUtil.writeLittleEndian64(array, offset + offsets[i], value);
+            } else {
+                ByteUtil.writeUnsafeLittleEndian64(null, address + offsets[i], value);
+            }
+        }
+        return count > 0;
+    }
+
+    /**
+     * Overwrites a {@code float} field
+     *
+     * @return true if the field was found, or false if it is not present
+     */
+    public boolean setFloat(FieldPath path, float value) throws IOException {
+        return setFixed32(path, Float.floatToIntBits(value));
+    }
+
+    /**
+     * Overwrites a {@code double} field
+     *
+     * @return true if the field was found, or false if it is not present
+     */
+    public boolean setDouble(FieldPath path, double value) throws IOException {
+        return setFixed64(path, Double.doubleToLongBits(value));
+    }
+
+    /**
+     * Visits the entire message and collects the offsets of all values of the target field.
+     * Visiting reads every value, so truncated values fail before anything gets patched.
+     */
+    private final class OffsetFinder implements ProtoVisitor {
+
+        /**
+         * @param wireType expected wire type of the target field, or {@link #ANY_FIXED_WIDTH}
+         * @return number of collected offsets
+         */
+        int find(FieldPath path, int wireType) throws IOException {
+            if (array != null) {
+                source.setInput(array, offset, length);
+            } else {
+                source.setInput(null, address, length);
+            }
+            this.path = path;
+            this.wireType = wireType;
+            this.depth = 0;
+            this.count = 0;
+            source.visit(this);
+            return count;
+        }
+
+        @Override
+        public void onStartMessage() {
+        }
+
+        @Override
+        public void onVarint(int fieldNumber, long value) {
+            checkNotTarget(fieldNumber, WireFormat.WIRETYPE_VARINT);
+        }
+
+        @Override
+        public void onFixed32(int fieldNumber, int value) {
+            addOffset(fieldNumber, WireFormat.WIRETYPE_FIXED32, WireFormat.FIXED_32_SIZE);
+        }
+
+        @Override
+        public void onFixed64(int fieldNumber, long value) {
+            addOffset(fieldNumber, WireFormat.WIRETYPE_FIXED64, WireFormat.FIXED_64_SIZE);
+        }
+
+        @Override
+        public void onLengthDelimited(int fieldNumber, ProtoSource source, int length) throws IOException {
+            checkNotTarget(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            visitIfOnPath(fieldNumber, source);
+        }
+
+        @Override
+        public void onGroup(int fieldNumber, ProtoSource source) throws IOException {
+            checkNotTarget(fieldNumber, WireFormat.WIRETYPE_START_GROUP);
+            visitIfOnPath(fieldNumber, source);
+        }
+
+        @Override
+        public void onEndMessage() {
+        }
+
+        private boolean isTarget(int fieldNumber) {
+            return depth == path.length() - 1 && fieldNumber == path.getFieldNumber(depth);
+        }
+
+        private void checkNotTarget(int fieldNumber, int actualWireType) {
+            if (isTarget(fieldNumber)) {
+                throw notFixedWidth(path, actualWireType);
+            }
+        }
+
+        private void visitIfOnPath(int fieldNumber, ProtoSource source) throws IOException {
+            if (depth < path.length() - 1 && fieldNumber == path.getFieldNumber(depth)) {
+                depth++;
+                source.visit(this);
+                depth--;
+            }
+        }
+
+        private void addOffset(int fieldNumber, int actualWireType, int size) {
+            if (!isTarget(fieldNumber)) {
+                return;
+            } else if (wireType != ANY_FIXED_WIDTH && wireType != actualWireType) {
+                throw notFixedWidth(path, actualWireType);
+            }
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            offsets[count++] = source.getTotalBytesRead() - size;
+        }
+
+        private FieldPath path;
+        private int wireType;
+        private int depth;
+        private int count;
+
+    }
+
+    private static IllegalArgumentException notFixedWidth(FieldPath path, int wireType) {
+        if (wireType == WireFormat.WIRETYPE_VARINT) {
+            return new IllegalArgumentException("Field " + path + " is varint encoded and can't " +
+                    "be patched in place because the encoded size may change");
+        }
+        return new IllegalArgumentException("Field " + path + " does not have the expected fixed width encoding");
+    }
+
+    private final OffsetFinder finder = new OffsetFinder();
+    private int[] offsets = new int[4];
+    private final ProtoSource arraySource = ProtoSource.newArraySource();
+    private ProtoSource directSource = null;
+    private ProtoSource source = arraySource;
+    private byte[] array = ProtoUtil.EMPTY_BYTE_ARRAY;
+    private int offset = 0;
+    private int length = 0;
+    private long address = 0;
+    private Object gcRef = null;
+
+    private static final int ANY_FIXED_WIDTH = -1;
+
+}
@@ -0,0 +1,98 @@
+/*-
+ * #%L
+ * quickbuf-runtime
+ * %%
+ * Copyright (C) 2019 - 2022 HEBI Robotics
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package us.hebi.quickbuf;
+
+import java.util.Arrays;
+
+import static us.hebi.quickbuf.ProtoUtil.*;
+
+/**
+ * Immutable path of field numbers from the outermost message to a nested field that
+ * can be used to find a single field in serialized data via {@link ProtoSource#seekField(FieldPath)}.
+ * Generated messages contain a {@code FieldPaths} class with a constant for each field,
+ * so nested paths can be built without descriptors, e.g.,
+ * <pre>{@code
+ * FieldPath path = MyMessage.FieldPaths.HEADER.append(Header.FieldPaths.ID);
+ * }</pre>
+ */
+public final class FieldPath {
+
+    public static FieldPath of(int... fieldNumbers) {
+        checkArgument(fieldNumbers.length > 0, "path must not be empty");
+        for (int fieldNumber : fieldNumbers) {
+            checkArgument(fieldNumber > 0 && fieldNumber <= MAX_FIELD_NUMBER, "invalid field number");
+        }
+        return new FieldPath(Arrays.copyOf(fieldNumbers, fieldNumbers.length));
+    }
+
+    private FieldPath(int[] fieldNumbers) {
+        this.fieldNumbers = fieldNumbers;
+    }
+
+    /**
+     * @return a new path to the given field inside the message at the end of this path
+     */
+    public FieldPath append(int fieldNumber) {
+        return append(of(fieldNumber));
+    }
+
+    /**
+     * @return a new path to the field inside the message at the end of this path
+     */
+    public FieldPath append(FieldPath path) {
+        final int[] numbers = Arrays.copyOf(fieldNumbers, fieldNumbers.length + path.fieldNumbers.length);
+        System.arraycopy(path.fieldNumbers, 0, numbers, fieldNumbers.length, path.fieldNumbers.length);
+        return new FieldPath(numbers);
+    }
+
+    /**
+     * @return the number of fields in the path
+     */
+    public int length() {
+        return fieldNumbers.length;
+    }
+
+    /**
+     * @return the field number at the given depth, starting with zero for the outermost message
+     */
+    public int getFieldNumber(int depth) {
+        return fieldNumbers[depth];
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj == this || (obj instanceof FieldPath && Arrays.equals(fieldNumbers, ((FieldPath) obj).fieldNumbers));
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(fieldNumbers);
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(fieldNumbers);
+    }
+
+    private final int[] fieldNumbers;
+    private static final int MAX_FIELD_NUMBER = (1 << 29) - 1;
+
+}
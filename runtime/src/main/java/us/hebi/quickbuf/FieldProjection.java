@@ -0,0 +1,191 @@
+/*-
+ * #%L
+ * quickbuf-runtime
+ * %%
+ * Copyright (C) 2019 - 2022 HEBI Robotics
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package us.hebi.quickbuf;
+
+import java.util.Arrays;
+
+import static us.hebi.quickbuf.ProtoUtil.*;
+
+/**
+ * Set of field numbers that should be parsed by {@link ProtoMessage#mergeFrom(ProtoSource, FieldProjection)}.
+ * All other fields get skipped without being decoded or stored as unknown bytes. Nested message
+ * fields can either be included entirely, or be restricted by a nested projection for the
+ * nested message type. Messages need to be generated with the {@code gen_projections} option.
+ * <p>
+ * A projection applies to a single message type and should be built once and reused,
+ * e.g., for selecting fields 1 and 3, as well as field 2 inside of the message in field 5:
+ * <pre>{@code
+ * FieldProjection projection = FieldProjection.newInstance()
+ *     .include(1)
+ *     .include(3)
+ *     .includePath(5, 2);
+ * }</pre>
+ */
+public final class FieldProjection {
+
+    public static FieldProjection newInstance() {
+        return new FieldProjection();
+    }
+
+    private FieldProjection() {
+    }
+
+    /**
+     * Includes the entire field with the given number, including
+     * all nested fields.
+     *
+     * @return this
+     */
+    public FieldProjection include(int fieldNumber) {
+        final int index = indexOfNested(fieldNumber);
+        if (index >= 0) {
+            // remove restriction of nested fields
+            numNested--;
+            nestedNumbers[index] = nestedNumbers[numNested];
+            nestedProjections[index] = nestedProjections[numNested];
+            nestedProjections[numNested] = null;
+        }
+        return addNumber(fieldNumber);
+    }
+
+    /**
+     * Includes the field with the given number, but only parses the fields
+     * of the nested message that are part of the nested projection.
+     *
+     * @param fieldNumber number of a message or group field
+     * @param nested      projection for the nested message type
+     * @return this
+     */
+    public FieldProjection include(int fieldNumber, FieldProjection nested) {
+        checkNotNull(nested);
+        addNumber(fieldNumber);
+        final int index = indexOfNested(fieldNumber);
+        if (index >= 0) {
+            nestedProjections[index] = nested;
+        } else {
+            addNested(fieldNumber, nested);
+        }
+        return this;
+    }
+
+    private FieldProjection addNumber(int fieldNumber) {
+        checkFieldNumber(fieldNumber);
+        if (fieldNumber < MAX_DENSE_NUMBER) {
+            final int index = fieldNumber >>> 6;
+            if (index >= bits.length) {
+                bits = Arrays.copyOf(bits, index + 1);
+            }
+            bits[index] |= 1L << fieldNumber;
+        } else if (Arrays.binarySearch(sparse, 0, numSparse, fieldNumber) < 0) {
+            if (numSparse == sparse.length) {
+                sparse = Arrays.copyOf(sparse, Math.max(4, numSparse * 2));
+            }
+            sparse[numSparse++] = fieldNumber;
+            Arrays.sort(sparse, 0, numSparse);
+        }
+        return this;
+    }
+
+    /**
+     * Includes a nested field that is specified by the field numbers from the outermost
+     * to the innermost message. Existing nested projections get extended.
+     *
+     * @param fieldNumbers path of field numbers
+     * @return this
+     */
+    public FieldProjection includePath(int... fieldNumbers) {
+        checkArgument(fieldNumbers.length > 0, "path must not be empty");
+        FieldProjection projection = this;
+        for (int i = 0; i < fieldNumbers.length - 1; i++) {
+            final int number = fieldNumbers[i];
+            if (projection.contains(number) && projection.getNested(number) == null) {
+                return this; // parent already includes all nested fields
+            }
+            FieldProjection nested = projection.getNested(number);
+            if (nested == null) {
+                nested = newInstance();
+                projection.include(number, nested);
+            }
+            projection = nested;
+        }
+        projection.include(fieldNumbers[fieldNumbers.length - 1]);
+        return this;
+    }
+
+    /**
+     * @return true if the field with the given number should be parsed
+     */
+    public boolean contains(int fieldNumber) {
+        if (fieldNumber < MAX_DENSE_NUMBER) {
+            final int index = fieldNumber >>> 6;
+            return index < bits.length && (bits[index] & (1L << fieldNumber)) != 0;
+        }
+        return Arrays.binarySearch(sparse, 0, numSparse, fieldNumber) >= 0;
+    }
+
+    /**
+     * @return the projection for the nested message in the given field, or null if all
+     * nested fields should be parsed
+     */
+    public FieldProjection getNested(int fieldNumber) {
+        final int index = indexOfNested(fieldNumber);
+        return index >= 0 ? nestedProjections[index] : null;
+    }
+
+    private int indexOfNested(int fieldNumber) {
+        for (int i = 0; i < numNested; i++) {
+            if (nestedNumbers[i] == fieldNumber) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void addNested(int fieldNumber, FieldProjection nested) {
+        if (numNested == nestedNumbers.length) {
+            final int newLength = Math.max(4, numNested * 2);
+            nestedNumbers = Arrays.copyOf(nestedNumbers, newLength);
+            nestedProjections = Arrays.copyOf(nestedProjections, newLength);
+        }
+        nestedNumbers[numNested] = fieldNumber;
+        nestedProjections[numNested] = nested;
+        numNested++;
+    }
+
+    private static void checkFieldNumber(int fieldNumber) {
+        checkArgument(fieldNumber > 0 && fieldNumber <= MAX_FIELD_NUMBER, "invalid field number");
+    }
+
+    // Field numbers are usually small, so only large numbers such as extensions get searched
+    private long[] bits = new long[1];
+    private int[] sparse = EMPTY_NUMBERS;
+    private int numSparse = 0;
+
+    private int[] nestedNumbers = EMPTY_NUMBERS;
+    private FieldProjection[] nestedProjections = EMPTY_PROJECTIONS;
+    private int numNested = 0;
+
+    private static final int MAX_DENSE_NUMBER = 1 << 12;
+    private static final int MAX_FIELD_NUMBER = (1 << 29) - 1;
+    private static final int[] EMPTY_NUMBERS = new int[0];
+    private static final FieldProjection[] EMPTY_PROJECTIONS = new FieldProjection[0];
+
+}
@@ -0,0 +1,187 @@
+/*-
+ * #%L
+ * quickbuf-runtime
+ * %%
+ * Copyright (C) 2019 - 2022 HEBI Robotics
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package us.hebi.quickbuf;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+import static us.hebi.quickbuf.ProtoUtil.*;
+
+/**
+ * Sink that encodes the structural parts of messages into a list of pooled chunks,
+ * and references large byte arrays, e.g., {@code bytes} fields and serialized
+ * {@link Utf8String}s, instead of copying them. The result is exposed as a
+ * {@code ByteBuffer[]} that can be written with a single vectored write to a
+ * {@link GatheringByteChannel}.
+ * <p>
+ * Referenced arrays must not be modified until the data has been written. The
+ * returned buffers are read-only, so consumers can't modify the referenced arrays
+ * either. Calling {@link #reset()} discards the written data and returns the chunks
+ * to the pool.
+ */
+public final class GatheringSink extends BufferedStreamSink {
+
+    GatheringSink(int chunkSize, int referenceThreshold) {
+        super(new byte[checkBufferSize(chunkSize)], chunkSize);
+        checkArgument(referenceThreshold > 0 && referenceThreshold <= chunkSize,
+                "reference threshold must be between 1 and the chunk size");
+        this.referenceThreshold = referenceThreshold;
+        this.chunks = new byte[][]{buffer};
+    }
+
+    /**
+     * Returns the written data as a list of read-only buffers. The buffers reference
+     * the internal chunks and the referenced arrays, so they are only valid until the
+     * sink gets reset or the referenced arrays get modified. Each call returns new
+     * views, so consuming the buffers does not affect {@link #writeTo(GatheringByteChannel)}.
+     */
+    public ByteBuffer[] getBuffers() {
+        finishSegment();
+        final ByteBuffer[] buffers = new ByteBuffer[numSegments];
+        for (int i = 0; i < numSegments; i++) {
+            buffers[i] = segments[i].asReadOnlyBuffer();
+        }
+        return buffers;
+    }
+
+    /**
+     * Writes all data to the given channel using vectored writes.
+     * The sink should be reset before writing the next batch.
+     *
+     * @return the number of bytes written
+     */
+    public long writeTo(GatheringByteChannel channel) throws IOException {
+        finishSegment();
+        long written = 0;
+        int offset = 0;
+        while (offset < numSegments) {
+            written += channel.write(segments, offset, numSegments - offset);
+            while (offset < numSegments && !segments[offset].hasRemaining()) {
+                offset++;
+            }
+        }
+        return written;
+    }
+
+    @Override
+    public ProtoSink setOutput(OutputStream outputStream) {
+        throw new UnsupportedOperationException("GatheringSink does not support writing to an OutputStream");
+    }
+
+    @Override
+    public ProtoSink setOutput(WritableByteChannel channel) {
+        throw new UnsupportedOperationException("GatheringSink does not support writing to a WritableByteChannel");
+    }
+
+    /**
+     * Discards all written data and removes references to previously written arrays.
+     */
+    @Override
+    public ProtoSink clear() {
+        Arrays.fill(segments, 0, numSegments, null);
+        return reset();
+    }
+
+    /**
+     * Discards all written data and returns the chunks to the pool.
+     */
+    @Override
+    public ProtoSink reset() {
+        numSegments = 0;
+        chunkIndex = 0;
+        buffer = chunks[0];
+        position = 0;
+        segmentStart = 0;
+        totalBytesFlushed = 0;
+        return this;
+    }
+
+    /**
+     * Does nothing because the data is kept in memory until it gets
+     * retrieved via {@link #getBuffers()}.
+     */
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void writeRawBytes(final byte[] value, int offset, int length) throws IOException {
+        if (length < referenceThreshold) {
+            super.writeRawBytes(value, offset, length);
+            return;
+        }
+        finishSegment();
+        writeOutput(value, offset, length);
+        totalBytesFlushed += length;
+    }
+
+    /** Retires the current chunk and continues with the next one from the pool */
+    @Override
+    protected void writeOutput(int length) {
+        if (length > segmentStart) {
+            addSegment(ByteBuffer.wrap(buffer, segmentStart, length - segmentStart));
+        }
+        if (++chunkIndex == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunks.length * 2);
+        }
+        if (chunks[chunkIndex] == null) {
+            chunks[chunkIndex] = new byte[capacity];
+        }
+        buffer = chunks[chunkIndex];
+        segmentStart = 0;
+    }
+
+    /** Adds a reference to the given array without copying it */
+    @Override
+    protected void writeOutput(byte[] value, int offset, int length) {
+        addSegment(ByteBuffer.wrap(value, offset, length));
+    }
+
+    private void finishSegment() {
+        if (position > segmentStart) {
+            addSegment(ByteBuffer.wrap(buffer, segmentStart, position - segmentStart));
+            segmentStart = position;
+        }
+    }
+
+    private void addSegment(ByteBuffer segment) {
+        if (numSegments == segments.length) {
+            segments = Arrays.copyOf(segments, Math.max(8, segments.length * 2));
+        }
+        segments[numSegments++] = segment;
+    }
+
+    private final int referenceThreshold;
+    private byte[][] chunks;
+    private int chunkIndex = 0;
+    private int segmentStart = 0;
+    private ByteBuffer[] segments = EMPTY_SEGMENTS;
+    private int numSegments = 0;
+
+    static final int DEFAULT_CHUNK_SIZE = 8192;
+    static final int DEFAULT_REFERENCE_THRESHOLD = 1024;
+    private static final ByteBuffer[] EMPTY_SEGMENTS = new ByteBuffer[0];
+
+}
@@ -0,0 +1,156 @@
+/*-
+ * #%L
+ * quickbuf-runtime
+ * %%
+ * Copyright (C) 2019 HEBI Robotics
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package us.hebi.quickbuf;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+
+import static us.hebi.quickbuf.ProtoUtil.*;
+import static us.hebi.quickbuf.UnsafeAccess.*;
+
+/**
+ * Sink that writes to off-heap memory that is owned by the sink. The memory grows
+ * geometrically when needed, so messages of unknown size can be serialized without
+ * computing the size up-front or copying from the heap. The written bytes start at
+ * {@link #getAddress()} and can be handed to native code, e.g., for IPC or I/O.
+ * <p>
+ * The memory is not managed by the garbage collector and needs to be freed explicitly
+ * by calling {@link #release()} or {@link #close()}. Growing the memory may move it to
+ * a different address, so addresses should not be kept across writes.
+ * <pre>{@code
+ * GrowableDirectSink sink = GrowableDirectSink.newInstance();
+ * try {
+ *     message.writeTo(sink);
+ *     nativeWrite(sink.getAddress(), sink.getTotalBytesWritten());
+ * } finally {
+ *     sink.release();
+ * }
+ * }</pre>
+ * This sink requires availability of sun.misc.Unsafe.
+ */
+public final class GrowableDirectSink extends ArraySink.DirectArraySink implements Closeable {
+
+    public static GrowableDirectSink newInstance() {
+        return newInstance(DEFAULT_INITIAL_CAPACITY);
+    }
+
+    /**
+     * @param initialCapacity number of bytes that get allocated on the first write
+     */
+    public static GrowableDirectSink newInstance(int initialCapacity) {
+        checkArgument(initialCapacity > 0, "initial capacity must be positive");
+        return new GrowableDirectSink(initialCapacity);
+    }
+
+    private GrowableDirectSink(int initialCapacity) {
+        this.initialCapacity = initialCapacity;
+    }
+
+    /**
+     * @return the address of the first written byte, or zero if no memory is allocated
+     */
+    public long getAddress() {
+        return address;
+    }
+
+    /**
+     * @return the number of bytes that are currently allocated
+     */
+    public int capacity() {
+        return limit;
+    }
+
+    /**
+     * Copies the written bytes to the remaining space of the buffer and advances its position
+     */
+    public void copyTo(ByteBuffer buffer) {
+        checkArgument(!buffer.isReadOnly(), "Buffer is read only");
+        final int length = position;
+        if (buffer.remaining() < length) {
+            throw new IndexOutOfBoundsException("buffer has insufficient space");
+        }
+        if (buffer.hasArray()) {
+            ByteUtil.readUnsafeBytes(null, address, buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+        } else {
+            UNSAFE.copyMemory(address, BufferAccess.address(buffer) + buffer.position(), length);
+        }
+        buffer.position(buffer.position() + length);
+    }
+
+    /**
+     * Frees the allocated memory and resets the position. The sink may be used
+     * again afterwards and allocates new memory on the next write.
+     */
+    public void release() {
+        if (address != 0) {
+            UNSAFE.freeMemory(address);
+            address = 0;
+        }
+        offset = position = limit = 0;
+    }
+
+    @Override
+    public void close() {
+        release();
+    }
+
+    /**
+     * Resets the position and keeps the allocated memory
+     */
+    @Override
+    public GrowableDirectSink clear() {
+        reset();
+        return this;
+    }
+
+    @Override
+    public ProtoSink setOutput(byte[] buffer, long offset, int length) {
+        throw new UnsupportedOperationException("GrowableDirectSink writes to its own memory");
+    }
+
+    @Override
+    public ProtoSink setOutput(ByteBuffer buffer) {
+        throw new UnsupportedOperationException("GrowableDirectSink writes to its own memory");
+    }
+
+    @Override
+    protected boolean grow(final int numBytes) {
+        final long required = (long) position + numBytes;
+        if (required > MAX_CAPACITY) {
+            return false;
+        }
+        final long newCapacity = Math.min(MAX_CAPACITY, Math.max(required, Math.max(initialCapacity, 2L * limit)));
+        address = address == 0
+                ? UNSAFE.allocateMemory(newCapacity)
+                : UNSAFE.reallocateMemory(address, newCapacity);
+        final int length = position;
+        super.setOutput(null, address, (int) newCapacity);
+        position = length;
+        return true;
+    }
+
+    private final int initialCapacity;
+    private long address = 0;
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 4096;
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+}
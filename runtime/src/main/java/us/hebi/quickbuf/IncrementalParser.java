@@ -0,0 +1,366 @@
+/*-
+ * #%L
+ * quickbuf-runtime
+ * %%
+ * Copyright (C) 2019 - 2022 HEBI Robotics
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package us.hebi.quickbuf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static us.hebi.quickbuf.ProtoUtil.*;
+import static us.hebi.quickbuf.WireFormat.*;
+
+/**
+ * Push-style parser for a stream of length delimited messages, e.g., written via
+ * {@link ProtoMessage#writeDelimitedTo(ProtoSink)}, that accepts data in arbitrary
+ * chunks as it arrives from non-blocking I/O. Completed messages get passed to a
+ * {@link Listener}.
+ * <p>
+ * The parser keeps its position within the current message in between calls, so
+ * messages don't need to be reassembled before parsing. Complete top-level fields get
+ * merged directly from the provided chunks, and only a single field that spans a chunk
+ * boundary gets buffered internally. This works because merging the fields of a
+ * message one after another produces the same result as parsing all of them at once.
+ * <pre>{@code
+ * IncrementalParser<MyMessage> parser = IncrementalParser.newInstance(MyMessage.getFactory(), listener);
+ * while (channel.read(buffer) > 0) {
+ *     buffer.flip();
+ *     parser.feed(buffer);
+ *     buffer.clear();
+ * }
+ * }</pre>
+ * The same message instance gets reused for all records, so it is only valid until the
+ * listener returns. Parse errors leave the parser in an undefined state, so it needs to
+ * be reset before it can be used again.
+ */
+public final class IncrementalParser<T extends ProtoMessage<T>> {
+
+    public interface Listener<T extends ProtoMessage<T>> {
+
+        /**
+         * Gets called for each completed message
+         *
+         * @param message parsed message. The instance gets reused for the next message.
+         */
+        void onMessage(T message) throws IOException;
+
+    }
+
+    public static <T extends ProtoMessage<T>> IncrementalParser<T> newInstance(MessageFactory<T> factory, Listener<T> listener) {
+        checkNotNull(factory);
+        checkNotNull(listener);
+        return new IncrementalParser<T>(factory.create(), listener);
+    }
+
+    private IncrementalParser(T message, Listener<T> listener) {
+        this.message = message;
+        this.listener = listener;
+    }
+
+    /**
+     * Parses all remaining bytes of the buffer and advances its position
+     */
+    public void feed(ByteBuffer buffer) throws IOException {
+        if (buffer.hasArray()) {
+            feed(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+            return;
+        }
+        // Direct buffers get copied in small chunks
+        if (scratch == null) {
+            scratch = new byte[SCRATCH_SIZE];
+        }
+        while (buffer.hasRemaining()) {
+            final int length = Math.min(buffer.remaining(), scratch.length);
+            buffer.get(scratch, 0, length);
+            feed(scratch, 0, length);
+        }
+    }
+
+    public void feed(byte[] bytes) throws IOException {
+        feed(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Parses the given bytes. The bytes don't need to be aligned with message boundaries
+     * and are not referenced after returning, so the array may be reused.
+     */
+    public void feed(byte[] bytes, int offset, int length) throws IOException {
+        if (offset < 0 || length < 0 || offset > bytes.length || offset + length > bytes.length) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+        final int end = offset + length;
+        int position = offset;
+        while (position < end) {
+            if (!inMessage) {
+                position = readLengthPrefix(bytes, position, end);
+                if (inMessage && bytesRemaining == 0) {
+                    completeMessage();
+                }
+                continue;
+            }
+            final int available = Math.min(end - position, bytesRemaining);
+            final int consumed = pending.length() == 0
+                    ? mergeFields(bytes, position, available)
+                    : appendPending(bytes, position, available);
+            position += consumed;
+            bytesRemaining -= consumed;
+            if (bytesRemaining == 0) {
+                if (pending.length() != 0) {
+                    throw InvalidProtocolBufferException.truncatedMessage();
+                }
+                completeMessage();
+            }
+        }
+    }
+
+    /**
+     * @return true if the parser is in between messages
+     */
+    public boolean isAtMessageBoundary() {
+        return !inMessage && prefixShift == 0;
+    }
+
+    /**
+     * Discards any partially received message
+     */
+    public IncrementalParser<T> reset() {
+        inMessage = false;
+        prefixValue = 0;
+        prefixShift = 0;
+        bytesRemaining = 0;
+        pending.clear();
+        pendingSize = -1;
+        message.clearQuick();
+        return this;
+    }
+
+    private int readLengthPrefix(byte[] bytes, int position, final int end) throws IOException {
+        while (position < end) {
+            final byte b = bytes[position++];
+            prefixValue |= (b & 0x7F) << prefixShift;
+            if (b >= 0) {
+                if (prefixValue < 0) {
+                    throw InvalidProtocolBufferException.negativeSize();
+                }
+                inMessage = true;
+                bytesRemaining = prefixValue;
+                prefixValue = 0;
+                prefixShift = 0;
+                message.clearQuick();
+                return position;
+            }
+            prefixShift += 7;
+            if (prefixShift >= 35) {
+                throw InvalidProtocolBufferException.malformedVarint();
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Merges all complete fields and buffers the start of the last field if it is incomplete
+     */
+    private int mergeFields(byte[] bytes, int position, int available) throws IOException {
+        int size = 0;
+        int fieldSize = -1;
+        while (size < available) {
+            fieldSize = computeFieldSize(bytes, position + size, available - size);
+            if (fieldSize < 0 || fieldSize > available - size) {
+                break;
+            }
+            size += fieldSize;
+        }
+        if (size > 0) {
+            merge(bytes, position, size);
+        }
+        if (size < available) {
+            setPendingSize(fieldSize, bytesRemaining - size);
+            pending.addAll(bytes, position + size, available - size);
+        }
+        return available;
+    }
+
+    /**
+     * Continues buffering a field that was started in a previous chunk
+     */
+    private int appendPending(byte[] bytes, int position, int available) throws IOException {
+        if (pendingSize > 0) {
+            final int length = Math.min(pendingSize - pending.length(), available);
+            pending.addAll(bytes, position, length);
+            if (pending.length() == pendingSize) {
+                mergePending(pendingSize);
+            }
+            return length;
+        }
+
+        // Add a few bytes at a time until the size is known. Groups may need more.
+        final int length = pending.length() < MAX_HEADER_SIZE
+                ? Math.min(MAX_HEADER_SIZE - pending.length(), available)
+                : available;
+        pending.addAll(bytes, position, length);
+        final int fieldSize = computeFieldSize(pending.array(), 0, pending.length());
+        if (fieldSize < 0 || fieldSize > pending.length()) {
+            setPendingSize(fieldSize, pending.length() + bytesRemaining - length);
+            return length;
+        }
+
+        // Excess bytes belong to the next field and get parsed again from the input
+        final int excess = pending.length() - fieldSize;
+        mergePending(fieldSize);
+        return length - excess;
+    }
+
+    /**
+     * @param maxSize number of bytes from the start of the field to the end of the message
+     */
+    private void setPendingSize(int fieldSize, int maxSize) throws InvalidProtocolBufferException {
+        if (fieldSize > maxSize) {
+            throw InvalidProtocolBufferException.truncatedMessage();
+        }
+        pendingSize = fieldSize;
+        if (fieldSize > 0) {
+            pending.reserve(fieldSize - pending.length());
+        }
+    }
+
+    private void mergePending(int fieldSize) throws IOException {
+        merge(pending.array(), 0, fieldSize);
+        pending.setLength(0);
+        pendingSize = -1;
+    }
+
+    private void merge(byte[] bytes, int offset, int length) throws IOException {
+        source.setInput(bytes, offset, length);
+        message.mergeFrom(source);
+        source.checkLastTagWas(0);
+    }
+
+    private void completeMessage() throws IOException {
+        inMessage = false;
+        listener.onMessage(message);
+    }
+
+    /**
+     * Computes the encoded size of the field that starts at the given offset
+     * without requiring the value to be available.
+     *
+     * @return the total size including the tag, or -1 if the size can't be determined yet
+     */
+    private static int computeFieldSize(byte[] bytes, final int offset, final int length) throws IOException {
+        final int end = offset + length;
+        int position = offset;
+        int depth = 0;
+        do {
+            final int tagEnd = skipVarint(bytes, position, end);
+            if (tagEnd < 0) {
+                return -1;
+            }
+            final int tag = decodeVarint32(bytes, position);
+            position = tagEnd;
+            switch (WireFormat.getTagWireType(tag)) {
+                case WireFormat.WIRETYPE_VARINT:
+                    position = skipVarint(bytes, position, end);
+                    if (position < 0) {
+                        return -1;
+                    }
+                    break;
+                case WireFormat.WIRETYPE_FIXED64:
+                    position += FIXED_64_SIZE;
+                    break;
+                case WireFormat.WIRETYPE_LENGTH_DELIMITED: {
+                    final int lengthEnd = skipVarint(bytes, position, end);
+                    if (lengthEnd < 0) {
+                        return -1;
+                    }
+                    final int size = decodeVarint32(bytes, position);
+                    if (size < 0) {
+                        throw InvalidProtocolBufferException.negativeSize();
+                    } else if (size > Integer.MAX_VALUE - lengthEnd) {
+                        throw InvalidProtocolBufferException.truncatedMessage();
+                    }
+                    position = lengthEnd + size;
+                    break;
+                }
+                case WireFormat.WIRETYPE_START_GROUP:
+                    depth++;
+                    break;
+                case WireFormat.WIRETYPE_END_GROUP:
+                    if (depth == 0) {
+                        throw InvalidProtocolBufferException.invalidEndTag();
+                    }
+                    depth--;
+                    break;
+                case WireFormat.WIRETYPE_FIXED32:
+                    position += FIXED_32_SIZE;
+                    break;
+                default:
+                    throw InvalidProtocolBufferException.invalidWireType();
+            }
+            if (depth > 0 && position > end) {
+                return -1;
+            }
+        } while (depth > 0);
+        return position - offset;
+    }
+
+    /**
+     * @return the position after the varint, or -1 if the varint is incomplete
+     */
+    private static int skipVarint(byte[] bytes, int position, final int end) throws IOException {
+        final int limit = Math.min(end, position + MAX_VARINT_SIZE);
+        while (position < limit) {
+            if (bytes[position++] >= 0) {
+                return position;
+            }
+        }
+        if (limit < end) {
+            throw InvalidProtocolBufferException.malformedVarint();
+        }
+        return -1;
+    }
+
+    /** Decodes the lower 32 bits of a varint that is known to be complete */
+    private static int decodeVarint32(byte[] bytes, int position) {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            final byte b = bytes[position++];
+            result |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    private final T message;
+    private final Listener<T> listener;
+    private final ProtoSource source = ProtoSource.newArraySource();
+    private final RepeatedByte pending = RepeatedByte.newEmptyInstance();
+    private int pendingSize = -1;
+    private boolean inMessage = false;
+    private int bytesRemaining = 0;
+    private int prefixValue = 0;
+    private int prefixShift = 0;
+    private byte[] scratch = null;
+
+    private static final int MAX_HEADER_SIZE = 15;
+    private static final int SCRATCH_SIZE = 4096;
+
+}
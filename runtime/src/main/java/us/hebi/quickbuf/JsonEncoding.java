@@ -101,6 +101,7 @@ class JsonEncoding {
         static void writeQuotedUtf8(Utf8String sequence, RepeatedByte output) {
             final int numBytes = sequence.size();
             final byte[] utf8 = sequence.bytes();
+            final int utf8Offset = sequence.offset();
             int i = 0;
 
             // Fast-path: no escape support
@@ -111,7 +112,7 @@ class JsonEncoding {
                 out[offset - 1] = '"';
 
                 for (; i < numBytes; i++) {
-                    final byte c = utf8[i];
+                    final byte c = utf8[utf8Offset + i];
                     if (CAN_DIRECT_WRITE_UTF8[c & 0xFF]) {
                         out[offset + i] = c;
                     } else {
@@ -126,7 +127,7 @@ class JsonEncoding {
 
             // Slow-path: with escape support
             for (; i < numBytes; i++) {
-                final byte c = utf8[i];
+                final byte c = utf8[utf8Offset + i];
                 if (CAN_DIRECT_WRITE_UTF8[c & 0xFF]) {
                     final int offset = output.addLength(1);
                     output.array[offset] = c;
@@ -0,0 +1,178 @@
+/*-
+ * #%L
+ * quickbuf-runtime
+ * %%
+ * Copyright (C) 2019 - 2022 HEBI Robotics
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package us.hebi.quickbuf;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+import static us.hebi.quickbuf.ProtoUtil.*;
+import static us.hebi.quickbuf.UnsafeAccess.*;
+
+/**
+ * Sink that appends to the end of a file by encoding directly into a memory
+ * mapped window. Once the window is full, the file gets extended and the
+ * next window gets mapped. The window may extend beyond the written data,
+ * so the file gets truncated to the actual size when the output changes
+ * or when {@link #clear()} gets called.
+ * <p>
+ * Mapped data becomes visible to other readers of the file immediately, but it is
+ * only guaranteed to be persisted once it has been forced to the storage device.
+ * Forcing is expensive, so it happens on {@link #flush()} only if the configured
+ * number of bytes has been written since the last force.
+ */
+class MappedFileSink extends BufferedStreamSink.DirectStreamSink {
+
+    /**
+     * @param windowSize    size of the mapped window in bytes
+     * @param forceInterval minimum number of bytes between forcing data to the storage
+     *                      device on flush, or a negative value to never force
+     */
+    MappedFileSink(int windowSize, long forceInterval) {
+        super(windowSize);
+        this.forceInterval = forceInterval;
+        setUnmapped();
+    }
+
+    /**
+     * Changes the output to the given file channel and starts appending at the
+     * end of the file. The previous file gets truncated to the written size.
+     */
+    @Override
+    public ProtoSink setOutput(WritableByteChannel channel) {
+        checkArgument(checkNotNull(channel) instanceof FileChannel, "MappedFileSink requires a FileChannel");
+        try {
+            release();
+            file = (FileChannel) channel;
+            lastForcePosition = file.size();
+            mapWindow(lastForcePosition);
+            position = 0;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Failed to map file channel", e);
+        }
+        return reset();
+    }
+
+    @Override
+    public ProtoSink setOutput(OutputStream outputStream) {
+        throw new UnsupportedOperationException("MappedFileSink requires a FileChannel");
+    }
+
+    @Override
+    public ProtoSink clear() {
+        try {
+            release();
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to truncate file", e);
+        }
+        return reset();
+    }
+
+    /**
+     * Returns the absolute offset within the file at which the next
+     * value will be written.
+     */
+    @Override
+    public long getPosition() {
+        return windowStart + position;
+    }
+
+    /**
+     * Forces the written data to the storage device if at least the configured
+     * interval of bytes has been written since the last time.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (forceInterval >= 0 && getPosition() - lastForcePosition >= forceInterval) {
+            force(getPosition());
+        }
+    }
+
+    private void force(long endPosition) {
+        if (window != null && endPosition != lastForcePosition) {
+            window.force();
+            lastForcePosition = endPosition;
+        }
+    }
+
+    /** Unmaps the current window and trims the file to the written size */
+    private void release() throws IOException {
+        if (file != null) {
+            if (forceInterval >= 0) {
+                force(getPosition());
+            }
+            file.truncate(getPosition());
+        }
+        setUnmapped();
+    }
+
+    /**
+     * Marks the buffer as full so that any write attempts to flush it and fails
+     * before accessing the unmapped memory.
+     */
+    private void setUnmapped() {
+        file = null;
+        window = null;
+        address = 0;
+        windowStart = -capacity;
+        position = capacity;
+    }
+
+    private void mapWindow(long fileOffset) throws IOException {
+        window = file.map(FileChannel.MapMode.READ_WRITE, fileOffset, capacity);
+        address = BufferAccess.address(window);
+        windowStart = fileOffset;
+    }
+
+    @Override
+    protected void writeOutput(int length) throws IOException {
+        if (file == null) {
+            throw new OutOfSpaceException(position, capacity);
+        }
+        if (forceInterval >= 0) {
+            // Windows that are no longer mapped can't be forced later on
+            force(windowStart + length);
+        }
+        mapWindow(windowStart + length);
+    }
+
+    @Override
+    protected void writeOutput(byte[] value, int offset, int length) throws IOException {
+        while (length > 0) {
+            final int n = Math.min(length, capacity);
+            copyToBuffer(value, offset, 0, n);
+            writeOutput(n);
+            offset += n;
+            length -= n;
+        }
+    }
+
+    private final long forceInterval;
+    private FileChannel file = null;
+    private MappedByteBuffer window = null;
+    private long windowStart = 0;
+    private long lastForcePosition = 0;
+
+    static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+}
@@ -0,0 +1,194 @@
+/*-
+ * #%L
+ * quickbuf-runtime
+ * %%
+ * Copyright (C) 2019 - 2022 HEBI Robotics
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package us.hebi.quickbuf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+import static us.hebi.quickbuf.ProtoUtil.*;
+import static us.hebi.quickbuf.UnsafeAccess.*;
+
+/**
+ * Source that reads from a file that gets memory mapped in segments, so files
+ * larger than 2 GB can be parsed without copying the data. Segments get mapped
+ * lazily and overlap slightly, so the current window always starts at the read
+ * position. Values get decoded from the mapped memory using the sun.misc.Unsafe
+ * intrinsics.
+ * <p>
+ * Positions within the file are addressed with long offsets via {@link #getPosition()}
+ * and {@link #setPosition(long)}, which can be used to build random access readers.
+ * The mapped memory gets released when the source gets garbage collected.
+ */
+class MappedFileSource extends StreamSource.DirectStreamSource {
+
+    MappedFileSource(int segmentSize) {
+        super(checkSegmentSize(segmentSize) + SEGMENT_OVERLAP);
+        this.segmentSize = segmentSize;
+    }
+
+    private static int checkSegmentSize(int segmentSize) {
+        checkArgument(segmentSize > 0 && segmentSize <= MAX_SEGMENT_SIZE,
+                "segment size must be between 1 and " + MAX_SEGMENT_SIZE);
+        return segmentSize;
+    }
+
+    /**
+     * Changes the input to the given file channel and starts reading at the
+     * current channel position. The channel position does not get modified.
+     */
+    @Override
+    public ProtoSource setInput(ReadableByteChannel channel) {
+        checkArgument(checkNotNull(channel) instanceof FileChannel, "MappedFileSource requires a FileChannel");
+        final long start;
+        try {
+            file = (FileChannel) channel;
+            fileSize = file.size();
+            start = file.position();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Failed to access file channel", e);
+        }
+        final int numSegments = (int) ((fileSize + segmentSize - 1) / segmentSize);
+        segments = new MappedByteBuffer[numSegments];
+        segmentAddresses = new long[numSegments];
+        return setPosition(start);
+    }
+
+    @Override
+    public ProtoSource setInput(InputStream stream) {
+        throw new UnsupportedOperationException("MappedFileSource requires a FileChannel");
+    }
+
+    @Override
+    public ProtoSource clear() {
+        file = null;
+        fileSize = 0;
+        segments = EMPTY_SEGMENTS;
+        segmentAddresses = EMPTY_ADDRESSES;
+        return setPosition(0);
+    }
+
+    @Override
+    public long getPosition() {
+        return windowStart + position;
+    }
+
+    @Override
+    public ProtoSource setPosition(long offset) {
+        checkArgument(offset >= 0 && offset <= fileSize, "position out of bounds");
+        resetInternalState();
+        moveWindow(offset);
+        return this;
+    }
+
+    @Override
+    protected void moveToFront(int position, int length) {
+        moveWindow(windowStart + position);
+    }
+
+    /** Moves the start of the window to the given file offset. Mapping is deferred to the next fill. */
+    private void moveWindow(long fileOffset) {
+        windowStart = fileOffset;
+        windowLength = UNMAPPED;
+    }
+
+    private void mapWindow() throws IOException {
+        if (windowStart >= fileSize) {
+            windowLength = 0;
+            return;
+        }
+        final int index = (int) (windowStart / segmentSize);
+        final int segmentOffset = (int) (windowStart - (long) index * segmentSize);
+        if (segments[index] == null) {
+            final long start = (long) index * segmentSize;
+            final long size = Math.min(capacity, fileSize - start);
+            segments[index] = file.map(FileChannel.MapMode.READ_ONLY, start, size);
+            segmentAddresses[index] = BufferAccess.address(segments[index]);
+        }
+        address = segmentAddresses[index] + segmentOffset;
+        windowLength = segments[index].capacity() - segmentOffset;
+    }
+
+    @Override
+    protected int fillBuffer(int offset, int length) throws IOException {
+        if (windowLength == UNMAPPED) {
+            mapWindow();
+        }
+        final int available = windowLength - offset;
+        return available <= 0 ? EOF : Math.min(available, length);
+    }
+
+    @Override
+    public void readRawBytes(byte[] values, int offset, int length) throws IOException {
+        if (length >= 0 && length <= limit - position) {
+            copyFromBuffer(position, values, offset, length);
+            position += length;
+            return;
+        }
+        checkBounds(values, offset, length);
+        requireWithinLimits(length);
+        while (length > 0) {
+            if (position == limit) {
+                refillBuffer(1);
+            }
+            final int n = Math.min(length, limit - position);
+            copyFromBuffer(position, values, offset, n);
+            position += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    @Override
+    public void skipRawBytes(final int size) throws IOException {
+        if (size >= 0 && size <= limit - position) {
+            position += size;
+            return;
+        }
+        requireWithinLimits(size);
+        final long target = getPosition() + size;
+        if (target > fileSize) {
+            position = limit;
+            throw InvalidProtocolBufferException.truncatedMessage();
+        }
+        totalBytesRetired += position + size;
+        position = limit = 0;
+        moveWindow(target);
+    }
+
+    private final int segmentSize;
+    private FileChannel file = null;
+    private long fileSize = 0;
+    private MappedByteBuffer[] segments = EMPTY_SEGMENTS;
+    private long[] segmentAddresses = EMPTY_ADDRESSES;
+    private long windowStart = 0;
+    private int windowLength = 0;
+
+    private static final int UNMAPPED = -1;
+    private static final int SEGMENT_OVERLAP = 4096;
+    static final int DEFAULT_SEGMENT_SIZE = 1 << 30;
+    static final int MAX_SEGMENT_SIZE = Integer.MAX_VALUE - SEGMENT_OVERLAP;
+    private static final MappedByteBuffer[] EMPTY_SEGMENTS = new MappedByteBuffer[0];
+    private static final long[] EMPTY_ADDRESSES = new long[0];
+
+}
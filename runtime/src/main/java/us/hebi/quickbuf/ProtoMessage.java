@@ -164,6 +164,18 @@ public abstract class ProtoMessage<MessageType extends ProtoMessage<?>> {
         return getThis();
     }
 
+    /**
+     * Serializes the message back to front, i.e., starting with the last field. Nested
+     * messages get written before their length prefix, so this does not require the
+     * serialized size to be computed beforehand. The result is byte-identical to
+     * {@link #writeTo(ProtoSink)}.
+     *
+     * @param output the output to receive the serialized form.
+     */
+    public void writeToReverse(ReverseSink output) {
+        throw new RuntimeException("Generated message does not implement writeToReverse");
+    }
+
     /**
      * Merges the contents for one message written in length delimited form.
      *
@@ -182,6 +194,19 @@ public abstract class ProtoMessage<MessageType extends ProtoMessage<?>> {
      */
     public abstract MessageType mergeFrom(ProtoSource input) throws IOException;
 
+    /**
+     * Parse {@code input} as a message of this type, and merge only the fields that are
+     * part of the {@code projection} with the message being built. All other fields get
+     * skipped without being decoded or stored as unknown bytes. Requires messages to be
+     * generated with the {@code gen_projections} option.
+     *
+     * @return this
+     */
+    public MessageType mergeFrom(ProtoSource input, FieldProjection projection) throws IOException {
+        throw new RuntimeException("Generated message does not implement projected parsing. " +
+                "Enable the 'gen_projections' option to generate it.");
+    }
+
     /**
      * Merge {@code other} into the message being built. {@code other} must have the exact same type
      * as {@code this}.
@@ -396,6 +421,22 @@ public abstract class ProtoMessage<MessageType extends ProtoMessage<?>> {
         return bytes.getBytes(ProtoUtil.Charsets.ISO_8859_1);
     }
 
+    /**
+     * Helper for nested message fields that were generated with lazy parsing. Parses
+     * the serialized field contents, as stored by {@link ProtoSource#readDelimitedBytes(RepeatedByte)},
+     * into the given message and clears them afterwards.
+     *
+     * @throws IllegalStateException if the serialized contents are not a valid message
+     */
+    protected static void mergeLazyField(ProtoMessage<?> msg, RepeatedByte serialized) {
+        try {
+            ProtoSource.newInstance(serialized).readMessage(msg);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to parse lazy message field", e);
+        }
+        serialized.clear();
+    }
+
     /**
      * @return binary representation of all fields with tags that could not be parsed
      */
@@ -54,6 +54,9 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
 import static us.hebi.quickbuf.WireFormat.*;
 
@@ -109,6 +112,15 @@ public abstract class ProtoSink {
         return newStreamSink().setOutput(stream);
     }
 
+    /**
+     * Create a new ProtoSink writing to the given {@link WritableByteChannel}. The
+     * data is buffered internally, so {@link #flush()} needs to be called after
+     * writing.
+     */
+    public static ProtoSink newInstance(WritableByteChannel channel) {
+        return newChannelSink().setOutput(channel);
+    }
+
     /** Create a new ProtoSink writing to the given {@link ByteBuffer}. */
     public static ProtoSink newInstance(ByteBuffer buffer) {
         return newBufferSink().setOutput(buffer);
@@ -160,6 +172,134 @@ public abstract class ProtoSink {
         return new StreamSink();
     }
 
+    /**
+     * Creates a new {@code ProtoSink} that encodes into an internal buffer and writes
+     * to an {@link OutputStream} whenever the buffer is full. {@link #flush()} needs
+     * to be called after writing to make sure that all data has reached the stream.
+     *
+     * This is significantly faster than the unbuffered stream sink.
+     */
+    public static ProtoSink newBufferedStreamSink() {
+        return newBufferedStreamSink(BufferedStreamSink.DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a new buffered {@code ProtoSink} that writes to an {@link OutputStream}
+     * using an internal buffer of the specified size.
+     *
+     * @param bufferSize size of the internal buffer in bytes
+     * @see #newBufferedStreamSink()
+     */
+    public static ProtoSink newBufferedStreamSink(int bufferSize) {
+        return new BufferedStreamSink(bufferSize);
+    }
+
+    /**
+     * Creates a new {@code ProtoSink} that encodes into an internal direct buffer and
+     * writes to a {@link WritableByteChannel} whenever the buffer is full. {@link #flush()}
+     * needs to be called after writing to make sure that all data has reached the channel.
+     *
+     * This method will return the fastest implementation available for the current
+     * platform and falls back to a buffered stream sink if sun.misc.Unsafe is not
+     * available. The channel must be in blocking mode.
+     */
+    public static ProtoSink newChannelSink() {
+        return newChannelSink(BufferedStreamSink.DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a new {@code ProtoSink} that writes to a {@link WritableByteChannel}
+     * using an internal buffer of the specified size.
+     *
+     * @param bufferSize size of the internal buffer in bytes
+     * @see #newChannelSink()
+     */
+    public static ProtoSink newChannelSink(int bufferSize) {
+        if (UnsafeAccess.isAvailable() && UnsafeAccess.BufferAccess.isAvailable()) {
+            return new ChannelSink(bufferSize);
+        }
+        return new BufferedStreamSink(bufferSize);
+    }
+
+    /**
+     * Creates a new {@code ProtoSink} that appends to a memory mapped {@link FileChannel}.
+     *
+     * Values get encoded directly into a mapped window of 64 MB that moves forward and
+     * extends the file as needed. The absolute file offset of each record can be
+     * retrieved via {@link #getPosition()}. The file gets truncated to the written
+     * size when the output changes or when {@link #clear()} gets called, so the sink
+     * needs to be cleared before closing the file. The channel must be readable and
+     * writable, e.g., opened via {@code RandomAccessFile} in "rw" mode. Data is left
+     * to the operating system to persist. Requires sun.misc.Unsafe.
+     */
+    public static ProtoSink newMappedFileSink() {
+        return newMappedFileSink(MappedFileSink.DEFAULT_WINDOW_SIZE, -1);
+    }
+
+    /**
+     * Creates a new {@code ProtoSink} that appends to a memory mapped {@link FileChannel}
+     * using a window of the specified size. Calling {@link #flush()} forces the written
+     * data to the storage device if at least {@code forceInterval} bytes have been
+     * written since the last time, so the cost of forcing can be amortized over
+     * batches of records. Data also gets forced before a window gets unmapped.
+     *
+     * @param windowSize    size of the mapped window in bytes
+     * @param forceInterval minimum number of bytes between forcing data on flush, or a
+     *                      negative value to leave persisting data to the operating system
+     * @see #newMappedFileSink()
+     */
+    public static ProtoSink newMappedFileSink(int windowSize, long forceInterval) {
+        return new MappedFileSink(windowSize, forceInterval);
+    }
+
+    /**
+     * Creates a new {@code ProtoSink} that writes to off-heap memory that may be
+     * larger than 2 GB, e.g., memory that was allocated natively.
+     *
+     * Values get encoded directly into a window of 64 KB that moves forward. The
+     * tail of the memory gets buffered, so {@link #flush()} needs to be called after
+     * writing. The offset of each record can be retrieved via {@link #getPosition()}.
+     * Requires sun.misc.Unsafe.
+     *
+     * @see #setOutput(long, long)
+     */
+    public static ProtoSink newDirectMemorySink() {
+        return newDirectMemorySink(DirectMemorySink.DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Creates a new {@code ProtoSink} that writes to off-heap memory using a
+     * window of the specified size.
+     *
+     * @param windowSize maximum number of bytes that get encoded before moving the window
+     * @see #newDirectMemorySink()
+     */
+    public static ProtoSink newDirectMemorySink(int windowSize) {
+        return new DirectMemorySink(windowSize);
+    }
+
+    /**
+     * Creates a new {@link GatheringSink} that encodes into pooled chunks of 8 KB and
+     * references byte arrays of at least 1 KB, e.g., large {@code bytes} fields, instead
+     * of copying them. The result can be written to a {@link java.nio.channels.GatheringByteChannel}
+     * using a single vectored write.
+     */
+    public static GatheringSink newGatheringSink() {
+        return newGatheringSink(GatheringSink.DEFAULT_CHUNK_SIZE, GatheringSink.DEFAULT_REFERENCE_THRESHOLD);
+    }
+
+    /**
+     * Creates a new {@link GatheringSink} with the specified sizes.
+     *
+     * @param chunkSize          size of the internal chunks in bytes
+     * @param referenceThreshold minimum size of byte arrays that get referenced rather than copied.
+     *                           Must not be larger than the chunk size.
+     * @see #newGatheringSink()
+     */
+    public static GatheringSink newGatheringSink(int chunkSize, int referenceThreshold) {
+        return new GatheringSink(chunkSize, referenceThreshold);
+    }
+
     /**
      * Creates a new {@code ProtoSink} that writes directly to a {@link ByteBuffer}.
      *
@@ -203,6 +343,14 @@ public abstract class ProtoSink {
         throw new UnsupportedOperationException("sink does not support writing to an InputStream");
     }
 
+    /**
+     * Changes the output to the given channel. This resets any existing internal state
+     * such as position and is equivalent to creating a new instance.
+     */
+    public ProtoSink setOutput(WritableByteChannel channel) {
+        throw new UnsupportedOperationException("sink does not support writing to a WritableByteChannel");
+    }
+
     /**
      * Changes the output to the given buffer. This resets any existing internal state
      * such as position and is equivalent to creating a new instance.
@@ -215,6 +363,15 @@ public abstract class ProtoSink {
         throw new UnsupportedOperationException("sink does not support writing to a ByteBuffer");
     }
 
+    /**
+     * Changes the output to the given range of off-heap memory, which may be larger
+     * than 2 GB. This resets any existing internal state such as position and is
+     * equivalent to creating a new instance.
+     */
+    public ProtoSink setOutput(long address, long length) {
+        throw new UnsupportedOperationException("sink does not support writing to a memory address");
+    }
+
     /**
      * Clears internal state and removes any references to previous outputs.
      */
@@ -447,97 +604,62 @@ public abstract class ProtoSink {
 
     /** Compute the number of bytes needed to encode all contained {@code enum} values */
     public static int computeRepeatedEnumSizeNoTag(final RepeatedEnum<?> values) {
-        int dataSize = 0;
-        final int length = values.length;
-        for (int i = 0; i < length; i++) {
-            dataSize += ProtoSink.computeEnumSizeNoTag(values.array()[i]);
-        }
-        return dataSize;
+        return computeRawVarint32sSize(values.array, values.length, VARINT_INT);
     }
 
     /** Write a repeated (packed) {@code enum} field to the sink. */
     public void writePackedEnumNoTag(final RepeatedEnum<?> values) throws IOException {
-        writeLength(computeRepeatedEnumSizeNoTag(values));
-        final int length = values.length;
-        for (int i = 0; i < length; i++) {
-            writeEnumNoTag(values.array()[i]);
-        }
+        final int dataSize = computeRepeatedEnumSizeNoTag(values);
+        writeLength(dataSize);
+        writeRawVarint32s(values.array, values.length, dataSize, VARINT_INT);
     }
 
     /** Compute the number of bytes needed to encode all contained {@code int32} values */
     public static int computeRepeatedInt32SizeNoTag(final RepeatedInt values) {
-        int dataSize = 0;
-        final int length = values.length;
-        for (int i = 0; i < length; i++) {
-            dataSize += ProtoSink.computeInt32SizeNoTag(values.array()[i]);
-        }
-        return dataSize;
+        return computeRawVarint32sSize(values.array, values.length, VARINT_INT);
     }
 
     /** Write a repeated (packed) {@code int32} field to the sink. */
     public void writePackedInt32NoTag(final RepeatedInt values) throws IOException {
-        writeLength(computeRepeatedInt32SizeNoTag(values));
-        final int length = values.length;
-        for (int i = 0; i < length; i++) {
-            writeInt32NoTag(values.array()[i]);
-        }
+        final int dataSize = computeRepeatedInt32SizeNoTag(values);
+        writeLength(dataSize);
+        writeRawVarint32s(values.array, values.length, dataSize, VARINT_INT);
     }
 
     /** Compute the number of bytes needed to encode all contained {@code uint32} values */
     public static int computeRepeatedUInt32SizeNoTag(final RepeatedInt values) {
-        int dataSize = 0;
-        final int length = values.length;
-        for (int i = 0; i < length; i++) {
-            dataSize += ProtoSink.computeUInt32SizeNoTag(values.array()[i]);
-        }
-        return dataSize;
+        return computeRawVarint32sSize(values.array, values.length, VARINT_UINT);
     }
 
     /** Write a repeated (packed) {@code uint32} field to the sink. */
     public void writePackedUInt32NoTag(final RepeatedInt values) throws IOException {
-        writeLength(computeRepeatedUInt32SizeNoTag(values));
-        final int length = values.length;
-        for (int i = 0; i < length; i++) {
-            writeUInt32NoTag(values.array()[i]);
-        }
+        final int dataSize = computeRepeatedUInt32SizeNoTag(values);
+        writeLength(dataSize);
+        writeRawVarint32s(values.array, values.length, dataSize, VARINT_UINT);
     }
 
     /** Compute the number of bytes needed to encode all contained {@code sint32} values */
     public static int computeRepeatedSInt32SizeNoTag(final RepeatedInt values) {
-        int dataSize = 0;
-        final int length = values.length;
-        for (int i = 0; i < length; i++) {
-            dataSize += ProtoSink.computeSInt32SizeNoTag(values.array()[i]);
-        }
-        return dataSize;
+        return computeRawVarint32sSize(values.array, values.length, VARINT_SINT);
     }
 
     /** Write a repeated (packed) {@code sint32} field to the sink. */
     public void writePackedSInt32NoTag(final RepeatedInt values) throws IOException {
-        writeLength(computeRepeatedSInt32SizeNoTag(values));
-        final int length = values.length;
-        for (int i = 0; i < length; i++) {
-            writeSInt32NoTag(values.array()[i]);
-        }
+        final int dataSize = computeRepeatedSInt32SizeNoTag(values);
+        writeLength(dataSize);
+        writeRawVarint32s(values.array, values.length, dataSize, VARINT_SINT);
     }
 
-    /** Compute the number of bytes needed to encode all contained {@code int32} values */
+    /** Compute the number of bytes needed to encode all contained {@code int64} values */
     public static int computeRepeatedInt64SizeNoTag(final RepeatedLong values) {
-        int dataSize = 0;
-        final int length = values.length;
-        for (int i = 0; i < length; i++) {
-            dataSize += ProtoSink.computeInt64SizeNoTag(values.array()[i]);
-        }
-        return dataSize;
+        return computeRawVarint64sSize(values.array, values.length, VARINT_INT);
     }
 
-    /** Write a repeated (packed) {@code int32} field to the sink. */
+    /** Write a repeated (packed) {@code int64} field to the sink. */
     public void writePackedInt64NoTag(final RepeatedLong values) throws IOException {
-        writeLength(computeRepeatedInt64SizeNoTag(values));
-        final int length = values.length;
-        for (int i = 0; i < length; i++) {
-            writeInt64NoTag(values.array()[i]);
-        }
+        final int dataSize = computeRepeatedInt64SizeNoTag(values);
+        writeLength(dataSize);
+        writeRawVarint64s(values.array, values.length, dataSize, VARINT_INT);
     }
 
     /** Compute the number of bytes needed to encode all contained {@code uint64} values */
@@ -545,30 +667,111 @@ public abstract class ProtoSink {
         return computeRepeatedInt64SizeNoTag(values);
     }
 
-    /** Write a repeated (packed) {@code uint32} field to the sink. */
+    /** Write a repeated (packed) {@code uint64} field to the sink. */
     public void writePackedUInt64NoTag(final RepeatedLong values) throws IOException {
         writePackedInt64NoTag(values);
     }
 
     /** Compute the number of bytes needed to encode all contained {@code sint64} values */
     public static int computeRepeatedSInt64SizeNoTag(final RepeatedLong values) {
+        return computeRawVarint64sSize(values.array, values.length, VARINT_SINT);
+    }
+
+    /** Write a repeated (packed) {@code sint64} field to the sink. */
+    public void writePackedSInt64NoTag(final RepeatedLong values) throws IOException {
+        final int dataSize = computeRepeatedSInt64SizeNoTag(values);
+        writeLength(dataSize);
+        writeRawVarint64s(values.array, values.length, dataSize, VARINT_SINT);
+    }
+
+    /**
+     * Writes consecutive varints that are known to encode to exactly numBytes, so
+     * that sinks can check the available space once rather than for every value.
+     *
+     * @param values   values to be written
+     * @param length   number of values
+     * @param numBytes total encoded size as computed by {@link #computeRawVarint32sSize(int[], int, int)}
+     * @param encoding one of {@link #VARINT_INT}, {@link #VARINT_UINT}, or {@link #VARINT_SINT}
+     */
+    protected void writeRawVarint32s(final int[] values, final int length, final int numBytes, final int encoding) throws IOException {
+        switch (encoding) {
+            case VARINT_UINT:
+                for (int i = 0; i < length; i++) {
+                    writeUInt32NoTag(values[i]);
+                }
+                break;
+            case VARINT_SINT:
+                for (int i = 0; i < length; i++) {
+                    writeSInt32NoTag(values[i]);
+                }
+                break;
+            default:
+                for (int i = 0; i < length; i++) {
+                    writeInt32NoTag(values[i]);
+                }
+        }
+    }
+
+    /** 64 bit version of {@link #writeRawVarint32s(int[], int, int, int)} */
+    protected void writeRawVarint64s(final long[] values, final int length, final int numBytes, final int encoding) throws IOException {
+        if (encoding == VARINT_SINT) {
+            for (int i = 0; i < length; i++) {
+                writeSInt64NoTag(values[i]);
+            }
+        } else {
+            for (int i = 0; i < length; i++) {
+                writeInt64NoTag(values[i]);
+            }
+        }
+    }
+
+    static int computeRawVarint32sSize(final int[] values, final int length, final int encoding) {
         int dataSize = 0;
-        final int length = values.length;
         for (int i = 0; i < length; i++) {
-            dataSize += ProtoSink.computeSInt64SizeNoTag(values.array()[i]);
+            dataSize += computeVarintSize(toVarint64(values[i], encoding));
         }
         return dataSize;
     }
 
-    /** Write a repeated (packed) {@code sint64} field to the sink. */
-    public void writePackedSInt64NoTag(final RepeatedLong values) throws IOException {
-        writeLength(computeRepeatedSInt64SizeNoTag(values));
-        final int length = values.length;
+    static int computeRawVarint64sSize(final long[] values, final int length, final int encoding) {
+        int dataSize = 0;
         for (int i = 0; i < length; i++) {
-            writeSInt64NoTag(values.array()[i]);
+            dataSize += computeVarintSize(toVarint64(values[i], encoding));
         }
+        return dataSize;
+    }
+
+    /**
+     * Branch-free version of {@link #computeRawVarint64Size(long)}. The number of 7 bit groups
+     * is the number of significant bits divided by 7 and rounded up, where the division is
+     * approximated by a multiplication with 9/64. This is exact for all 64 bit lengths.
+     */
+    static int computeVarintSize(final long value) {
+        return (9 * (63 - Long.numberOfLeadingZeros(value | 1)) + 73) >>> 6;
+    }
+
+    /** Converts a 32 bit value to the 64 bit value that has the same varint encoding */
+    static long toVarint64(final int value, final int encoding) {
+        switch (encoding) {
+            case VARINT_UINT:
+                return value & 0xFFFFFFFFL;
+            case VARINT_SINT:
+                return encodeZigZag32(value) & 0xFFFFFFFFL;
+            default:
+                return value; // negative values get sign-extended to 10 bytes
+        }
+    }
+
+    /** Converts a 64 bit value to the value that has the same varint encoding */
+    static long toVarint64(final long value, final int encoding) {
+        return encoding == VARINT_SINT ? encodeZigZag64(value) : value;
     }
 
+    /** Varint encodings of the bulk write methods */
+    static final int VARINT_INT = 0;
+    static final int VARINT_UINT = 1;
+    static final int VARINT_SINT = 2;
+
     /** Compute the number of bytes needed to encode all contained {@code message} values */
     public static int computeRepeatedMessageSizeNoTag(final RepeatedMessage<?> values) {
         int dataSize = 0;
@@ -665,7 +868,7 @@ public abstract class ProtoSink {
     public void writeStringNoTag(final Utf8String value) throws IOException {
         final int length = value.size();
         writeLength(length);
-        writeRawBytes(value.bytes(), 0, length);
+        writeRawBytes(value.bytes(), value.offset(), length);
     }
 
     /** Write a {@code string} field to the sink. */
@@ -1070,12 +1273,29 @@ public abstract class ProtoSink {
         }
     }
 
+    /**
+     * Writes any buffered data to the underlying output and flushes it. Does
+     * nothing for sinks that write directly to their output.
+     */
+    public void flush() throws IOException {
+    }
+
     /**
      * Get the total number of bytes successfully written to this sink. The returned value is not
      * guaranteed to be accurate if exceptions have been found in the middle of writing.
      */
     public abstract int getTotalBytesWritten();
 
+    /**
+     * Returns the absolute offset within the underlying output at which the next
+     * value will be written. Unlike {@link #getTotalBytesWritten()} the offset is
+     * not affected by {@link #reset()} and may exceed 2 GB. Only supported by sinks
+     * that write to a file, e.g., memory mapped files.
+     */
+    public long getPosition() {
+        throw new UnsupportedOperationException("sink does not support absolute positions");
+    }
+
     /**
      * Resets the position within the internal buffer to zero.
      *
@@ -1366,6 +1586,11 @@ public abstract class ProtoSink {
             return this;
         }
 
+        @Override
+        public void flush() throws IOException {
+            stream.flush();
+        }
+
         @Override
         public void writeRawByte(byte value) throws IOException {
             stream.write(value);
@@ -1378,8 +1603,58 @@ public abstract class ProtoSink {
             position += length;
         }
 
+        @Override
+        protected void writeRawFixed32s(final int[] values, final int length) throws IOException {
+            for (int offset = 0; offset < length; ) {
+                final int n = Math.min(length - offset, SCRATCH_SIZE / FIXED_32_SIZE);
+                ByteUtil.writeLittleEndian32s(scratch(), 0, values, offset, n);
+                writeRawBytes(scratch, 0, n * FIXED_32_SIZE);
+                offset += n;
+            }
+        }
+
+        @Override
+        protected void writeRawFixed64s(final long[] values, final int length) throws IOException {
+            for (int offset = 0; offset < length; ) {
+                final int n = Math.min(length - offset, SCRATCH_SIZE / FIXED_64_SIZE);
+                ByteUtil.writeLittleEndian64s(scratch(), 0, values, offset, n);
+                writeRawBytes(scratch, 0, n * FIXED_64_SIZE);
+                offset += n;
+            }
+        }
+
+        @Override
+        protected void writeRawFloats(final float[] values, final int length) throws IOException {
+            for (int offset = 0; offset < length; ) {
+                final int n = Math.min(length - offset, SCRATCH_SIZE / FIXED_32_SIZE);
+                ByteUtil.writeFloats(scratch(), 0, values, offset, n);
+                writeRawBytes(scratch, 0, n * FIXED_32_SIZE);
+                offset += n;
+            }
+        }
+
+        @Override
+        protected void writeRawDoubles(final double[] values, final int length) throws IOException {
+            for (int offset = 0; offset < length; ) {
+                final int n = Math.min(length - offset, SCRATCH_SIZE / FIXED_64_SIZE);
+                ByteUtil.writeDoubles(scratch(), 0, values, offset, n);
+                writeRawBytes(scratch, 0, n * FIXED_64_SIZE);
+                offset += n;
+            }
+        }
+
+        /** Fixed width values get encoded in chunks rather than written byte by byte */
+        private byte[] scratch() {
+            if (scratch == null) {
+                scratch = new byte[SCRATCH_SIZE];
+            }
+            return scratch;
+        }
+
         OutputStream stream = EMPTY_OUTPUT_STREAM;
         int position = 0;
+        private byte[] scratch = null;
+        private static final int SCRATCH_SIZE = 1024;
 
         private static final OutputStream EMPTY_OUTPUT_STREAM = new OutputStream() {
             @Override
@@ -1443,6 +1718,39 @@ public abstract class ProtoSink {
             }
         }
 
+        @Override
+        protected void writeRawFixed32s(final int[] values, final int length) throws IOException {
+            writeLittleEndian(length * FIXED_32_SIZE).asIntBuffer().put(values, 0, length);
+        }
+
+        @Override
+        protected void writeRawFixed64s(final long[] values, final int length) throws IOException {
+            writeLittleEndian(length * FIXED_64_SIZE).asLongBuffer().put(values, 0, length);
+        }
+
+        @Override
+        protected void writeRawFloats(final float[] values, final int length) throws IOException {
+            writeLittleEndian(length * FIXED_32_SIZE).asFloatBuffer().put(values, 0, length);
+        }
+
+        @Override
+        protected void writeRawDoubles(final double[] values, final int length) throws IOException {
+            writeLittleEndian(length * FIXED_64_SIZE).asDoubleBuffer().put(values, 0, length);
+        }
+
+        /**
+         * @return a little endian view starting at the current position. The position gets
+         * moved past numBytes, so the view needs to be written immediately.
+         */
+        private ByteBuffer writeLittleEndian(int numBytes) throws OutOfSpaceException {
+            if (buffer.remaining() < numBytes) {
+                throw new OutOfSpaceException(buffer.position(), buffer.limit());
+            }
+            final ByteBuffer view = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+            buffer.position(buffer.position() + numBytes);
+            return view;
+        }
+
         ByteBuffer buffer = ProtoUtil.EMPTY_BYTE_BUFFER;
         int initialPosition = 0;
 
@@ -50,11 +50,13 @@
 
 package us.hebi.quickbuf;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 
 import static us.hebi.quickbuf.WireFormat.*;
 
@@ -97,11 +99,21 @@ public abstract class ProtoSource {
         return newStreamSource().setInput(stream);
     }
 
+    /** Create a new ProtoSource reading from the given {@link ReadableByteChannel}. */
+    public static ProtoSource newInstance(ReadableByteChannel channel) {
+        return newChannelSource().setInput(channel);
+    }
+
     /** Create a new ProtoSource reading from the given {@link ByteBuffer}. */
     public static ProtoSource newInstance(ByteBuffer buffer) {
         return newBufferSource().setInput(buffer);
     }
 
+    /** Create a new ProtoSource reading from the given sequence of {@link ByteBuffer}s. */
+    public static ProtoSource newInstance(ByteBuffer[] buffers) {
+        return newCompositeSource().setInput(buffers);
+    }
+
     /**
      * Creates a new {@code ProtoSource} that reads directly from a byte array.
      *
@@ -129,12 +141,111 @@ public abstract class ProtoSource {
     /**
      * Creates a new {@code ProtoSource} that reads from an {@link InputStream}.
      *
-     * The current implementation is a very lightweight wrapper that reads
-     * byte-by-byte and does not do any internal buffering. This is slower
-     * than reading from an array, but it does not require extra memory.
+     * The stream gets read in chunks into an internal buffer, so values can
+     * be decoded directly from an array. The source may read ahead beyond
+     * the end of a message, so the stream should not be shared with other
+     * readers.
      */
     public static ProtoSource newStreamSource() {
-        return new StreamSource();
+        return newStreamSource(StreamSource.DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a new {@code ProtoSource} that reads from an {@link InputStream}
+     * using an internal buffer of the specified size.
+     *
+     * @param bufferSize size of the internal buffer in bytes
+     */
+    public static ProtoSource newStreamSource(int bufferSize) {
+        return new StreamSource(bufferSize);
+    }
+
+    /**
+     * Creates a new {@code ProtoSource} that reads from a {@link ReadableByteChannel}.
+     *
+     * The channel gets read in chunks into an internal direct buffer, so the data
+     * does not need to be copied to the heap before decoding. This method will
+     * return the fastest implementation available for the current platform and
+     * falls back to a stream source if sun.misc.Unsafe is not available. The
+     * channel must be in blocking mode and should not be shared with other
+     * readers.
+     */
+    public static ProtoSource newChannelSource() {
+        return newChannelSource(StreamSource.DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a new {@code ProtoSource} that reads from a {@link ReadableByteChannel}
+     * using an internal buffer of the specified size.
+     *
+     * @param bufferSize size of the internal buffer in bytes
+     * @see #newChannelSource()
+     */
+    public static ProtoSource newChannelSource(int bufferSize) {
+        if (UnsafeAccess.isAvailable() && UnsafeAccess.BufferAccess.isAvailable()) {
+            return new ChannelSource(bufferSize);
+        }
+        return new StreamSource(bufferSize);
+    }
+
+    /**
+     * Creates a new {@code ProtoSource} that reads from a memory mapped {@link FileChannel}.
+     *
+     * The file gets mapped lazily in segments of up to 1 GB, so files larger than
+     * 2 GB are supported and the data does not need to be copied before decoding.
+     * Reading starts at the current position of the channel, and absolute offsets
+     * can be accessed via {@link #getPosition()} and {@link #setPosition(long)}.
+     * Requires sun.misc.Unsafe.
+     */
+    public static ProtoSource newMappedFileSource() {
+        return newMappedFileSource(MappedFileSource.DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Creates a new {@code ProtoSource} that reads from a memory mapped {@link FileChannel}
+     * using segments of the specified size.
+     *
+     * @param segmentSize size of the mapped segments in bytes
+     * @see #newMappedFileSource()
+     */
+    public static ProtoSource newMappedFileSource(int segmentSize) {
+        return new MappedFileSource(segmentSize);
+    }
+
+    /**
+     * Creates a new {@code ProtoSource} that reads from off-heap memory that may be
+     * larger than 2 GB, e.g., memory that was allocated natively.
+     *
+     * The memory gets read through a window of up to 1 GB that moves forward, so only
+     * the top level may exceed 2 GB. Absolute offsets can be accessed via
+     * {@link #getPosition()} and {@link #setPosition(long)}. Requires sun.misc.Unsafe.
+     *
+     * @see #setInput(long, long)
+     */
+    public static ProtoSource newDirectMemorySource() {
+        return newDirectMemorySource(DirectMemorySource.DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Creates a new {@code ProtoSource} that reads from off-heap memory using a
+     * window of the specified size.
+     *
+     * @param windowSize maximum number of bytes that are visible at once
+     * @see #newDirectMemorySource()
+     */
+    public static ProtoSource newDirectMemorySource(int windowSize) {
+        return new DirectMemorySource(windowSize);
+    }
+
+    /**
+     * Creates a new {@code ProtoSource} that reads from a sequence of {@link ByteBuffer}
+     * fragments, e.g., as received from the network, without concatenating them first.
+     *
+     * Values within a fragment get decoded by the same code as the array and direct
+     * sources, so direct buffers require sun.misc.Unsafe.
+     */
+    public static ProtoSource newCompositeSource() {
+        return new CompositeSource();
     }
 
     /**
@@ -182,6 +293,15 @@ public abstract class ProtoSource {
         throw new UnsupportedOperationException("source does not support reading from an InputStream");
     }
 
+    /**
+     * Changes the input to the given channel. This resets any existing
+     * internal state such as position and is equivalent to creating
+     * a new instance.
+     */
+    public ProtoSource setInput(ReadableByteChannel channel) {
+        throw new UnsupportedOperationException("source does not support reading from a ReadableByteChannel");
+    }
+
     /**
      * Changes the input to the given buffer. This resets any existing
      * internal state such as position and is equivalent to creating
@@ -195,6 +315,33 @@ public abstract class ProtoSource {
         throw new UnsupportedOperationException("source does not support reading from a ByteBuffer");
     }
 
+    /**
+     * Changes the input to the remaining bytes of the given buffers. This resets
+     * any existing internal state such as position and is equivalent to creating
+     * a new instance. The buffer state does not get modified.
+     */
+    public final ProtoSource setInput(ByteBuffer[] buffers) {
+        return setInput(buffers, 0, buffers.length);
+    }
+
+    /**
+     * Changes the input to the remaining bytes of the given range of buffers.
+     *
+     * @see #setInput(ByteBuffer[])
+     */
+    public ProtoSource setInput(ByteBuffer[] buffers, int offset, int length) {
+        throw new UnsupportedOperationException("source does not support reading from multiple ByteBuffers");
+    }
+
+    /**
+     * Changes the input to the given range of off-heap memory, which may be larger
+     * than 2 GB. This resets any existing internal state such as position and is
+     * equivalent to creating a new instance.
+     */
+    public ProtoSource setInput(long address, long length) {
+        throw new UnsupportedOperationException("source does not support reading from a memory address");
+    }
+
     /**
      * Clears internal state and removes any references to previous inputs.
      */
@@ -352,6 +499,139 @@ public abstract class ProtoSource {
         }
     }
 
+    /**
+     * Finds the first occurrence of a (nested) field without parsing the message. All
+     * fields before the target get skipped, and nested messages and groups along the
+     * path get entered without being materialized. The remainder of the message does
+     * not get read.
+     * <p>
+     * Note that this can differ from the value that {@link ProtoMessage#mergeFrom(ProtoSource)}
+     * would produce for merged or concatenated input. Parsers take the last occurrence of a
+     * singular field and merge all occurrences of a nested message, whereas this method stops
+     * at the first match. Callers that can't rule out duplicate fields, e.g., for routing or
+     * deduplication keys, should parse the message or use {@link #visit(ProtoVisitor)} to
+     * look at every occurrence.
+     * <p>
+     * If the field was found, the source is positioned at the value of the field, i.e.,
+     * right after the tag, so the value can be read with the matching read method. For
+     * length delimited values, {@link #readLength()} and {@link #getTotalBytesRead()}
+     * provide the byte range. Limits within the path get removed before returning.
+     * <pre>{@code
+     * if (source.setInput(bytes).seekField(path) != 0) {
+     *     long key = source.readInt64();
+     * }
+     * }</pre>
+     *
+     * @param path field numbers from the outermost to the target field
+     * @return the tag of the target field, or zero if the field is not present
+     */
+    public int seekField(final FieldPath path) throws IOException {
+        final int oldLimit = currentLimit;
+        final int tag = seekField(path, 0);
+        popLimit(oldLimit);
+        return tag;
+    }
+
+    private int seekField(final FieldPath path, final int depth) throws IOException {
+        final int fieldNumber = path.getFieldNumber(depth);
+        final boolean isTarget = depth == path.length() - 1;
+        while (true) {
+            final int tag = readTag();
+            if (tag == 0) {
+                return 0;
+            }
+            if (WireFormat.getTagFieldNumber(tag) == fieldNumber) {
+                if (isTarget) {
+                    return tag;
+                }
+                switch (WireFormat.getTagWireType(tag)) {
+                    case WireFormat.WIRETYPE_LENGTH_DELIMITED: {
+                        final int oldLimit = pushLimit(readLength());
+                        final int result = seekField(path, depth + 1);
+                        if (result != 0) {
+                            return result;
+                        }
+                        checkLastTagWas(0);
+                        popLimit(oldLimit);
+                        continue;
+                    }
+                    case WireFormat.WIRETYPE_START_GROUP: {
+                        final int result = seekField(path, depth + 1);
+                        if (result != 0) {
+                            return result;
+                        }
+                        checkLastTagWas(WireFormat.makeTag(fieldNumber, WireFormat.WIRETYPE_END_GROUP));
+                        continue;
+                    }
+                }
+            }
+            if (!skipField(tag)) {
+                return 0; // end of the enclosing group
+            }
+        }
+    }
+
+    /**
+     * Streams all fields of a message to the visitor without materializing it. Visiting
+     * stops at the end of the input, the current limit, or at an end group tag.
+     * This can be called from within {@link ProtoVisitor#onLengthDelimited(int, ProtoSource, int)}
+     * or {@link ProtoVisitor#onGroup(int, ProtoSource)} to visit nested messages.
+     */
+    public void visit(final ProtoVisitor visitor) throws IOException {
+        visitor.onStartMessage();
+        while (true) {
+            final int tag = readTag();
+            if (tag == 0) {
+                visitor.onEndMessage();
+                return;
+            }
+            final int fieldNumber = WireFormat.getTagFieldNumber(tag);
+            switch (WireFormat.getTagWireType(tag)) {
+                case WireFormat.WIRETYPE_VARINT:
+                    visitor.onVarint(fieldNumber, readRawVarint64());
+                    break;
+                case WireFormat.WIRETYPE_FIXED64:
+                    visitor.onFixed64(fieldNumber, readRawLittleEndian64());
+                    break;
+                case WireFormat.WIRETYPE_LENGTH_DELIMITED: {
+                    final int length = readLength();
+                    if (recursionDepth >= recursionLimit) {
+                        throw InvalidProtocolBufferException.recursionLimitExceeded();
+                    }
+                    final int oldLimit = pushLimit(length);
+                    ++recursionDepth;
+                    visitor.onLengthDelimited(fieldNumber, this, length);
+                    skipRawBytes(getBytesUntilLimit());
+                    --recursionDepth;
+                    popLimit(oldLimit);
+                    break;
+                }
+                case WireFormat.WIRETYPE_START_GROUP: {
+                    if (recursionDepth >= recursionLimit) {
+                        throw InvalidProtocolBufferException.recursionLimitExceeded();
+                    }
+                    ++recursionDepth;
+                    visitor.onGroup(fieldNumber, this);
+                    final int endTag = WireFormat.makeTag(fieldNumber, WireFormat.WIRETYPE_END_GROUP);
+                    if (lastTag == tag) {
+                        skipMessage(); // group was not visited
+                    }
+                    checkLastTagWas(endTag);
+                    --recursionDepth;
+                    break;
+                }
+                case WireFormat.WIRETYPE_END_GROUP:
+                    visitor.onEndMessage();
+                    return;
+                case WireFormat.WIRETYPE_FIXED32:
+                    visitor.onFixed32(fieldNumber, readRawLittleEndian32());
+                    break;
+                default:
+                    throw InvalidProtocolBufferException.invalidWireType();
+            }
+        }
+    }
+
     // ------------------------------ FIXED WIDTH TYPES ------------------------------
 
     /** Read a repeated (packed) {@code double} field value from the source. */
@@ -525,7 +805,12 @@ public abstract class ProtoSource {
         final int limit = pushLimit(length);
         while (!isAtEnd()) {
             reservePackedVarintCapacity(store);
-            store.add(readInt64());
+            final int count = readRawVarint64s(store.array, store.length, store.remainingCapacity());
+            if (count > 0) {
+                store.length += count;
+            } else {
+                store.add(readInt64());
+            }
         }
         popLimit(limit);
     }
@@ -536,11 +821,30 @@ public abstract class ProtoSource {
         final int limit = pushLimit(length);
         while (!isAtEnd()) {
             reservePackedVarintCapacity(store);
-            store.add(readSInt64());
+            final int offset = store.length;
+            final int count = readRawVarint64s(store.array, offset, store.remainingCapacity());
+            if (count > 0) {
+                decodeZigZag64s(store.array, offset, count);
+                store.length += count;
+            } else {
+                store.add(readSInt64());
+            }
         }
         popLimit(limit);
     }
 
+    /**
+     * Decodes consecutive varints into the values array until either the array is full or the
+     * limit is reached. Note that this is an optimization that may decode fewer values or nothing
+     * at all, e.g., if bulk decoding is not supported or if the next varint needs to be read by
+     * the scalar path.
+     *
+     * @return number of decoded values
+     */
+    protected int readRawVarint64s(long[] values, int offset, int length) throws IOException {
+        return 0; // implement in child classes that support bulk decoding
+    }
+
     /** Read a repeated {@code uint64} field value from the source. */
     public int readRepeatedUInt64(final RepeatedLong store, final int tag) throws IOException {
         return readRepeatedInt64(store, tag);
@@ -592,7 +896,12 @@ public abstract class ProtoSource {
         final int limit = pushLimit(length);
         while (!isAtEnd()) {
             reservePackedVarintCapacity(store);
-            store.add(readInt32());
+            final int count = readRawVarint32s(store.array, store.length, store.remainingCapacity());
+            if (count > 0) {
+                store.length += count;
+            } else {
+                store.add(readInt32());
+            }
         }
         popLimit(limit);
     }
@@ -603,11 +912,27 @@ public abstract class ProtoSource {
         final int limit = pushLimit(length);
         while (!isAtEnd()) {
             reservePackedVarintCapacity(store);
-            store.add(readSInt32());
+            final int offset = store.length;
+            final int count = readRawVarint32s(store.array, offset, store.remainingCapacity());
+            if (count > 0) {
+                decodeZigZag32s(store.array, offset, count);
+                store.length += count;
+            } else {
+                store.add(readSInt32());
+            }
         }
         popLimit(limit);
     }
 
+    /**
+     * Same as {@link #readRawVarint64s(long[], int, int)}, but truncates the values to 32 bit.
+     *
+     * @return number of decoded values
+     */
+    protected int readRawVarint32s(int[] values, int offset, int length) throws IOException {
+        return 0; // implement in child classes that support bulk decoding
+    }
+
     /** Read a repeated {@code uint32} field value from the source. */
     public int readRepeatedUInt32(final RepeatedInt store, final int tag) throws IOException {
         return readRepeatedInt32(store, tag);
@@ -680,7 +1005,12 @@ public abstract class ProtoSource {
         final int limit = pushLimit(length);
         while (!isAtEnd()) {
             reservePackedVarintCapacity(store);
-            store.addValue(readEnum());
+            final int count = readRawVarint32s(store.array, store.length, store.remainingCapacity());
+            if (count > 0) {
+                store.length += count;
+            } else {
+                store.addValue(readEnum());
+            }
         }
         popLimit(limit);
     }
@@ -749,6 +1079,38 @@ public abstract class ProtoSource {
         --recursionDepth;
     }
 
+    /**
+     * Read a repeated {@code group} field value from the source and only merge the
+     * projected fields. A null projection merges all fields.
+     */
+    public int readRepeatedGroup(final RepeatedMessage<?> store, final int tag, final FieldProjection projection) throws IOException {
+        int fieldNumber = WireFormat.getTagFieldNumber(tag);
+        int nextTag;
+        do {
+            reserveRepeatedFieldCapacity(store, tag);
+            readGroup(store.next(), fieldNumber, projection);
+        } while ((nextTag = readTag()) == tag);
+        return nextTag;
+    }
+
+    /**
+     * Read a {@code group} field value from the source and only merge the projected
+     * fields. A null projection merges all fields.
+     */
+    public void readGroup(final ProtoMessage<?> msg, final int fieldNumber, final FieldProjection projection) throws IOException {
+        if (projection == null) {
+            readGroup(msg, fieldNumber);
+            return;
+        }
+        if (recursionDepth >= recursionLimit) {
+            throw InvalidProtocolBufferException.recursionLimitExceeded();
+        }
+        ++recursionDepth;
+        msg.mergeFrom(this, projection);
+        checkLastTagWas(WireFormat.makeTag(fieldNumber, WireFormat.WIRETYPE_END_GROUP));
+        --recursionDepth;
+    }
+
     /** Read a repeated {@code message} field value from the source. */
     public int readRepeatedMessage(final RepeatedMessage<?> store, final int tag) throws IOException {
         int nextTag;
@@ -772,6 +1134,40 @@ public abstract class ProtoSource {
         popLimit(oldLimit);
     }
 
+    /**
+     * Read a repeated {@code message} field value from the source and only merge the
+     * projected fields. A null projection merges all fields.
+     */
+    public int readRepeatedMessage(final RepeatedMessage<?> store, final int tag, final FieldProjection projection) throws IOException {
+        int nextTag;
+        do {
+            reserveRepeatedFieldCapacity(store, tag);
+            readMessage(store.next(), projection);
+        } while ((nextTag = readTag()) == tag);
+        return nextTag;
+    }
+
+    /**
+     * Read a {@code message} field value from the source and only merge the projected
+     * fields. A null projection merges all fields.
+     */
+    public void readMessage(final ProtoMessage<?> msg, final FieldProjection projection) throws IOException {
+        if (projection == null) {
+            readMessage(msg);
+            return;
+        }
+        final int length = readLength();
+        if (recursionDepth >= recursionLimit) {
+            throw InvalidProtocolBufferException.recursionLimitExceeded();
+        }
+        final int oldLimit = pushLimit(length);
+        ++recursionDepth;
+        msg.mergeFrom(this, projection);
+        checkLastTagWas(0);
+        --recursionDepth;
+        popLimit(oldLimit);
+    }
+
     /** Read a repeated {@code bytes} field value from the source. */
     public int readRepeatedBytes(final RepeatedBytes store, final int tag) throws IOException {
         int nextTag;
@@ -790,6 +1186,21 @@ public abstract class ProtoSource {
         readRawBytes(store.array, 0, length);
     }
 
+    /**
+     * Read a length delimited value, e.g., a {@code message} field, without parsing
+     * it. The store contains the length prefix followed by the contents, i.e., the same
+     * bytes as in the source. Existing contents get replaced.
+     */
+    public void readDelimitedBytes(RepeatedByte store) throws IOException {
+        final int length = readLength();
+        if (length < 0) {
+            throw InvalidProtocolBufferException.negativeSize();
+        }
+        store.setLength(0);
+        ByteUtil.writeUInt32(store, length);
+        ByteUtil.writeBytes(store, length, this);
+    }
+
     /** Read raw {@code bytes} from the source. */
     public void readRawBytes(byte[] values, int offset, int length) throws IOException {
         for (int i = 0; i < length; i++) {
@@ -869,15 +1280,15 @@ public abstract class ProtoSource {
         }
     }
 
-    private static final int xorBits7 = ~0 << 7;
-    private static final int xorBits14 = xorBits7 ^ (~0 << 14);
-    private static final int xorBits21 = xorBits14 ^ (~0 << 21);
-    private static final int xorBits28 = xorBits21 ^ (~0 << 28);
-    private static final long xorBits28L = xorBits21 ^ (~0L << 28);
-    private static final long xorBits35L = xorBits28L ^ (~0L << 35);
-    private static final long xorBits42L = xorBits35L ^ (~0L << 42);
-    private static final long xorBits49L = xorBits42L ^ (~0L << 49);
-    private static final long xorBits56L = xorBits49L ^ (~0L << 56);
+    static final int xorBits7 = ~0 << 7;
+    static final int xorBits14 = xorBits7 ^ (~0 << 14);
+    static final int xorBits21 = xorBits14 ^ (~0 << 21);
+    static final int xorBits28 = xorBits21 ^ (~0 << 28);
+    static final long xorBits28L = xorBits21 ^ (~0L << 28);
+    static final long xorBits35L = xorBits28L ^ (~0L << 35);
+    static final long xorBits42L = xorBits35L ^ (~0L << 42);
+    static final long xorBits49L = xorBits42L ^ (~0L << 49);
+    static final long xorBits56L = xorBits49L ^ (~0L << 56);
 
     long readRawVarint64SlowPath() throws IOException {
         long result = 0;
@@ -944,6 +1355,20 @@ public abstract class ProtoSource {
         return (n >>> 1) ^ -(n & 1);
     }
 
+    private static void decodeZigZag32s(final int[] values, final int offset, final int length) {
+        final int limit = offset + length;
+        for (int i = offset; i < limit; i++) {
+            values[i] = decodeZigZag32(values[i]);
+        }
+    }
+
+    private static void decodeZigZag64s(final long[] values, final int offset, final int length) {
+        final int limit = offset + length;
+        for (int i = offset; i < limit; i++) {
+            values[i] = decodeZigZag64(values[i]);
+        }
+    }
+
     // -----------------------------------------------------------------
 
     private int lastTag;
@@ -1035,6 +1460,22 @@ public abstract class ProtoSource {
         return this;
     }
 
+    /**
+     * Enables a zero-copy mode in which parsed {@code string} fields reference the
+     * encoded bytes in the underlying array rather than copying them. The referenced
+     * data must not be modified while the parsed messages are in use. Aliased strings
+     * copy the data when they get modified or when {@link Utf8String#detach()} gets called.
+     *
+     * <p>Only supported by sources that wrap a byte array. Sources wrapping native
+     * memory keep copying the data.
+     *
+     * @param enabled true if string fields should reference the source array
+     * @return this
+     */
+    public ProtoSource enableAliasing(boolean enabled) {
+        throw new UnsupportedOperationException("source does not support aliasing");
+    }
+
     /**
      * Whether unknown fields in this input stream should be discarded during parsing into full
      * runtime messages.
@@ -1102,6 +1543,25 @@ public abstract class ProtoSource {
      */
     public abstract void rewindTo(int totalBytesRead);
 
+    /**
+     * Returns the absolute offset of the current position within the underlying
+     * input. Unlike {@link #getTotalBytesRead()} the offset is not affected by
+     * {@link #resetSizeCounter()} and may exceed 2 GB. Only supported by sources
+     * that provide random access, e.g., memory mapped files.
+     */
+    public long getPosition() {
+        throw new UnsupportedOperationException("source does not support random access");
+    }
+
+    /**
+     * Moves the current position to the given absolute offset within the underlying
+     * input. This resets any existing internal state such as limits and counters.
+     * Only supported by sources that provide random access, e.g., memory mapped files.
+     */
+    public ProtoSource setPosition(long position) {
+        throw new UnsupportedOperationException("source does not support random access");
+    }
+
     /**
      * Read one byte from the input.
      *
@@ -1190,139 +1650,6 @@ public abstract class ProtoSource {
         throw InvalidProtocolBufferException.malformedVarint();
     }
 
-    static class StreamSource extends ProtoSource {
-
-        @Override
-        public ProtoSource setInput(InputStream stream){
-            this.input = stream;
-            return resetInternalState();
-        }
-
-        @Override
-        protected ProtoSource resetInternalState() {
-            peekByte = EOF;
-            position = 0;
-            sizeLimit = NO_LIMIT;
-            return super.resetInternalState();
-        }
-
-        @Override
-        public ProtoSource clear() {
-            return setInput(EMPTY_INPUT_STREAM);
-        }
-
-        @Override
-        public int setSizeLimit(final int limit) {
-            if (limit < 0) {
-                throw new IllegalArgumentException("Size limit cannot be negative: " + limit);
-            }
-            final int oldLimit = sizeLimit;
-            sizeLimit = limit;
-            return oldLimit;
-        }
-
-        @Override
-        public ProtoSource resetSizeCounter() {
-            position = 0;
-            return this;
-        }
-
-        @Override
-        public boolean isAtEnd() throws IOException {
-            return position == currentLimit || peek() == EOF;
-        }
-
-        @Override
-        public int getTotalBytesRead() {
-            return position;
-        }
-
-        @Override
-        public void rewindTo(int totalBytesRead) {
-            throw new UnsupportedOperationException("Stream can't be rewound");
-        }
-
-        @Override
-        public byte readRawByte() throws IOException {
-            if (position == sizeLimit || position == currentLimit) {
-                require(1); // throws appropriate error
-            }
-            if (peek() == EOF) {
-                throw InvalidProtocolBufferException.truncatedMessage();
-            }
-            try {
-                position++;
-                return (byte) peekByte;
-            } finally {
-                peekByte = EOF;
-            }
-        }
-
-        private int peek() throws IOException {
-            if (peekByte == EOF && (peekByte = input.read()) == EOF && getBytesUntilLimit() > 0) {
-                throw InvalidProtocolBufferException.truncatedMessage();
-            }
-            return peekByte;
-        }
-
-        @Override
-        public void skipRawBytes(int length) throws IOException {
-            if (length == 0) {
-                return;
-            }
-            require(length);
-            if (peekByte != EOF) {
-                peekByte = EOF;
-                length--;
-            }
-            if (input.skip(length) < length) {
-                throw InvalidProtocolBufferException.truncatedMessage();
-            }
-        }
-
-        @Override
-        public void readRawBytes(byte[] buffer, int offset, int length) throws IOException {
-            if (length == 0) {
-                return;
-            }
-            require(length);
-            if (peekByte != EOF) {
-                buffer[offset++] = (byte) peekByte;
-                length--;
-                peekByte = EOF;
-            }
-            while (length > 0) {
-                int n = input.read(buffer, offset, length);
-                if (n == EOF) {
-                    throw InvalidProtocolBufferException.truncatedMessage();
-                }
-                offset += n;
-                length -= n;
-            }
-        }
-
-        private void require(int size) throws IOException {
-            final int newPosition = position + size;
-            if (size < 0) {
-                throw InvalidProtocolBufferException.negativeSize();
-            } else if (newPosition - sizeLimit > 0) { // int overflow conscious
-                throw InvalidProtocolBufferException.sizeLimitExceeded();
-            } else if (newPosition > currentLimit) {
-                throw InvalidProtocolBufferException.truncatedMessage();
-            }
-            position = newPosition;
-        }
-
-        private int peekByte = EOF;
-        private int position = 0;
-        private int sizeLimit = Integer.MAX_VALUE;
-        private InputStream input = EMPTY_INPUT_STREAM;
-
-        private static final InputStream EMPTY_INPUT_STREAM = new ByteArrayInputStream(ProtoUtil.EMPTY_BYTE_ARRAY);
-        private static final int EOF = -1;
-
-    }
-
     static class BufferSource extends ProtoSource {
 
         @Override
@@ -1379,6 +1706,39 @@ public abstract class ProtoSource {
             }
         }
 
+        @Override
+        protected void readRawFixed32s(int[] values, int offset, int length) throws IOException {
+            readLittleEndian(length * FIXED_32_SIZE).asIntBuffer().get(values, offset, length);
+        }
+
+        @Override
+        protected void readRawFixed64s(long[] values, int offset, int length) throws IOException {
+            readLittleEndian(length * FIXED_64_SIZE).asLongBuffer().get(values, offset, length);
+        }
+
+        @Override
+        protected void readRawFloats(float[] values, int offset, int length) throws IOException {
+            readLittleEndian(length * FIXED_32_SIZE).asFloatBuffer().get(values, offset, length);
+        }
+
+        @Override
+        protected void readRawDoubles(double[] values, int offset, int length) throws IOException {
+            readLittleEndian(length * FIXED_64_SIZE).asDoubleBuffer().get(values, offset, length);
+        }
+
+        /**
+         * @return a little endian view starting at the current position. The position gets
+         * moved past numBytes, so the view needs to be read immediately.
+         */
+        private ByteBuffer readLittleEndian(int numBytes) throws IOException {
+            if (numBytes < 0 || buffer.remaining() < numBytes) {
+                throw InvalidProtocolBufferException.truncatedMessage();
+            }
+            final ByteBuffer view = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+            buffer.position(buffer.position() + numBytes);
+            return view;
+        }
+
         ByteBuffer buffer = ProtoUtil.EMPTY_BYTE_BUFFER;
 
     }
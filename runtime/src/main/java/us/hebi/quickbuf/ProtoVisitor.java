@@ -0,0 +1,80 @@
+/*-
+ * #%L
+ * quickbuf-runtime
+ * %%
+ * Copyright (C) 2019 HEBI Robotics
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package us.hebi.quickbuf;
+
+import java.io.IOException;
+
+/**
+ * Callback interface for streaming the fields of a serialized message via
+ * {@link ProtoSource#visit(ProtoVisitor)} without materializing a {@link ProtoMessage}.
+ * The callbacks receive the raw wire values in the order in which they were serialized.
+ * <p>
+ * The wire format does not distinguish between nested messages and other length delimited
+ * values, so nested messages only get visited on request, e.g., by calling
+ * {@code source.visit(nestedVisitor)} from within {@link #onLengthDelimited(int, ProtoSource, int)}.
+ * Messages generated with the {@code gen_visitors} option contain a typed {@code Visitor}
+ * adapter that decodes the wire values into field specific callbacks.
+ */
+public interface ProtoVisitor {
+
+    /**
+     * Called before the first field of a message or group
+     */
+    void onStartMessage() throws IOException;
+
+    /**
+     * Called for varint encoded values, e.g., {@code int32}, {@code sint64}, {@code bool} or {@code enum}.
+     * Zig-zag encoded values are passed without decoding.
+     */
+    void onVarint(int fieldNumber, long value) throws IOException;
+
+    /**
+     * Called for {@code fixed32}, {@code sfixed32}, and {@code float} values
+     */
+    void onFixed32(int fieldNumber, int value) throws IOException;
+
+    /**
+     * Called for {@code fixed64}, {@code sfixed64}, and {@code double} values
+     */
+    void onFixed64(int fieldNumber, long value) throws IOException;
+
+    /**
+     * Called for length delimited values such as strings, bytes, nested messages, and packed
+     * fields. The source is positioned at the start of the payload and limited to its length.
+     * Any part of the payload that does not get read gets skipped automatically.
+     *
+     * @param source source positioned at the payload
+     * @param length size of the payload in bytes
+     */
+    void onLengthDelimited(int fieldNumber, ProtoSource source, int length) throws IOException;
+
+    /**
+     * Called for group fields. The contents can be visited by calling {@code source.visit(visitor)}
+     * from within the callback. Groups that do not get visited get skipped automatically.
+     */
+    void onGroup(int fieldNumber, ProtoSource source) throws IOException;
+
+    /**
+     * Called after the last field of a message or group
+     */
+    void onEndMessage() throws IOException;
+
+}
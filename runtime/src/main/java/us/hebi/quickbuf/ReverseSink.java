@@ -0,0 +1,409 @@
+/*-
+ * #%L
+ * quickbuf-runtime
+ * %%
+ * Copyright (C) 2019 - 2022 HEBI Robotics
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package us.hebi.quickbuf;
+
+import static us.hebi.quickbuf.ProtoSink.*;
+import static us.hebi.quickbuf.WireFormat.*;
+
+/**
+ * Sink that encodes messages back to front, starting at the end of an internal
+ * array. Nested messages get written before their length prefix, so the size is
+ * known without computing it in a separate pass. This requires only a single
+ * traversal of the message tree, which can be faster than the normal encoding
+ * for deeply nested messages. The result is byte-identical to the normal encoding.
+ * <p>
+ * The internal array grows automatically. The encoded data is located at the
+ * end of the array, starting at {@link #offset()}.
+ * <pre>{@code
+ * ReverseSink sink = ReverseSink.newInstance();
+ * msg.writeToReverse(sink.reset());
+ * output.write(sink.array(), sink.offset(), sink.length());
+ * }</pre>
+ */
+public final class ReverseSink {
+
+    public static ReverseSink newInstance() {
+        return newInstance(DEFAULT_CAPACITY);
+    }
+
+    public static ReverseSink newInstance(int initialCapacity) {
+        ProtoUtil.checkArgument(initialCapacity >= 0, "capacity must not be negative");
+        return new ReverseSink(new byte[initialCapacity]);
+    }
+
+    private ReverseSink(byte[] buffer) {
+        this.buffer = buffer;
+        this.position = buffer.length;
+    }
+
+    /**
+     * Discards all data so that the sink can be reused.
+     *
+     * @return this
+     */
+    public ReverseSink reset() {
+        position = buffer.length;
+        return this;
+    }
+
+    /**
+     * @return the internal array that holds the encoded data from {@link #offset()} until the end
+     */
+    public byte[] array() {
+        return buffer;
+    }
+
+    /**
+     * @return the index of the first encoded byte in the internal array
+     */
+    public int offset() {
+        return position;
+    }
+
+    /**
+     * @return the number of encoded bytes
+     */
+    public int length() {
+        return buffer.length - position;
+    }
+
+    /**
+     * @return a copy of the encoded bytes
+     */
+    public byte[] toByteArray() {
+        final byte[] bytes = new byte[length()];
+        System.arraycopy(buffer, position, bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    /**
+     * Copies the encoded bytes to the given sink.
+     *
+     * @return this
+     */
+    public ReverseSink writeTo(ProtoSink sink) throws java.io.IOException {
+        sink.writeRawBytes(buffer, position, length());
+        return this;
+    }
+
+    /** moves backwards by numBytes and returns the new position */
+    private int require(final int numBytes) {
+        if (position < numBytes) {
+            final int length = length();
+            final int minCapacity = length + numBytes;
+            if (minCapacity < 0) {
+                throw new OutOfMemoryError("Required array size too large");
+            }
+            final int newCapacity = Math.max(minCapacity, buffer.length + (buffer.length >> 1));
+            final byte[] newBuffer = new byte[newCapacity < 0 ? Integer.MAX_VALUE - 8 : newCapacity];
+            System.arraycopy(buffer, position, newBuffer, newBuffer.length - length, length);
+            buffer = newBuffer;
+            position = newBuffer.length - length;
+        }
+        return position -= numBytes;
+    }
+
+    // -----------------------------------------------------------------
+
+    /** Write a {@code double} field to the sink. */
+    public void writeDoubleNoTag(final double value) {
+        final int pos = require(FIXED_64_SIZE);
+        ByteUtil.writeDouble(buffer, pos, value);
+    }
+
+    /** Write a {@code float} field to the sink. */
+    public void writeFloatNoTag(final float value) {
+        final int pos = require(FIXED_32_SIZE);
+        ByteUtil.writeFloat(buffer, pos, value);
+    }
+
+    /** Write an {@code int64} field to the sink. */
+    public void writeInt64NoTag(final long value) {
+        writeUInt64NoTag(value);
+    }
+
+    /** Write an {@code int32} field to the sink. */
+    public void writeInt32NoTag(final int value) {
+        if (value >= 0) {
+            writeUInt32NoTag(value);
+        } else {
+            // Must sign-extend
+            writeUInt64NoTag(value);
+        }
+    }
+
+    /** Write a {@code fixed64} field to the sink. */
+    public void writeFixed64NoTag(final long value) {
+        writeRawLittleEndian64(value);
+    }
+
+    /** Write a {@code fixed32} field to the sink. */
+    public void writeFixed32NoTag(final int value) {
+        writeRawLittleEndian32(value);
+    }
+
+    /** Write a {@code bool} field to the sink. */
+    public void writeBoolNoTag(final boolean value) {
+        writeRawByte((byte) (value ? 1 : 0));
+    }
+
+    /** Write a {@code string} field to the sink. */
+    public void writeStringNoTag(final Utf8String value) {
+        final int length = value.size();
+        writeRawBytes(value.bytes(), value.offset(), length);
+        writeLength(length);
+    }
+
+    /** Write a {@code string} field to the sink. */
+    public void writeStringNoTag(final CharSequence value) {
+        final int length = Utf8.encodedLength(value);
+        final int pos = require(length);
+        Utf8.encodeArray(value, buffer, pos, length);
+        writeLength(length);
+    }
+
+    /** Write a {@code group} field to the sink. */
+    public void writeGroupNoTag(final ProtoMessage<?> value) {
+        value.writeToReverse(this);
+    }
+
+    /** Write an embedded message field to the sink. */
+    public void writeMessageNoTag(final ProtoMessage<?> value) {
+        final int end = length();
+        value.writeToReverse(this);
+        writeLength(length() - end);
+    }
+
+    /** Write a {@code bytes} field to the sink. */
+    public void writeBytesNoTag(final RepeatedByte value) {
+        writeRawBytes(value.array, 0, value.length);
+        writeLength(value.length);
+    }
+
+    /** Write a {@code uint32} field to the sink. */
+    public void writeUInt32NoTag(int value) {
+        int pos = require(computeUInt32SizeNoTag(value));
+        final byte[] buffer = this.buffer;
+        while ((value & ~0x7F) != 0) {
+            buffer[pos++] = (byte) (value | 0x80);
+            value >>>= 7;
+        }
+        buffer[pos] = (byte) value;
+    }
+
+    /** Write a {@code uint64} field to the sink. */
+    public void writeUInt64NoTag(long value) {
+        int pos = require(computeUInt64SizeNoTag(value));
+        final byte[] buffer = this.buffer;
+        while ((value & ~0x7FL) != 0) {
+            buffer[pos++] = (byte) (((int) value) | 0x80);
+            value >>>= 7;
+        }
+        buffer[pos] = (byte) value;
+    }
+
+    /**
+     * Write an enum field to the sink.  Caller is responsible
+     * for converting the enum value to its numeric value.
+     */
+    public void writeEnumNoTag(final int value) {
+        writeInt32NoTag(value);
+    }
+
+    /** Write an {@code sfixed32} field to the sink. */
+    public void writeSFixed32NoTag(final int value) {
+        writeRawLittleEndian32(value);
+    }
+
+    /** Write an {@code sfixed64} field to the sink. */
+    public void writeSFixed64NoTag(final long value) {
+        writeRawLittleEndian64(value);
+    }
+
+    /** Write an {@code sint32} field to the sink. */
+    public void writeSInt32NoTag(final int value) {
+        writeUInt32NoTag(encodeZigZag32(value));
+    }
+
+    /** Write an {@code sint64} field to the sink. */
+    public void writeSInt64NoTag(final long value) {
+        writeUInt64NoTag(encodeZigZag64(value));
+    }
+
+    // -------------------------- PACKED TYPES --------------------------
+
+    /** Write a repeated (packed) {@code double} field, excluding tag, to the sink. */
+    public void writePackedDoubleNoTag(final RepeatedDouble values) {
+        final int size = values.length * FIXED_64_SIZE;
+        final int pos = require(size);
+        ByteUtil.writeDoubles(buffer, pos, values.array, 0, values.length);
+        writeLength(size);
+    }
+
+    /** Write a repeated (packed) {@code float} field, excluding tag, to the sink. */
+    public void writePackedFloatNoTag(final RepeatedFloat values) {
+        final int size = values.length * FIXED_32_SIZE;
+        final int pos = require(size);
+        ByteUtil.writeFloats(buffer, pos, values.array, 0, values.length);
+        writeLength(size);
+    }
+
+    /** Write a repeated (packed) {@code fixed64} field, excluding tag, to the sink. */
+    public void writePackedFixed64NoTag(final RepeatedLong values) {
+        final int size = values.length * FIXED_64_SIZE;
+        final int pos = require(size);
+        ByteUtil.writeLittleEndian64s(buffer, pos, values.array, 0, values.length);
+        writeLength(size);
+    }
+
+    /** Write a repeated (packed) {@code fixed32} field, excluding tag, to the sink. */
+    public void writePackedFixed32NoTag(final RepeatedInt values) {
+        final int size = values.length * FIXED_32_SIZE;
+        final int pos = require(size);
+        ByteUtil.writeLittleEndian32s(buffer, pos, values.array, 0, values.length);
+        writeLength(size);
+    }
+
+    /** Write a repeated (packed) {@code sfixed64} field, excluding tag, to the sink. */
+    public void writePackedSFixed64NoTag(final RepeatedLong values) {
+        writePackedFixed64NoTag(values);
+    }
+
+    /** Write a repeated (packed) {@code sfixed32} field, excluding tag, to the sink. */
+    public void writePackedSFixed32NoTag(final RepeatedInt values) {
+        writePackedFixed32NoTag(values);
+    }
+
+    /** Write a repeated (packed) {@code bool} field, excluding tag, to the sink. */
+    public void writePackedBoolNoTag(final RepeatedBoolean values) {
+        final int size = values.length * MIN_BOOL_SIZE;
+        final int pos = require(size);
+        ByteUtil.writeBooleans(buffer, pos, values.array, 0, values.length);
+        writeLength(size);
+    }
+
+    /** Write a repeated (packed) {@code enum} field, excluding tag, to the sink. */
+    public void writePackedEnumNoTag(final RepeatedEnum<?> values) {
+        final int end = length();
+        for (int i = values.length - 1; i >= 0; i--) {
+            writeEnumNoTag(values.array()[i]);
+        }
+        writeLength(length() - end);
+    }
+
+    /** Write a repeated (packed) {@code int32} field, excluding tag, to the sink. */
+    public void writePackedInt32NoTag(final RepeatedInt values) {
+        final int end = length();
+        for (int i = values.length - 1; i >= 0; i--) {
+            writeInt32NoTag(values.array[i]);
+        }
+        writeLength(length() - end);
+    }
+
+    /** Write a repeated (packed) {@code uint32} field, excluding tag, to the sink. */
+    public void writePackedUInt32NoTag(final RepeatedInt values) {
+        final int end = length();
+        for (int i = values.length - 1; i >= 0; i--) {
+            writeUInt32NoTag(values.array[i]);
+        }
+        writeLength(length() - end);
+    }
+
+    /** Write a repeated (packed) {@code sint32} field, excluding tag, to the sink. */
+    public void writePackedSInt32NoTag(final RepeatedInt values) {
+        final int end = length();
+        for (int i = values.length - 1; i >= 0; i--) {
+            writeSInt32NoTag(values.array[i]);
+        }
+        writeLength(length() - end);
+    }
+
+    /** Write a repeated (packed) {@code int64} field, excluding tag, to the sink. */
+    public void writePackedInt64NoTag(final RepeatedLong values) {
+        final int end = length();
+        for (int i = values.length - 1; i >= 0; i--) {
+            writeInt64NoTag(values.array[i]);
+        }
+        writeLength(length() - end);
+    }
+
+    /** Write a repeated (packed) {@code uint64} field, excluding tag, to the sink. */
+    public void writePackedUInt64NoTag(final RepeatedLong values) {
+        writePackedInt64NoTag(values);
+    }
+
+    /** Write a repeated (packed) {@code sint64} field, excluding tag, to the sink. */
+    public void writePackedSInt64NoTag(final RepeatedLong values) {
+        final int end = length();
+        for (int i = values.length - 1; i >= 0; i--) {
+            writeSInt64NoTag(values.array[i]);
+        }
+        writeLength(length() - end);
+    }
+
+    // -----------------------------------------------------------------
+
+    /** Write a length delimiter to the sink */
+    public void writeLength(final int length) {
+        writeUInt32NoTag(length);
+    }
+
+    /** Write a single byte. */
+    public void writeRawByte(final byte value) {
+        final int pos = require(1);
+        buffer[pos] = value;
+    }
+
+    /** Write part of an array of bytes. */
+    public void writeRawBytes(final byte[] value, int offset, int length) {
+        final int pos = require(length);
+        System.arraycopy(value, offset, buffer, pos, length);
+    }
+
+    /** Writes the contents as an array of bytes */
+    public void writeRawBytes(final RepeatedByte bytes) {
+        writeRawBytes(bytes.array, 0, bytes.length);
+    }
+
+    /** Write a little-endian 16-bit integer. */
+    public void writeRawLittleEndian16(final short value) {
+        final int pos = require(FIXED_16_SIZE);
+        ByteUtil.writeLittleEndian16(buffer, pos, value);
+    }
+
+    /** Write a little-endian 32-bit integer. */
+    public void writeRawLittleEndian32(final int value) {
+        final int pos = require(FIXED_32_SIZE);
+        ByteUtil.writeLittleEndian32(buffer, pos, value);
+    }
+
+    /** Write a little-endian 64-bit integer. */
+    public void writeRawLittleEndian64(final long value) {
+        final int pos = require(FIXED_64_SIZE);
+        ByteUtil.writeLittleEndian64(buffer, pos, value);
+    }
+
+    private byte[] buffer;
+    private int position;
+
+    static final int DEFAULT_CAPACITY = 256;
+
+}
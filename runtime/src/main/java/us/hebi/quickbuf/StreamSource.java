@@ -0,0 +1,769 @@
+/*-
+ * #%L
+ * quickbuf-runtime
+ * %%
+ * Copyright (C) 2019 - 2022 HEBI Robotics
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package us.hebi.quickbuf;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+import static us.hebi.quickbuf.ProtoUtil.*;
+import static us.hebi.quickbuf.UnsafeAccess.*;
+import static us.hebi.quickbuf.WireFormat.*;
+
+/**
+ * Source that reads from an {@link InputStream} in chunks of up to the
+ * internal buffer size. Values that are fully contained in the buffer get
+ * decoded directly from the array, and the buffer gets refilled whenever
+ * it runs out of data. Large byte payloads bypass the buffer and get read
+ * directly into the destination.
+ * <p>
+ * Note that the source may read ahead beyond the end of the current message,
+ * so the underlying stream should not be shared with other readers.
+ */
+class StreamSource extends ProtoSource {
+
+    StreamSource(int bufferSize) {
+        this(new byte[checkBufferSize(bufferSize)], bufferSize);
+    }
+
+    /**
+     * @param buffer   internal buffer, or null if a subclass manages its own storage
+     * @param capacity size of the internal buffer
+     */
+    StreamSource(byte[] buffer, int capacity) {
+        this.buffer = buffer;
+        this.capacity = checkBufferSize(capacity);
+    }
+
+    static int checkBufferSize(int bufferSize) {
+        checkArgument(bufferSize >= MIN_BUFFER_SIZE, "buffer size must be at least " + MIN_BUFFER_SIZE);
+        return bufferSize;
+    }
+
+    @Override
+    public ProtoSource setInput(InputStream stream) {
+        this.input = checkNotNull(stream);
+        return resetInternalState();
+    }
+
+    @Override
+    public ProtoSource setInput(ReadableByteChannel channel) {
+        return setInput(Channels.newInputStream(channel));
+    }
+
+    @Override
+    protected ProtoSource resetInternalState() {
+        position = 0;
+        limit = 0;
+        bufferSizeAfterLimit = 0;
+        totalBytesRetired = 0;
+        sizeLimit = NO_LIMIT;
+        return super.resetInternalState();
+    }
+
+    @Override
+    public ProtoSource clear() {
+        return setInput(EMPTY_INPUT_STREAM);
+    }
+
+    @Override
+    public int setSizeLimit(final int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Size limit cannot be negative: " + limit);
+        }
+        final int oldLimit = sizeLimit;
+        sizeLimit = limit;
+        return oldLimit;
+    }
+
+    @Override
+    public ProtoSource resetSizeCounter() {
+        totalBytesRetired = -position;
+        return this;
+    }
+
+    @Override
+    public int pushLimit(int byteLimit) throws InvalidProtocolBufferException {
+        if (byteLimit < 0) {
+            throw InvalidProtocolBufferException.negativeSize();
+        }
+        byteLimit += totalBytesRetired + position;
+        if (byteLimit > currentLimit) {
+            throw InvalidProtocolBufferException.truncatedMessage();
+        }
+        final int oldLimit = currentLimit;
+        currentLimit = byteLimit;
+        recomputeBufferSizeAfterLimit();
+        return oldLimit;
+    }
+
+    @Override
+    public void popLimit(final int oldLimit) {
+        currentLimit = oldLimit;
+        recomputeBufferSizeAfterLimit();
+    }
+
+    @Override
+    public int getBytesUntilLimit() {
+        if (currentLimit == NO_LIMIT) {
+            return -1;
+        }
+        return currentLimit - (totalBytesRetired + position);
+    }
+
+    private void recomputeBufferSizeAfterLimit() {
+        limit += bufferSizeAfterLimit;
+        final int bufferEnd = totalBytesRetired + limit;
+        if (bufferEnd > currentLimit) {
+            // Limit is in current buffer.
+            bufferSizeAfterLimit = bufferEnd - currentLimit;
+            limit -= bufferSizeAfterLimit;
+        } else {
+            // Limit is beyond bounds or not set
+            bufferSizeAfterLimit = 0;
+        }
+    }
+
+    @Override
+    public boolean isAtEnd() throws IOException {
+        if (position < limit || tryRefillBuffer(1)) {
+            return false;
+        } else if (getBytesUntilLimit() > 0) {
+            refillBuffer(1); // throws appropriate error
+        }
+        return true;
+    }
+
+    @Override
+    public int getTotalBytesRead() {
+        return totalBytesRetired + position;
+    }
+
+    @Override
+    public void rewindTo(int totalBytesRead) {
+        throw new UnsupportedOperationException("Stream can't be rewound");
+    }
+
+    /**
+     * Makes sure that at least numBytes are available in the buffer, or
+     * throws an appropriate exception if the data can't be read.
+     */
+    protected final void refillBuffer(final int numBytes) throws IOException {
+        if (!tryRefillBuffer(numBytes)) {
+            // Consume the remaining data before failing
+            final boolean exceedsSizeLimit = numBytes > sizeLimit - totalBytesRetired - position;
+            position = limit;
+            if (exceedsSizeLimit) {
+                throw InvalidProtocolBufferException.sizeLimitExceeded();
+            }
+            throw InvalidProtocolBufferException.truncatedMessage();
+        }
+    }
+
+    /**
+     * Tries to read more data from the input so that at least numBytes are
+     * available in the buffer. Unread data gets moved to the beginning of the
+     * buffer.
+     *
+     * @return true if numBytes are available, false if the end of the input,
+     * the current limit, or the size limit would be exceeded.
+     */
+    private boolean tryRefillBuffer(final int numBytes) throws IOException {
+        if (position + numBytes <= limit) {
+            return true;
+        }
+
+        // Don't read beyond the size limit or the current limit. Note that
+        // bufferSizeAfterLimit is always zero if the current limit is not
+        // within the current buffer.
+        final int totalBytesRead = totalBytesRetired + position;
+        if (numBytes > sizeLimit - totalBytesRead || numBytes > currentLimit - totalBytesRead) {
+            return false;
+        }
+
+        // Shift the unread portion to the beginning of the buffer
+        if (position > 0) {
+            moveToFront(position, limit - position);
+            totalBytesRetired += position;
+            limit -= position;
+            position = 0;
+        }
+
+        // The int based counter is only needed for limits, so it can be rebased
+        // at the top level to support reading streams that are larger than 2 GB
+        if (totalBytesRetired > REBASE_THRESHOLD && currentLimit == NO_LIMIT && sizeLimit == NO_LIMIT) {
+            totalBytesRetired = 0;
+        }
+
+        // Fill as much as possible
+        while (limit < numBytes) {
+            final int maxBytes = Math.min(capacity - limit, sizeLimit - totalBytesRetired - limit);
+            final int n = fillBuffer(limit, maxBytes);
+            if (n == EOF) {
+                recomputeBufferSizeAfterLimit();
+                return false;
+            }
+            limit += n;
+        }
+        recomputeBufferSizeAfterLimit();
+        return true;
+    }
+
+    /** moves forward by numBytes and returns the current position */
+    protected final int require(final int numBytes) throws IOException {
+        if (limit - position < numBytes) {
+            refillBuffer(numBytes);
+        }
+        final int pos = position;
+        position += numBytes;
+        return pos;
+    }
+
+    @Override
+    public byte readRawByte() throws IOException {
+        if (position == limit) {
+            refillBuffer(1);
+        }
+        return buffer[position++];
+    }
+
+    @Override
+    public int readRawVarint32() throws IOException {
+        if (limit - position < MAX_VARINT_SIZE) {
+            return super.readRawVarint32();
+        }
+
+        // See implementation notes for ProtoSource::readRawVarint64
+        final byte[] buffer = this.buffer;
+        int pos = position;
+        int x = buffer[pos++];
+        if (x >= 0) {
+            position = pos;
+            return x;
+        } else if ((x ^= (buffer[pos++] << 7)) < 0) {
+            x ^= xorBits7;
+        } else if ((x ^= (buffer[pos++] << 14)) >= 0) {
+            x ^= xorBits14;
+        } else if ((x ^= (buffer[pos++] << 21)) < 0) {
+            x ^= xorBits21;
+        } else {
+            // Discard upper 32 bits.
+            final int y = buffer[pos++];
+            if (y < 0
+                    && buffer[pos++] < 0
+                    && buffer[pos++] < 0
+                    && buffer[pos++] < 0
+                    && buffer[pos++] < 0
+                    && buffer[pos++] < 0) {
+                throw InvalidProtocolBufferException.malformedVarint();
+            }
+            x ^= (y << 28) ^ xorBits28;
+        }
+        position = pos;
+        return x;
+    }
+
+    @Override
+    public long readRawVarint64() throws IOException {
+        if (limit - position < MAX_VARINT_SIZE) {
+            return super.readRawVarint64();
+        }
+
+        // See implementation notes for ProtoSource::readRawVarint64
+        final byte[] buffer = this.buffer;
+        int pos = position;
+        int y;
+        long x;
+        if ((y = buffer[pos++]) >= 0) {
+            position = pos;
+            return y;
+        } else if ((y ^= (buffer[pos++] << 7)) < 0) {
+            x = y ^ xorBits7;
+        } else if ((y ^= (buffer[pos++] << 14)) >= 0) {
+            x = y ^ xorBits14;
+        } else if ((y ^= (buffer[pos++] << 21)) < 0) {
+            x = y ^ xorBits21;
+        } else if ((x = y ^ ((long) buffer[pos++] << 28)) >= 0L) {
+            x ^= xorBits28L;
+        } else if ((x ^= ((long) buffer[pos++] << 35)) < 0L) {
+            x ^= xorBits35L;
+        } else if ((x ^= ((long) buffer[pos++] << 42)) >= 0L) {
+            x ^= xorBits42L;
+        } else if ((x ^= ((long) buffer[pos++] << 49)) < 0L) {
+            x ^= xorBits49L;
+        } else {
+            x ^= ((long) buffer[pos++] << 56) ^ xorBits56L;
+            if (x < 0L) {
+                if (buffer[pos++] < 0) {
+                    throw InvalidProtocolBufferException.malformedVarint();
+                }
+            }
+        }
+        position = pos;
+        return x;
+    }
+
+    @Override
+    public short readRawLittleEndian16() throws IOException {
+        return ByteUtil.readLittleEndian16(buffer, require(FIXED_16_SIZE));
+    }
+
+    @Override
+    public int readRawLittleEndian32() throws IOException {
+        return ByteUtil.readLittleEndian32(buffer, require(FIXED_32_SIZE));
+    }
+
+    @Override
+    public long readRawLittleEndian64() throws IOException {
+        return ByteUtil.readLittleEndian64(buffer, require(FIXED_64_SIZE));
+    }
+
+    @Override
+    public float readFloat() throws IOException {
+        return ByteUtil.readFloat(buffer, require(FIXED_32_SIZE));
+    }
+
+    @Override
+    public double readDouble() throws IOException {
+        return ByteUtil.readDouble(buffer, require(FIXED_64_SIZE));
+    }
+
+    @Override
+    public void readRawBytes(byte[] values, int offset, int length) throws IOException {
+        if (length >= 0 && length <= limit - position) {
+            copyFromBuffer(position, values, offset, length);
+            position += length;
+            return;
+        }
+        readRawBytesSlowPath(values, offset, length);
+    }
+
+    private void readRawBytesSlowPath(byte[] values, int offset, int length) throws IOException {
+        checkBounds(values, offset, length);
+        requireWithinLimits(length);
+
+        // Drain the remaining buffer
+        final int available = limit - position;
+        copyFromBuffer(position, values, offset, available);
+        offset += available;
+        length -= available;
+        totalBytesRetired += limit;
+        position = limit = 0;
+
+        // Small remainders get read through the buffer to avoid many small reads
+        if (length < capacity) {
+            refillBuffer(length);
+            copyFromBuffer(position, values, offset, length);
+            position += length;
+            return;
+        }
+
+        // Large payloads get read directly into the destination
+        while (length > 0) {
+            final int n = readInput(values, offset, length);
+            if (n == EOF) {
+                throw InvalidProtocolBufferException.truncatedMessage();
+            }
+            totalBytesRetired += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    @Override
+    protected void readRawFixed32s(int[] values, int offset, int length) throws IOException {
+        // copy buffered values in bulk and refill one value at a time
+        final int end = offset + length;
+        while (offset < end) {
+            final int n = Math.min(end - offset, (limit - position) / FIXED_32_SIZE);
+            if (n == 0) {
+                values[offset++] = readRawLittleEndian32();
+                continue;
+            }
+            ByteUtil.readLittleEndian32s(buffer, position, values, offset, n);
+            position += n * FIXED_32_SIZE;
+            offset += n;
+        }
+    }
+
+    @Override
+    protected void readRawFixed64s(long[] values, int offset, int length) throws IOException {
+        // copy buffered values in bulk and refill one value at a time
+        final int end = offset + length;
+        while (offset < end) {
+            final int n = Math.min(end - offset, (limit - position) / FIXED_64_SIZE);
+            if (n == 0) {
+                values[offset++] = readRawLittleEndian64();
+                continue;
+            }
+            ByteUtil.readLittleEndian64s(buffer, position, values, offset, n);
+            position += n * FIXED_64_SIZE;
+            offset += n;
+        }
+    }
+
+    @Override
+    protected void readRawFloats(float[] values, int offset, int length) throws IOException {
+        // copy buffered values in bulk and refill one value at a time
+        final int end = offset + length;
+        while (offset < end) {
+            final int n = Math.min(end - offset, (limit - position) / FIXED_32_SIZE);
+            if (n == 0) {
+                values[offset++] = readFloat();
+                continue;
+            }
+            ByteUtil.readFloats(buffer, position, values, offset, n);
+            position += n * FIXED_32_SIZE;
+            offset += n;
+        }
+    }
+
+    @Override
+    protected void readRawDoubles(double[] values, int offset, int length) throws IOException {
+        // copy buffered values in bulk and refill one value at a time
+        final int end = offset + length;
+        while (offset < end) {
+            final int n = Math.min(end - offset, (limit - position) / FIXED_64_SIZE);
+            if (n == 0) {
+                values[offset++] = readDouble();
+                continue;
+            }
+            ByteUtil.readDoubles(buffer, position, values, offset, n);
+            position += n * FIXED_64_SIZE;
+            offset += n;
+        }
+    }
+
+    @Override
+    public void skipRawBytes(final int size) throws IOException {
+        if (size >= 0 && size <= limit - position) {
+            position += size;
+            return;
+        }
+        skipRawBytesSlowPath(size);
+    }
+
+    private void skipRawBytesSlowPath(final int size) throws IOException {
+        requireWithinLimits(size);
+
+        // Skip the remaining buffer
+        int remaining = size - (limit - position);
+        totalBytesRetired += limit;
+        position = limit = 0;
+
+        // Skip the rest in the input
+        while (remaining > 0) {
+            long n = skipInput(remaining);
+            if (n <= 0) {
+                // Skipping may not be supported, so check for EOF by reading
+                n = fillBuffer(0, Math.min(capacity, remaining));
+                if (n == EOF) {
+                    throw InvalidProtocolBufferException.truncatedMessage();
+                }
+            }
+            totalBytesRetired += n;
+            remaining -= n;
+        }
+    }
+
+    protected final void requireWithinLimits(final int numBytes) throws IOException {
+        final int totalBytesRead = totalBytesRetired + position;
+        if (numBytes < 0) {
+            throw InvalidProtocolBufferException.negativeSize();
+        } else if (numBytes > sizeLimit - totalBytesRead) {
+            position = limit;
+            throw InvalidProtocolBufferException.sizeLimitExceeded();
+        } else if (numBytes > currentLimit - totalBytesRead) {
+            position = limit;
+            throw InvalidProtocolBufferException.truncatedMessage();
+        }
+    }
+
+    /**
+     * Reads up to length bytes from the underlying input into the internal buffer
+     *
+     * @return the number of bytes read, or EOF if the end of the input was reached
+     */
+    protected int fillBuffer(int offset, int length) throws IOException {
+        return input.read(buffer, offset, length);
+    }
+
+    /**
+     * Reads up to length bytes from the underlying input directly into the destination
+     *
+     * @return the number of bytes read, or EOF if the end of the input was reached
+     */
+    protected int readInput(byte[] dst, int offset, int length) throws IOException {
+        return input.read(dst, offset, length);
+    }
+
+    /** Copies length bytes starting at the buffer position to the destination */
+    protected void copyFromBuffer(int position, byte[] dst, int offset, int length) {
+        System.arraycopy(buffer, position, dst, offset, length);
+    }
+
+    /** Moves the length unread bytes starting at the buffer position to the beginning of the buffer */
+    protected void moveToFront(int position, int length) {
+        if (length > 0) {
+            System.arraycopy(buffer, position, buffer, 0, length);
+        }
+    }
+
+    /**
+     * Skips up to length bytes in the underlying input
+     *
+     * @return the number of bytes skipped, which may be zero if skipping is not supported
+     */
+    protected long skipInput(long length) throws IOException {
+        return input.skip(length);
+    }
+
+    private final byte[] buffer;
+    protected final int capacity;
+    protected int position;
+    protected int limit;
+    private int bufferSizeAfterLimit;
+    protected int totalBytesRetired;
+    private int sizeLimit = NO_LIMIT;
+    private InputStream input = EMPTY_INPUT_STREAM;
+
+    static final int DEFAULT_BUFFER_SIZE = 4096;
+    static final int MIN_BUFFER_SIZE = MAX_VARINT_SIZE;
+    private static final InputStream EMPTY_INPUT_STREAM = new ByteArrayInputStream(ProtoUtil.EMPTY_BYTE_ARRAY);
+    static final int EOF = -1;
+    private static final int REBASE_THRESHOLD = 1 << 30;
+
+    /**
+     * Source that decodes values from a native buffer using the potentially
+     * unsupported (e.g. Android) sun.misc.Unsafe intrinsics, similar to the
+     * {@link ArraySource.DirectArraySource}. Subclasses are responsible for
+     * providing the address of the current buffer.
+     */
+    static abstract class DirectStreamSource extends StreamSource {
+
+        protected long address;
+
+        DirectStreamSource(int capacity) {
+            super(null, capacity);
+            if (!UnsafeAccess.isAvailable() || !UnsafeAccess.BufferAccess.isAvailable())
+                throw new AssertionError(getClass().getSimpleName() + " requires access to sun.misc.Unsafe");
+        }
+
+        @Override
+        protected void copyFromBuffer(int position, byte[] dst, int offset, int length) {
+            ProtoUtil.checkBounds(dst, offset, length);
+            ByteUtil.readUnsafeBytes(null, address + position, dst, offset, length);
+        }
+
+        @Override
+        protected void moveToFront(int position, int length) {
+            if (ENABLE_UNSAFE_COPY) {
+                UNSAFE.copyMemory(address + position, address, length);
+            } else {
+                for (int i = 0; i < length; i++) {
+                    UNSAFE.putByte(address + i, UNSAFE.getByte(address + position + i));
+                }
+            }
+        }
+
+        @Override
+        public byte readRawByte() throws IOException {
+            if (position == limit) {
+                refillBuffer(1);
+            }
+            return UNSAFE.getByte(address + position++);
+        }
+
+        @Override
+        public int readRawVarint32() throws IOException {
+            if (limit - position < MAX_VARINT_SIZE) {
+                return super.readRawVarint32();
+            }
+
+            // See implementation notes for ProtoSource::readRawVarint64
+            final long address = this.address;
+            int pos = position;
+            int x = UNSAFE.getByte(address + pos++);
+            if (x >= 0) {
+                position = pos;
+                return x;
+            } else if ((x ^= (UNSAFE.getByte(address + pos++) << 7)) < 0) {
+                x ^= xorBits7;
+            } else if ((x ^= (UNSAFE.getByte(address + pos++) << 14)) >= 0) {
+                x ^= xorBits14;
+            } else if ((x ^= (UNSAFE.getByte(address + pos++) << 21)) < 0) {
+                x ^= xorBits21;
+            } else {
+                // Discard upper 32 bits.
+                final int y = UNSAFE.getByte(address + pos++);
+                if (y < 0
+                        && UNSAFE.getByte(address + pos++) < 0
+                        && UNSAFE.getByte(address + pos++) < 0
+                        && UNSAFE.getByte(address + pos++) < 0
+                        && UNSAFE.getByte(address + pos++) < 0
+                        && UNSAFE.getByte(address + pos++) < 0) {
+                    throw InvalidProtocolBufferException.malformedVarint();
+                }
+                x ^= (y << 28) ^ xorBits28;
+            }
+            position = pos;
+            return x;
+        }
+
+        @Override
+        public long readRawVarint64() throws IOException {
+            if (limit - position < MAX_VARINT_SIZE) {
+                return super.readRawVarint64();
+            }
+
+            // See implementation notes for ProtoSource::readRawVarint64
+            final long address = this.address;
+            int pos = position;
+            int y;
+            long x;
+            if ((y = UNSAFE.getByte(address + pos++)) >= 0) {
+                position = pos;
+                return y;
+            } else if ((y ^= (UNSAFE.getByte(address + pos++) << 7)) < 0) {
+                x = y ^ xorBits7;
+            } else if ((y ^= (UNSAFE.getByte(address + pos++) << 14)) >= 0) {
+                x = y ^ xorBits14;
+            } else if ((y ^= (UNSAFE.getByte(address + pos++) << 21)) < 0) {
+                x = y ^ xorBits21;
+            } else if ((x = y ^ ((long) UNSAFE.getByte(address + pos++) << 28)) >= 0L) {
+                x ^= xorBits28L;
+            } else if ((x ^= ((long) UNSAFE.getByte(address + pos++) << 35)) < 0L) {
+                x ^= xorBits35L;
+            } else if ((x ^= ((long) UNSAFE.getByte(address + pos++) << 42)) >= 0L) {
+                x ^= xorBits42L;
+            } else if ((x ^= ((long) UNSAFE.getByte(address + pos++) << 49)) < 0L) {
+                x ^= xorBits49L;
+            } else {
+                x ^= ((long) UNSAFE.getByte(address + pos++) << 56) ^ xorBits56L;
+                if (x < 0L) {
+                    if (UNSAFE.getByte(address + pos++) < 0) {
+                        throw InvalidProtocolBufferException.malformedVarint();
+                    }
+                }
+            }
+            position = pos;
+            return x;
+        }
+
+        @Override
+        public short readRawLittleEndian16() throws IOException {
+            final int pos = require(FIXED_16_SIZE);
+            return ByteUtil.readUnsafeLittleEndian16(null, address + pos);
+        }
+
+        @Override
+        public int readRawLittleEndian32() throws IOException {
+            final int pos = require(FIXED_32_SIZE);
+            return ByteUtil.readUnsafeLittleEndian32(null, address + pos);
+        }
+
+        @Override
+        public long readRawLittleEndian64() throws IOException {
+            final int pos = require(FIXED_64_SIZE);
+            return ByteUtil.readUnsafeLittleEndian64(null, address + pos);
+        }
+
+        @Override
+        public float readFloat() throws IOException {
+            final int pos = require(FIXED_32_SIZE);
+            return ByteUtil.readUnsafeFloat(null, address + pos);
+        }
+
+        @Override
+        public double readDouble() throws IOException {
+            final int pos = require(FIXED_64_SIZE);
+            return ByteUtil.readUnsafeDouble(null, address + pos);
+        }
+
+        @Override
+        protected void readRawFixed32s(int[] values, int offset, int length) throws IOException {
+            // copy buffered values in bulk and refill one value at a time
+            final int end = offset + length;
+            while (offset < end) {
+                final int n = Math.min(end - offset, (limit - position) / FIXED_32_SIZE);
+                if (n == 0) {
+                    values[offset++] = readRawLittleEndian32();
+                    continue;
+                }
+                ByteUtil.readUnsafeLittleEndian32s(null, address + position, values, offset, n);
+                position += n * FIXED_32_SIZE;
+                offset += n;
+            }
+        }
+
+        @Override
+        protected void readRawFixed64s(long[] values, int offset, int length) throws IOException {
+            // copy buffered values in bulk and refill one value at a time
+            final int end = offset + length;
+            while (offset < end) {
+                final int n = Math.min(end - offset, (limit - position) / FIXED_64_SIZE);
+                if (n == 0) {
+                    values[offset++] = readRawLittleEndian64();
+                    continue;
+                }
+                ByteUtil.readUnsafeLittleEndian64s(null, address + position, values, offset, n);
+                position += n * FIXED_64_SIZE;
+                offset += n;
+            }
+        }
+
+        @Override
+        protected void readRawFloats(float[] values, int offset, int length) throws IOException {
+            // copy buffered values in bulk and refill one value at a time
+            final int end = offset + length;
+            while (offset < end) {
+                final int n = Math.min(end - offset, (limit - position) / FIXED_32_SIZE);
+                if (n == 0) {
+                    values[offset++] = readFloat();
+                    continue;
+                }
+                ByteUtil.readUnsafeFloats(null, address + position, values, offset, n);
+                position += n * FIXED_32_SIZE;
+                offset += n;
+            }
+        }
+
+        @Override
+        protected void readRawDoubles(double[] values, int offset, int length) throws IOException {
+            // copy buffered values in bulk and refill one value at a time
+            final int end = offset + length;
+            while (offset < end) {
+                final int n = Math.min(end - offset, (limit - position) / FIXED_64_SIZE);
+                if (n == 0) {
+                    values[offset++] = readDouble();
+                    continue;
+                }
+                ByteUtil.readUnsafeDoubles(null, address + position, values, offset, n);
+                position += n * FIXED_64_SIZE;
+                offset += n;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,439 @@
+/*-
+ * #%L
+ * quickbuf-runtime
+ * %%
+ * Copyright (C) 2019 HEBI Robotics
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package us.hebi.quickbuf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static us.hebi.quickbuf.ProtoUtil.*;
+import static us.hebi.quickbuf.WireFormat.*;
+
+/**
+ * Writes a serialized message into bounded buffers that may be smaller than the
+ * message, e.g., a direct buffer that gets drained into a non-blocking channel.
+ * Writing stops as soon as the buffer is full and continues at the same byte
+ * once more space is available.
+ * <pre>{@code
+ * writer.setMessage(message);
+ * while (!writer.writeTo(buffer)) {
+ *     buffer.flip();
+ *     channel.write(buffer); // may write only partially
+ *     buffer.compact();
+ * }
+ * }</pre>
+ * Generated serialization code can't be suspended in the middle of a nested message,
+ * so each call starts over at the beginning of the message. Sizes get cached up-front,
+ * so fields and nested messages that have already been written get skipped as a whole
+ * and only the path down to the resume position gets serialized again. The message
+ * must not be modified until it has been written completely.
+ */
+public final class SuspendableWriter {
+
+    public static SuspendableWriter newInstance() {
+        return new SuspendableWriter();
+    }
+
+    private SuspendableWriter() {
+    }
+
+    /**
+     * Starts writing the given message. Any remaining bytes of a previous
+     * message get discarded.
+     *
+     * @return this
+     */
+    public SuspendableWriter setMessage(ProtoMessage<?> message) {
+        return setMessage(message, false);
+    }
+
+    /**
+     * Starts writing the given message in length delimited form, i.e.,
+     * the same as {@link ProtoMessage#writeDelimitedTo(ProtoSink)}.
+     *
+     * @return this
+     */
+    public SuspendableWriter setDelimitedMessage(ProtoMessage<?> message) {
+        return setMessage(message, true);
+    }
+
+    private SuspendableWriter setMessage(ProtoMessage<?> message, boolean delimited) {
+        this.message = checkNotNull(message);
+        this.delimited = delimited;
+        final int size = message.getSerializedSize(); // updates all cached sizes
+        this.totalSize = delimited ? ProtoSink.computeRawVarint32Size(size) + size : size;
+        this.bytesWritten = 0;
+        return this;
+    }
+
+    /**
+     * Writes as many of the remaining bytes as fit into the buffer and
+     * advances its position.
+     *
+     * @return true if the message has been written completely
+     */
+    public boolean writeTo(ByteBuffer buffer) throws IOException {
+        checkState(message != null, "no message has been set");
+        if (isDone() || !buffer.hasRemaining()) {
+            return isDone();
+        }
+
+        sink.setOutput(buffer, bytesWritten);
+        boolean completed = false;
+        try {
+            if (delimited) {
+                sink.writeMessageNoTag(message);
+            } else {
+                message.writeTo(sink);
+            }
+            completed = true;
+        } catch (IOException e) {
+            if (e != SUSPENDED) {
+                throw e;
+            }
+        } finally {
+            bytesWritten += sink.written;
+            sink.clear();
+        }
+
+        if (completed != isDone()) {
+            throw new IllegalStateException("message was modified while writing");
+        }
+        return completed;
+    }
+
+    /**
+     * @return true if there are no bytes left to write
+     */
+    public boolean isDone() {
+        return bytesWritten == totalSize;
+    }
+
+    /**
+     * @return the number of bytes of the current message that have been written
+     */
+    public int getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * @return the number of bytes of the current message that still need to be written
+     */
+    public int getBytesRemaining() {
+        return totalSize - bytesWritten;
+    }
+
+    /**
+     * Removes the reference to the current message
+     *
+     * @return this
+     */
+    public SuspendableWriter clear() {
+        message = null;
+        totalSize = 0;
+        bytesWritten = 0;
+        return this;
+    }
+
+    /**
+     * Sink that skips bytes that have already been written and suspends
+     * serialization by throwing once the buffer is full.
+     */
+    private static class ResumingSink extends ProtoSink {
+
+        void setOutput(ByteBuffer buffer, int skip) {
+            this.buffer = buffer;
+            this.skip = skip;
+            this.written = 0;
+        }
+
+        @Override
+        public ProtoSink clear() {
+            setOutput(EMPTY_BYTE_BUFFER, 0);
+            return this;
+        }
+
+        @Override
+        public int getTotalBytesWritten() {
+            return written;
+        }
+
+        @Override
+        public ProtoSink reset() {
+            throw new UnsupportedOperationException("sink can't be reset");
+        }
+
+        @Override
+        public void writeRawByte(byte value) throws IOException {
+            if (skip > 0) {
+                skip--;
+            } else if (buffer.hasRemaining()) {
+                buffer.put(value);
+                written++;
+            } else {
+                throw SUSPENDED;
+            }
+        }
+
+        @Override
+        public void writeRawBytes(byte[] value, int offset, int length) throws IOException {
+            if (skip > 0) {
+                final int skipped = Math.min(skip, length);
+                skip -= skipped;
+                offset += skipped;
+                length -= skipped;
+            }
+            while (length > 0) {
+                final int n = Math.min(length, buffer.remaining());
+                if (n == 0) {
+                    throw SUSPENDED;
+                }
+                buffer.put(value, offset, n);
+                offset += n;
+                length -= n;
+                written += n;
+            }
+        }
+
+        // Values that have already been written in a previous call get dropped
+        // as a whole based on their (cached) size, so nested messages don't need
+        // to be serialized again.
+
+        private boolean skipped(int numBytes) {
+            if (skip >= numBytes) {
+                skip -= numBytes;
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void writeMessageNoTag(ProtoMessage<?> value) throws IOException {
+            final int size = value.getCachedSize();
+            if (!skipped(computeRawVarint32Size(size) + size)) {
+                super.writeMessageNoTag(value);
+            }
+        }
+
+        @Override
+        public void writeGroupNoTag(ProtoMessage<?> value) throws IOException {
+            if (!skipped(value.getCachedSize())) {
+                super.writeGroupNoTag(value);
+            }
+        }
+
+        @Override
+        public void writeBytesNoTag(RepeatedByte value) throws IOException {
+            if (!skipped(computeBytesSizeNoTag(value))) {
+                super.writeBytesNoTag(value);
+            }
+        }
+
+        @Override
+        public void writeStringNoTag(Utf8String value) throws IOException {
+            if (!skipped(computeStringSizeNoTag(value))) {
+                super.writeStringNoTag(value);
+            }
+        }
+
+        @Override
+        public void writeStringNoTag(CharSequence value) throws IOException {
+            if (!skipped(computeStringSizeNoTag(value))) {
+                super.writeStringNoTag(value);
+            }
+        }
+
+        @Override
+        public void writePackedDoubleNoTag(RepeatedDouble values) throws IOException {
+            if (!skipped(computePackedFixedSize(values.length, FIXED_64_SIZE))) {
+                super.writePackedDoubleNoTag(values);
+            }
+        }
+
+        @Override
+        public void writePackedFloatNoTag(RepeatedFloat values) throws IOException {
+            if (!skipped(computePackedFixedSize(values.length, FIXED_32_SIZE))) {
+                super.writePackedFloatNoTag(values);
+            }
+        }
+
+        @Override
+        public void writePackedFixed64NoTag(RepeatedLong values) throws IOException {
+            if (!skipped(computePackedFixedSize(values.length, FIXED_64_SIZE))) {
+                super.writePackedFixed64NoTag(values);
+            }
+        }
+
+        @Override
+        public void writePackedFixed32NoTag(RepeatedInt values) throws IOException {
+            if (!skipped(computePackedFixedSize(values.length, FIXED_32_SIZE))) {
+                super.writePackedFixed32NoTag(values);
+            }
+        }
+
+        @Override
+        public void writePackedSFixed32NoTag(RepeatedInt values) throws IOException {
+            if (!skipped(computePackedFixedSize(values.length, FIXED_32_SIZE))) {
+                super.writePackedSFixed32NoTag(values);
+            }
+        }
+
+        @Override
+        public void writePackedSFixed64NoTag(RepeatedLong values) throws IOException {
+            if (!skipped(computePackedFixedSize(values.length, FIXED_64_SIZE))) {
+                super.writePackedSFixed64NoTag(values);
+            }
+        }
+
+        @Override
+        public void writePackedBoolNoTag(RepeatedBoolean values) throws IOException {
+            if (!skipped(computePackedFixedSize(values.length, MIN_BOOL_SIZE))) {
+                super.writePackedBoolNoTag(values);
+            }
+        }
+
+        @Override
+        public void writePackedEnumNoTag(RepeatedEnum<?> values) throws IOException {
+            if (!skipped(computeLengthDelimitedSize(computeRepeatedEnumSizeNoTag(values)))) {
+                super.writePackedEnumNoTag(values);
+            }
+        }
+
+        @Override
+        public void writePackedInt32NoTag(RepeatedInt values) throws IOException {
+            if (!skipped(computeLengthDelimitedSize(computeRepeatedInt32SizeNoTag(values)))) {
+                super.writePackedInt32NoTag(values);
+            }
+        }
+
+        @Override
+        public void writePackedUInt32NoTag(RepeatedInt values) throws IOException {
+            if (!skipped(computeLengthDelimitedSize(computeRepeatedUInt32SizeNoTag(values)))) {
+                super.writePackedUInt32NoTag(values);
+            }
+        }
+
+        @Override
+        public void writePackedSInt32NoTag(RepeatedInt values) throws IOException {
+            if (!skipped(computeLengthDelimitedSize(computeRepeatedSInt32SizeNoTag(values)))) {
+                super.writePackedSInt32NoTag(values);
+            }
+        }
+
+        @Override
+        public void writePackedInt64NoTag(RepeatedLong values) throws IOException {
+            if (!skipped(computeLengthDelimitedSize(computeRepeatedInt64SizeNoTag(values)))) {
+                super.writePackedInt64NoTag(values);
+            }
+        }
+
+        @Override
+        public void writePackedUInt64NoTag(RepeatedLong values) throws IOException {
+            if (!skipped(computeLengthDelimitedSize(computeRepeatedUInt64SizeNoTag(values)))) {
+                super.writePackedUInt64NoTag(values);
+            }
+        }
+
+        @Override
+        public void writePackedSInt64NoTag(RepeatedLong values) throws IOException {
+            if (!skipped(computeLengthDelimitedSize(computeRepeatedSInt64SizeNoTag(values)))) {
+                super.writePackedSInt64NoTag(values);
+            }
+        }
+
+        @Override
+        public void writeUInt32NoTag(int value) throws IOException {
+            if (!skipped(computeRawVarint32Size(value))) {
+                super.writeUInt32NoTag(value);
+            }
+        }
+
+        @Override
+        public void writeUInt64NoTag(long value) throws IOException {
+            if (!skipped(computeRawVarint64Size(value))) {
+                super.writeUInt64NoTag(value);
+            }
+        }
+
+        @Override
+        protected void writeNegativeVarint32(int value) throws IOException {
+            if (!skipped(MAX_VARINT_SIZE)) {
+                super.writeNegativeVarint32(value);
+            }
+        }
+
+        @Override
+        protected void writeNegativeVarint64(long value) throws IOException {
+            if (!skipped(MAX_VARINT_SIZE)) {
+                super.writeNegativeVarint64(value);
+            }
+        }
+
+        @Override
+        public void writeRawLittleEndian16(short value) throws IOException {
+            if (!skipped(2)) {
+                super.writeRawLittleEndian16(value);
+            }
+        }
+
+        @Override
+        public void writeRawLittleEndian32(int value) throws IOException {
+            if (!skipped(FIXED_32_SIZE)) {
+                super.writeRawLittleEndian32(value);
+            }
+        }
+
+        @Override
+        public void writeRawLittleEndian64(long value) throws IOException {
+            if (!skipped(FIXED_64_SIZE)) {
+                super.writeRawLittleEndian64(value);
+            }
+        }
+
+        private static int computePackedFixedSize(int length, int size) {
+            return computeLengthDelimitedSize(length * size);
+        }
+
+        private static int computeLengthDelimitedSize(int dataSize) {
+            return computeRawVarint32Size(dataSize) + dataSize;
+        }
+
+        ByteBuffer buffer = EMPTY_BYTE_BUFFER;
+        int skip = 0;
+        int written = 0;
+
+    }
+
+    private static final IOException SUSPENDED = new IOException("serialization was suspended") {
+        private static final long serialVersionUID = 0L;
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this; // used for control flow only
+        }
+    };
+
+    private final ResumingSink sink = new ResumingSink();
+    private ProtoMessage<?> message;
+    private boolean delimited;
+    private int totalSize;
+    private int bytesWritten;
+
+}
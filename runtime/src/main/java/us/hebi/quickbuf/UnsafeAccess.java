@@ -214,4 +214,68 @@ class UnsafeAccess {
 
     }
 
+    /**
+     * Access to the internal byte array of compact strings (JEP 254). Java 9+
+     * stores strings that only contain chars up to 0xFF as one byte per char,
+     * which lets us copy their ASCII portions without going through charAt.
+     */
+    static class StringAccess {
+
+        public static boolean isAvailable() {
+            return IS_AVAILABLE;
+        }
+
+        /**
+         * Get the internal representation of strings that are stored in the compact Latin1 encoding.
+         * The array belongs to the string, so it must only be read and never be passed on to code
+         * that may keep a reference or write to it.
+         *
+         * @param sequence char sequence that may be a string
+         * @return one byte per char, or null if the sequence is not a compact string
+         */
+        static byte[] latin1(final CharSequence sequence) {
+            if (IS_AVAILABLE && sequence instanceof String
+                    && UNSAFE.getByte(sequence, STRING_CODER_FIELD_OFFSET) == LATIN1) {
+                return (byte[]) UNSAFE.getObject(sequence, STRING_VALUE_FIELD_OFFSET);
+            }
+            return null;
+        }
+
+        static final boolean IS_AVAILABLE;
+
+        /**
+         * Value of the {@code java.lang.String#LATIN1} coder
+         */
+        static final byte LATIN1 = 0;
+
+        /**
+         * Offset of the {@code java.lang.String#value} field.
+         */
+        static final long STRING_VALUE_FIELD_OFFSET;
+
+        /**
+         * Offset of the {@code java.lang.String#coder} field.
+         */
+        static final long STRING_CODER_FIELD_OFFSET;
+
+        static {
+            long value = -1;
+            long coder = -1;
+            boolean isAvailable;
+            try {
+                final Field valueField = String.class.getDeclaredField("value");
+                final Field coderField = String.class.getDeclaredField("coder");
+                value = UNSAFE.objectFieldOffset(valueField);
+                coder = UNSAFE.objectFieldOffset(coderField);
+                isAvailable = valueField.getType() == byte[].class && coderField.getType() == byte.class;
+            } catch (final Exception ex) {
+                isAvailable = false;
+            }
+            STRING_VALUE_FIELD_OFFSET = value;
+            STRING_CODER_FIELD_OFFSET = coder;
+            IS_AVAILABLE = ENABLE_UNSAFE && MAJOR_JAVA_VERSION >= 9 && isAvailable;
+        }
+
+    }
+
 }
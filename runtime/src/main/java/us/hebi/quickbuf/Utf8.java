@@ -49,9 +49,16 @@ class Utf8 {
         int utf8Length = utf16Length;
         int i = 0;
 
-        // This loop optimizes for pure ASCII.
-        while (i < utf16Length && sequence.charAt(i) < 0x80) {
-            i++;
+        final byte[] latin1 = StringAccess.latin1(sequence);
+        if (latin1 != null) {
+            // Compact strings only contain chars that encode to one or two bytes
+            utf8Length += countNonAscii(latin1);
+            i = utf16Length;
+        } else {
+            // This loop optimizes for pure ASCII.
+            while (i < utf16Length && sequence.charAt(i) < 0x80) {
+                i++;
+            }
         }
 
         // This loop optimizes for chars less than 0x800.
@@ -96,6 +103,48 @@ class Utf8 {
         return utf8Length;
     }
 
+    /**
+     * Returns the number of leading ASCII chars in the Latin1 representation
+     * of a compact string. Unaligned access checks 8 chars at a time.
+     */
+    private static int countAscii(final byte[] latin1) {
+        final int length = latin1.length;
+        int i = 0;
+        if (ENABLE_UNSAFE_UNALIGNED) {
+            for (; i <= length - 8; i += 8) {
+                if ((UNSAFE.getLong(latin1, BYTE_ARRAY_OFFSET + i) & NON_ASCII_MASK) != 0) {
+                    break;
+                }
+            }
+        }
+        while (i < length && latin1[i] >= 0) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Returns the number of chars that take two bytes in UTF-8, i.e., the number
+     * of negative bytes in the Latin1 representation of a compact string.
+     */
+    private static int countNonAscii(final byte[] latin1) {
+        final int length = latin1.length;
+        int count = 0;
+        int i = 0;
+        if (ENABLE_UNSAFE_UNALIGNED) {
+            for (; i <= length - 8; i += 8) {
+                count += Long.bitCount(UNSAFE.getLong(latin1, BYTE_ARRAY_OFFSET + i) & NON_ASCII_MASK);
+            }
+        }
+        for (; i < length; i++) {
+            count += latin1[i] >>> 31;
+        }
+        return count;
+    }
+
+    private static final long NON_ASCII_MASK = 0x8080808080808080L;
+    private static final int MAX_ASCII_CHUNK_SIZE = 8192;
+
     /**
      * Encodes {@code sequence} into UTF-8, in {@code bytes}. For a string, this method is
      * equivalent to {@code ByteBuffer.setOutput(buffer, offset, length).put(string.getBytes(UTF_8))},
@@ -117,10 +166,17 @@ class Utf8 {
         int j = offset;
         int i = 0;
         final int limit = offset + length;
-        // Designed to take advantage of
-        // https://wikis.oracle.com/display/HotSpotInternals/RangeCheckElimination
-        for (char c; i < utf16Length && i + j < limit && (c = sequence.charAt(i)) < 0x80; i++) {
-            bytes[j + i] = (byte) c;
+        final byte[] latin1 = StringAccess.latin1(sequence);
+        if (latin1 != null) {
+            // Copy the ASCII prefix of compact strings in bulk
+            i = Math.min(countAscii(latin1), length);
+            System.arraycopy(latin1, 0, bytes, j, i);
+        } else {
+            // Designed to take advantage of
+            // https://wikis.oracle.com/display/HotSpotInternals/RangeCheckElimination
+            for (char c; i < utf16Length && i + j < limit && (c = sequence.charAt(i)) < 0x80; i++) {
+                bytes[j + i] = (byte) c;
+            }
         }
         if (i == utf16Length) {
             return j + utf16Length;
@@ -182,10 +238,17 @@ class Utf8 {
         long j = baseOffset + offset;
         int i = 0;
         long limit = baseOffset + offset + length;
-        // Designed to take advantage of
-        // https://wikis.oracle.com/display/HotSpotInternals/RangeCheckElimination
-        for (char c; i < utf16Length && i + j < limit && (c = sequence.charAt(i)) < 0x80; i++) {
-            UNSAFE.putByte(bytes, j + i, (byte) c);
+        final byte[] latin1 = ENABLE_UNSAFE_COPY ? StringAccess.latin1(sequence) : null;
+        if (latin1 != null) {
+            // Copy the ASCII prefix of compact strings in bulk
+            i = Math.min(countAscii(latin1), length);
+            UNSAFE.copyMemory(latin1, BYTE_ARRAY_OFFSET, bytes, j, i);
+        } else {
+            // Designed to take advantage of
+            // https://wikis.oracle.com/display/HotSpotInternals/RangeCheckElimination
+            for (char c; i < utf16Length && i + j < limit && (c = sequence.charAt(i)) < 0x80; i++) {
+                UNSAFE.putByte(bytes, j + i, (byte) c);
+            }
         }
         if (i == utf16Length) {
             return offset + utf16Length;
@@ -225,10 +288,25 @@ class Utf8 {
     static void encodeSink(final CharSequence sequence, final ProtoSink sink) throws IOException {
         final int utf16Length = sequence.length();
         int i = 0;
-        // Designed to take advantage of
-        // https://wikis.oracle.com/display/HotSpotInternals/RangeCheckElimination
-        for (char c; i < utf16Length && (c = sequence.charAt(i)) < 0x80; i++) {
-            sink.writeRawByte(c);
+        final byte[] latin1 = StringAccess.latin1(sequence);
+        if (latin1 != null) {
+            // Copy the ASCII prefix of compact strings in bulk. Sinks may keep a reference to
+            // the written array (e.g. GatheringSink) or pass it on to user code, so each chunk
+            // gets copied into a new array rather than exposing the internal string data.
+            final int asciiLength = countAscii(latin1);
+            while (i < asciiLength) {
+                final int n = Math.min(asciiLength - i, MAX_ASCII_CHUNK_SIZE);
+                final byte[] chunk = new byte[n];
+                System.arraycopy(latin1, i, chunk, 0, n);
+                sink.writeRawBytes(chunk, 0, n);
+                i += n;
+            }
+        } else {
+            // Designed to take advantage of
+            // https://wikis.oracle.com/display/HotSpotInternals/RangeCheckElimination
+            for (char c; i < utf16Length && (c = sequence.charAt(i)) < 0x80; i++) {
+                sink.writeRawByte(c);
+            }
         }
         if (i == utf16Length) {
             return;
@@ -45,7 +45,8 @@ public final class Utf8String {
 
     /**
      * Internal backing array. Only call after
-     * size() or setSize().
+     * size() or setSize(). The data starts at
+     * offset() and may alias a source buffer.
      *
      * @return internal backing array
      */
@@ -53,6 +54,58 @@ public final class Utf8String {
         return bytes;
     }
 
+    /**
+     * @return offset of the encoded data within the backing array
+     */
+    int offset() {
+        return offset;
+    }
+
+    /**
+     * @return true if the encoded data references a buffer that is owned by someone else
+     */
+    public boolean isAliased() {
+        return bytes != storage;
+    }
+
+    /**
+     * References the encoded bytes in the given buffer without copying them. The
+     * buffer must not be modified while this instance is aliased. Any subsequent
+     * modification copies the data or replaces it entirely.
+     */
+    void setAlias(final byte[] buffer, final int offset, final int length) {
+        bytes = buffer;
+        this.offset = offset;
+        serializedSize = length;
+        string = null;
+    }
+
+    /**
+     * Copies aliased data into internal storage so that this instance no longer
+     * references the buffer of the source that it was parsed from. Does nothing
+     * if the data is not aliased.
+     *
+     * @return this
+     */
+    public Utf8String detach() {
+        if (isAliased()) {
+            final byte[] src = bytes;
+            final int srcOffset = offset;
+            releaseAlias();
+            if (serializedSize > 0) {
+                ensureCapacityInternal(serializedSize);
+                System.arraycopy(src, srcOffset, bytes, 0, serializedSize);
+            }
+        }
+        return this;
+    }
+
+    /** Drops the reference to aliased data without copying it */
+    private void releaseAlias() {
+        bytes = storage;
+        offset = 0;
+    }
+
     boolean hasString() {
         return string != null;
     }
@@ -70,6 +123,7 @@ public final class Utf8String {
     }
 
     void setSize(final int size) {
+        releaseAlias();
         ensureCapacity(size);
         serializedSize = size;
         string = null;
@@ -84,6 +138,7 @@ public final class Utf8String {
      */
     public Utf8String ensureSerialized() {
         if (serializedSize < 0) {
+            releaseAlias();
             ensureCapacity((string.length() * Utf8.MAX_UTF8_EXPANSION));
             serializedSize = Utf8.encodeArray(string, bytes, 0, bytes.length);
         }
@@ -96,7 +151,7 @@ public final class Utf8String {
 
     public String getString(Utf8Decoder decoder) {
         if (string == null) {
-            string = decoder.decode(bytes, 0, serializedSize);
+            string = decoder.decode(bytes, offset, serializedSize);
         }
         return string;
     }
@@ -104,7 +159,7 @@ public final class Utf8String {
     public StringBuilder getChars(StringBuilder store) {
         store.setLength(0);
         if (string == null) {
-            Utf8.decodeArray(bytes, 0, serializedSize, store);
+            Utf8.decodeArray(bytes, offset, serializedSize, store);
         } else {
             store.append(string);
         }
@@ -134,6 +189,7 @@ public final class Utf8String {
      */
     public Utf8String copyFromEncoded(CharSequence other) {
         // Store in encoded utf8 form
+        releaseAlias();
         ensureCapacityInternal((other.length() * Utf8.MAX_UTF8_EXPANSION));
         serializedSize = Utf8.encodeArray(other, bytes, 0, bytes.length);
         string = null;
@@ -144,40 +200,45 @@ public final class Utf8String {
      * Holds on to the reference of the String and encodes it when required.
      */
     public Utf8String copyFrom(String other) {
+        releaseAlias();
         serializedSize = -1;
         string = other;
         return this;
     }
 
     public Utf8String copyFrom(Utf8String other) {
+        final byte[] src = other.bytes;
+        final int srcOffset = other.offset;
+        releaseAlias();
         string = other.string;
         serializedSize = other.serializedSize;
         if (serializedSize >= 0) {
             ensureCapacityInternal(serializedSize);
-            System.arraycopy(other.bytes, 0, bytes, 0, serializedSize);
+            System.arraycopy(src, srcOffset, bytes, 0, serializedSize);
         }
         return this;
     }
 
     public Utf8String writeTo(ProtoSink sink) throws java.io.IOException {
         ensureSerialized();
-        sink.writeRawBytes(bytes, 0, serializedSize);
+        sink.writeRawBytes(bytes, offset, serializedSize);
         return this;
     }
 
     public Utf8String writeTo(java.io.OutputStream outputStream) throws java.io.IOException {
         ensureSerialized();
-        outputStream.write(bytes, 0, serializedSize);
+        outputStream.write(bytes, offset, serializedSize);
         return this;
     }
 
     public Utf8String writeTo(java.nio.ByteBuffer buffer) {
         ensureSerialized();
-        buffer.put(bytes, 0, serializedSize);
+        buffer.put(bytes, offset, serializedSize);
         return this;
     }
 
     public void clear() {
+        releaseAlias();
         serializedSize = 0;
         string = "";
     }
@@ -196,7 +257,7 @@ public final class Utf8String {
             return false;
 
         for (int i = 0; i < serializedSize; i++) {
-            if (bytes[i] != other.bytes[i])
+            if (bytes[offset + i] != other.bytes[other.offset + i])
                 return false;
         }
         return true;
@@ -248,9 +309,10 @@ public final class Utf8String {
      * overflow, this method throws {@code OutOfMemoryError}.
      */
     private void ensureCapacityInternal(int minimumCapacity) {
+        detach();
         // overflow-conscious code
         if (minimumCapacity - bytes.length > 0) {
-            bytes = Arrays.copyOf(bytes, newCapacity(minimumCapacity));
+            bytes = storage = Arrays.copyOf(bytes, newCapacity(minimumCapacity));
         }
     }
 
@@ -296,6 +358,8 @@ public final class Utf8String {
 
     private int serializedSize = 0;
     private byte[] bytes = ProtoUtil.EMPTY_BYTE_ARRAY;
+    private byte[] storage = bytes;
+    private int offset = 0;
     private String string = "";
 
 }
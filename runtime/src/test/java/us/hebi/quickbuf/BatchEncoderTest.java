@@ -0,0 +1,63 @@
+/*-
+ * #%L
+ * quickbuf-runtime
+ * %%
+ * Copyright (C) 2019 HEBI Robotics
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package us.hebi.quickbuf;
+
+import org.junit.Test;
+import protos.test.quickbuf.*;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class BatchEncoderTest {
+
+    @Test
+    public void testBatchEncoder() throws IOException {
+        TestAllTypes msg = TestAllTypes.parseFrom(CompatibilityTest.getCombinedMessage());
+        RepeatedMessage<TestAllTypes> messages = RepeatedMessage.newEmptyInstance(TestAllTypes.getFactory());
+        for (int i = 0; i < 10; i++) {
+            messages.next().copyFrom(msg).setOptionalInt32(i);
+        }
+        BatchEncoder encoder = BatchEncoder.newInstance();
+
+        // Raw messages
+        int[] offsets = encoder.encode(messages);
+        assertEquals(messages.length(), encoder.getCount());
+        assertEquals(offsets[messages.length()], encoder.getLength());
+        for (int i = 0; i < messages.length(); i++) {
+            ProtoSource source = ProtoSource.newInstance(encoder.getBuffer(), offsets[i], offsets[i + 1] - offsets[i]);
+            assertEquals(messages.get(i), TestAllTypes.parseFrom(source));
+        }
+
+        // Delimited subset
+        TestAllTypes[] array = new TestAllTypes[]{messages.get(3), messages.get(4), messages.get(5)};
+        offsets = encoder.encodeDelimited(array, 1, 2);
+        assertEquals(2, encoder.getCount());
+        ProtoSource source = ProtoSource.newInstance(encoder.getBuffer(), 0, encoder.getLength());
+        for (int i = 0; i < 2; i++) {
+            assertEquals(offsets[i], source.getTotalBytesRead());
+            assertEquals(array[i + 1], TestAllTypes.newInstance().mergeDelimitedFrom(source));
+        }
+        assertTrue(source.isAtEnd());
+        assertEquals(offsets[2], encoder.toByteArray().length);
+    }
+
+}
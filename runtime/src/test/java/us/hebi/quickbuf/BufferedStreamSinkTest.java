@@ -0,0 +1,48 @@
+/*-
+ * #%L
+ * quickbuf-runtime
+ * %%
+ * Copyright (C) 2019 HEBI Robotics
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package us.hebi.quickbuf;
+
+import org.junit.Test;
+import protos.test.quickbuf.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class BufferedStreamSinkTest {
+
+    @Test
+    public void testBufferedOutputStreamSink() throws IOException {
+        TestAllTypes msg = TestAllTypes.parseFrom(CompatibilityTest.getCombinedMessage());
+        msg.setOptionalBytes(new byte[1000]);
+        byte[] expected = msg.toByteArray();
+        for (int bufferSize = BufferedStreamSink.MIN_BUFFER_SIZE; bufferSize < expected.length + 16; bufferSize += 7) {
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            ProtoSink sink = ProtoSink.newBufferedStreamSink(bufferSize).setOutput(baos);
+            msg.writeTo(sink);
+            assertEquals(expected.length, sink.getTotalBytesWritten());
+            sink.flush();
+            assertArrayEquals(expected, baos.toByteArray());
+        }
+    }
+
+}
@@ -0,0 +1,137 @@
+/*-
+ * #%L
+ * quickbuf-runtime
+ * %%
+ * Copyright (C) 2019 HEBI Robotics
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package us.hebi.quickbuf;
+
+import org.junit.Test;
+import protos.test.quickbuf.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.nio.channels.ReadableByteChannel;
+
+import static org.junit.Assert.*;
+
+public class ChannelTest {
+
+    @Test
+    public void testChannelSourceAndSink() throws IOException {
+        TestAllTypes msg = TestAllTypes.parseFrom(CompatibilityTest.getCombinedMessage());
+        msg.setOptionalBytes(new byte[1000]);
+        byte[] expected = msg.toByteArray();
+        ProtoSink[] sinks = {ProtoSink.newChannelSink(64), new BufferedStreamSink(64)};
+        ProtoSource[] sources = {ProtoSource.newChannelSource(64), new StreamSource(64)};
+
+        for (int i = 0; i < sinks.length; i++) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            msg.writeTo(sinks[i].setOutput(Channels.newChannel(baos)));
+            sinks[i].flush();
+            assertArrayEquals(expected, baos.toByteArray());
+
+            ReadableByteChannel channel = Channels.newChannel(new ByteArrayInputStream(expected));
+            assertEquals(msg, TestAllTypes.newInstance().mergeFrom(sources[i].setInput(channel)));
+            assertTrue(sources[i].isAtEnd());
+        }
+    }
+
+    @Test
+    public void testNonBlockingChannels() throws IOException {
+        Pipe pipe = Pipe.open();
+        try {
+            pipe.source().configureBlocking(false);
+            pipe.sink().configureBlocking(false);
+            try {
+                ProtoSource.newChannelSource(64).setInput(pipe.source());
+                fail("non-blocking source channel");
+            } catch (IllegalArgumentException expected) {
+            }
+            try {
+                ProtoSink.newChannelSink(64).setOutput(pipe.sink());
+                fail("non-blocking sink channel");
+            } catch (IllegalArgumentException expected) {
+            }
+        } finally {
+            pipe.source().close();
+            pipe.sink().close();
+        }
+
+        // Channels that can't be detected should fail rather than spin
+        ReadableByteChannel emptyReads = new ReadableByteChannel() {
+            @Override
+            public int read(ByteBuffer dst) {
+                return 0;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        try {
+            ProtoSource.newChannelSource(64).setInput(emptyReads).readRawByte();
+            fail("read returned no data");
+        } catch (IOException expected) {
+            assertEquals("non-blocking channels are not supported", expected.getMessage());
+        }
+    }
+
+    @Test
+    public void testFileChannelDelimited() throws IOException {
+        TestAllTypes msg = TestAllTypes.parseFrom(CompatibilityTest.getCombinedMessage());
+        final int numMessages = 10;
+        File file = File.createTempFile("quickbuf", ".bin");
+        file.deleteOnExit();
+
+        RandomAccessFile output = new RandomAccessFile(file, "rw");
+        try {
+            ProtoSink sink = ProtoSink.newInstance(output.getChannel());
+            for (int i = 0; i < numMessages; i++) {
+                msg.setOptionalInt32(i).writeDelimitedTo(sink);
+            }
+            sink.flush();
+        } finally {
+            output.close();
+        }
+
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            ProtoSource source = ProtoSource.newChannelSource(128).setInput(input.getChannel());
+            TestAllTypes actual = TestAllTypes.newInstance();
+            for (int i = 0; i < numMessages; i++) {
+                actual.clearQuick().mergeDelimitedFrom(source);
+                assertEquals(msg.setOptionalInt32(i), actual);
+            }
+            assertTrue(source.isAtEnd());
+        } finally {
+            input.close();
+        }
+    }
+
+}
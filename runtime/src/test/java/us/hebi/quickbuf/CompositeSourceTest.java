@@ -0,0 +1,93 @@
+/*-
+ * #%L
+ * quickbuf-runtime
+ * %%
+ * Copyright (C) 2019 HEBI Robotics
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package us.hebi.quickbuf;
+
+import org.junit.Test;
+import protos.test.quickbuf.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class CompositeSourceTest {
+
+    @Test
+    public void testCompositeSource() throws IOException {
+        byte[] bytes = CompatibilityTest.getCombinedMessage();
+        TestAllTypes expected = TestAllTypes.parseFrom(bytes);
+        ProtoSource source = ProtoSource.newCompositeSource();
+        TestAllTypes actual = TestAllTypes.newInstance();
+
+        // Split into fragments of various sizes with alternating heap and direct buffers
+        for (int fragmentSize : new int[]{1, 2, 3, 5, 8, 13, 64, bytes.length}) {
+            ByteBuffer[] buffers = new ByteBuffer[(bytes.length + fragmentSize - 1) / fragmentSize + 2];
+            buffers[0] = ByteBuffer.allocate(0);
+            for (int i = 1; i < buffers.length - 1; i++) {
+                int offset = (i - 1) * fragmentSize;
+                int length = Math.min(fragmentSize, bytes.length - offset);
+                if (i % 2 == 0) {
+                    buffers[i] = ByteBuffer.allocateDirect(length + 1);
+                    buffers[i].put((byte) 0).put(bytes, offset, length).flip().position(1);
+                } else {
+                    buffers[i] = ByteBuffer.wrap(bytes, offset, length).slice();
+                }
+            }
+            buffers[buffers.length - 1] = ByteBuffer.allocateDirect(0);
+
+            assertEquals(expected, actual.clear().mergeFrom(source.setInput(buffers)));
+            assertTrue(source.isAtEnd());
+            assertEquals(bytes.length, source.getTotalBytesRead());
+            for (int i = 1; i < buffers.length - 1; i++) {
+                assertEquals(i % 2 == 0 ? 1 : 0, buffers[i].position()); // unmodified
+            }
+
+            // Truncated input
+            try {
+                actual.clear().mergeFrom(source.setInput(buffers, 0, buffers.length - 2));
+                if (fragmentSize < bytes.length) {
+                    fail("parsed truncated input");
+                }
+            } catch (InvalidProtocolBufferException expectedFailure) {
+            }
+        }
+
+        // Delimited messages across fragments
+        RepeatedByte delimited = RepeatedByte.newEmptyInstance();
+        ProtoSink sink = ProtoSink.newInstance(delimited);
+        for (int i = 0; i < 3; i++) {
+            expected.setOptionalInt32(i).writeDelimitedTo(sink);
+        }
+        int half = delimited.length() / 2;
+        ByteBuffer[] buffers = new ByteBuffer[]{
+                ByteBuffer.wrap(delimited.array(), 0, half),
+                ByteBuffer.wrap(delimited.array(), half, delimited.length() - half)
+        };
+        DelimitedReader<TestAllTypes> reader = DelimitedReader.newInstance(TestAllTypes.getFactory());
+        reader.setInput(ProtoSource.newInstance(buffers));
+        for (int i = 0; i < 3; i++) {
+            assertTrue(reader.next());
+            assertEquals(expected.setOptionalInt32(i), reader.read());
+        }
+        assertFalse(reader.next());
+    }
+
+}
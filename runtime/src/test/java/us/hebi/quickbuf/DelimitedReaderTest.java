@@ -0,0 +1,144 @@
+/*-
+ * #%L
+ * quickbuf-runtime
+ * %%
+ * Copyright (C) 2019 HEBI Robotics
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package us.hebi.quickbuf;
+
+import org.junit.Test;
+import protos.test.quickbuf.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+
+import static org.junit.Assert.*;
+
+public class DelimitedReaderTest {
+
+    @Test
+    public void testDelimitedReader() throws IOException {
+        TestAllTypes msg = TestAllTypes.parseFrom(CompatibilityTest.getCombinedMessage());
+        final int numMessages = 10;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ProtoSink sink = ProtoSink.newInstance(out);
+        for (int i = 0; i < numMessages; i++) {
+            msg.setOptionalInt32(i).writeDelimitedTo(sink);
+        }
+        byte[] bytes = out.toByteArray();
+
+        ProtoSource[] sources = new ProtoSource[]{
+                ProtoSource.newInstance(bytes),
+                ProtoSource.newInstance(ByteBuffer.wrap(bytes)),
+                ProtoSource.newStreamSource(128).setInput(new ByteArrayInputStream(bytes)),
+                ProtoSource.newChannelSource(128).setInput(Channels.newChannel(new ByteArrayInputStream(bytes)))
+        };
+
+        DelimitedReader<TestAllTypes> reader = DelimitedReader.newInstance(TestAllTypes.getFactory(), 2);
+        RepeatedByte raw = RepeatedByte.newEmptyInstance();
+        for (ProtoSource source : sources) {
+            reader.setInput(source);
+            TestAllTypes previous = null;
+            for (int i = 0; i < numMessages; i++) {
+                assertTrue(reader.next());
+                assertEquals(msg.getSerializedSize(), reader.getRecordLength());
+                if (i % 3 == 0) {
+                    TestAllTypes actual = reader.read();
+                    assertNotSame(previous, actual);
+                    assertEquals(msg.setOptionalInt32(i), actual);
+                    previous = actual;
+                } else if (i % 3 == 1) {
+                    reader.readBytes(raw);
+                    assertEquals(msg.setOptionalInt32(i), TestAllTypes.parseFrom(raw.toArray()));
+                } // else skip implicitly
+            }
+            assertFalse(reader.next());
+        }
+
+        // Truncated trailing record
+        for (int truncated = 1; truncated < msg.getSerializedSize(); truncated += 97) {
+            reader.setInput(ProtoSource.newInstance(bytes, 0, bytes.length - truncated));
+            for (int i = 0; i < numMessages - 1; i++) {
+                assertTrue(reader.next());
+                reader.read();
+            }
+            try {
+                reader.next();
+                reader.read();
+                fail("read truncated record");
+            } catch (InvalidProtocolBufferException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void testDelimitedReaderRecordRanges() throws IOException {
+        TestAllTypes msg = TestAllTypes.parseFrom(CompatibilityTest.getCombinedMessage());
+        final int numMessages = 10;
+        final int offset = 3;
+        RepeatedByte bytes = RepeatedByte.newEmptyInstance();
+        ProtoSink sink = ProtoSink.newInstance(bytes);
+        sink.writeRawBytes(new byte[offset]);
+        for (int i = 0; i < numMessages; i++) {
+            msg.setOptionalInt32(i).writeDelimitedTo(sink);
+        }
+        byte[] array = bytes.toArray();
+        int length = array.length - offset;
+
+        ProtoSource[] sources = new ProtoSource[]{
+                ProtoSource.newInstance(array, offset, length),
+                ProtoSource.newInstance(ByteBuffer.wrap(array, offset, length).slice()),
+                ProtoSource.newStreamSource(128).setInput(new ByteArrayInputStream(array, offset, length))
+        };
+        DelimitedReader<TestAllTypes> reader = DelimitedReader.newInstance(TestAllTypes.getFactory());
+        RepeatedByte forwarded = RepeatedByte.newEmptyInstance();
+        for (ProtoSource source : sources) {
+            reader.setInput(source);
+            for (int i = 0; i < numMessages; i++) {
+                assertTrue(reader.next());
+                msg.setOptionalInt32(i);
+
+                // Raw byte range without copying
+                int start = offset + reader.getRecordOffset();
+                assertEquals(msg, TestAllTypes.parseFrom(ProtoSource.newInstance(array, start, reader.getRecordLength())));
+
+                forwarded.clear();
+                reader.forwardTo(ProtoSink.newInstance(forwarded));
+                assertEquals(msg, TestAllTypes.parseFrom(forwarded.toArray()));
+            }
+            assertFalse(reader.next());
+        }
+
+        // Truncated records don't get forwarded
+        reader.setInput(ProtoSource.newInstance(array, offset, length - 1));
+        for (int i = 0; i < numMessages - 1; i++) {
+            assertTrue(reader.next());
+        }
+        assertTrue(reader.next());
+        forwarded.clear();
+        try {
+            reader.forwardTo(ProtoSink.newInstance(forwarded));
+            fail("forwarded truncated record");
+        } catch (InvalidProtocolBufferException expected) {
+        }
+        assertEquals(0, forwarded.length());
+    }
+
+}
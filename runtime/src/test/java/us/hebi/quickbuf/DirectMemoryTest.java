@@ -0,0 +1,92 @@
+/*-
+ * #%L
+ * quickbuf-runtime
+ * %%
+ * Copyright (C) 2019 HEBI Robotics
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package us.hebi.quickbuf;
+
+import org.junit.Test;
+import protos.test.quickbuf.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class DirectMemoryTest {
+
+    @Test
+    public void testDirectMemorySourceAndSink() throws IOException {
+        TestAllTypes msg = TestAllTypes.parseFrom(CompatibilityTest.getCombinedMessage());
+        final int numMessages = 10;
+        final long[] positions = new long[numMessages];
+        final int messageSize = ProtoSink.computeUInt32SizeNoTag(msg.getSerializedSize()) + msg.getSerializedSize();
+        ByteBuffer memory = ByteBuffer.allocateDirect(numMessages * messageSize);
+        long address = UnsafeAccess.BufferAccess.address(memory);
+
+        // Small window so that messages span multiple windows and the tail
+        ProtoSink sink = ProtoSink.newDirectMemorySink(64).setOutput(address, memory.capacity());
+        for (int i = 0; i < numMessages; i++) {
+            positions[i] = sink.getPosition();
+            msg.setOptionalInt32(i).writeDelimitedTo(sink);
+        }
+        sink.flush();
+        assertEquals(memory.capacity(), sink.getPosition());
+
+        ProtoSource source = ProtoSource.newDirectMemorySource(64).setInput(address, memory.capacity());
+        TestAllTypes actual = TestAllTypes.newInstance();
+        for (int i = 0; i < numMessages; i++) {
+            assertEquals(positions[i], source.getPosition());
+            actual.clearQuick().mergeDelimitedFrom(source);
+            assertEquals(msg.setOptionalInt32(i), actual);
+        }
+        assertTrue(source.isAtEnd());
+        assertEquals(memory.capacity(), source.getPosition());
+
+        // Random access
+        for (int i = numMessages - 1; i >= 0; i--) {
+            actual.clearQuick().mergeDelimitedFrom(source.setPosition(positions[i]));
+            assertEquals(msg.setOptionalInt32(i), actual);
+        }
+
+        // Skip over messages
+        source.setPosition(0);
+        for (int i = 0; i < numMessages - 1; i++) {
+            source.skipRawBytes(source.readRawVarint32());
+        }
+        assertEquals(positions[numMessages - 1], source.getPosition());
+        try {
+            source.skipRawBytes(messageSize + 1);
+            fail("skipped beyond the end of the memory");
+        } catch (InvalidProtocolBufferException expected) {
+        }
+
+        // Writing beyond the end
+        sink.setOutput(address, memory.capacity() - 1);
+        try {
+            for (int i = 0; i < numMessages; i++) {
+                msg.writeDelimitedTo(sink);
+            }
+            sink.flush();
+            fail("wrote beyond the end of the memory");
+        } catch (ProtoSink.OutOfSpaceException expected) {
+        }
+    }
+
+}
@@ -0,0 +1,163 @@
+/*-
+ * #%L
+ * quickbuf-runtime
+ * %%
+ * Copyright (C) 2019 HEBI Robotics
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package us.hebi.quickbuf;
+
+import org.junit.Test;
+import protos.test.quickbuf.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class FieldPatcherTest {
+
+    @Test
+    public void testFieldPatcher() throws IOException {
+        TestAllTypes msg = TestAllTypes.parseFrom(CompatibilityTest.getCombinedMessage());
+        byte[] bytes = msg.toByteArray();
+        FieldPatcher patcher = FieldPatcher.newInstance().setInput(bytes);
+        assertTrue(patcher.setFixed32(TestAllTypes.FieldPaths.OPTIONAL_FIXED32, 17));
+        assertTrue(patcher.setFixed64(TestAllTypes.FieldPaths.OPTIONAL_SFIXED64, -18));
+        assertTrue(patcher.setFloat(TestAllTypes.FieldPaths.OPTIONAL_FLOAT, 19.5f));
+        assertTrue(patcher.setDouble(TestAllTypes.FieldPaths.OPTIONAL_DOUBLE, 20.5));
+        msg.setOptionalFixed32(17).setOptionalSfixed64(-18).setOptionalFloat(19.5f).setOptionalDouble(20.5);
+        assertEquals(msg, TestAllTypes.parseFrom(bytes));
+
+        // Varints and mismatching widths get rejected
+        try {
+            patcher.setFixed32(TestAllTypes.FieldPaths.OPTIONAL_INT32, 1);
+            fail("varint field should not be patchable");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            patcher.setFixed32(TestAllTypes.FieldPaths.OPTIONAL_DOUBLE, 1);
+            fail("64 bit field should not be patchable with 32 bits");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertFalse(patcher.setInput(TestAllTypes.newInstance().toByteArray())
+                .setFixed32(TestAllTypes.FieldPaths.OPTIONAL_FIXED32, 1));
+
+        // Nested fields in direct and heap buffers
+        RepeatedByte inner = RepeatedByte.newEmptyInstance().copyFrom(bytes);
+        byte[] outer = new byte[bytes.length + 10];
+        ProtoSink sink = ProtoSink.newInstance(outer);
+        sink.writeBytes(5, inner);
+        int length = sink.getTotalBytesWritten();
+        FieldPath path = FieldPath.of(5).append(TestAllTypes.FieldPaths.OPTIONAL_FIXED64);
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(length + 3);
+        direct.position(3);
+        direct.put(outer, 0, length).position(3);
+        assertEquals(-1, patcher.setInput(direct).findOffset(FieldPath.of(6)));
+        assertEquals(patcher.setInput(outer, 0, length).findOffset(path), patcher.setInput(direct).findOffset(path));
+        assertTrue(patcher.setInput(direct).setFixed64(path, 21));
+        assertTrue(patcher.setInput(ByteBuffer.wrap(outer, 0, length)).setFixed64(path, 21));
+
+        byte[] directBytes = new byte[length];
+        direct.get(directBytes);
+        assertArrayEquals(Arrays.copyOf(outer, length), directBytes);
+        ProtoSource source = ProtoSource.newInstance(outer, 0, length);
+        assertEquals(42, source.readTag());
+        source.readBytes(inner);
+        assertEquals(msg.setOptionalFixed64(21), TestAllTypes.parseFrom(inner.toArray()));
+    }
+
+    @Test
+    public void testFieldPatcherConcatenatedMessages() throws IOException {
+        TestAllTypes a = TestAllTypes.newInstance().setOptionalFixed64(1).setOptionalFloat(2).setOptionalInt32(3);
+        TestAllTypes b = TestAllTypes.newInstance().setOptionalFixed64(4).setOptionalDouble(5);
+        byte[] bytesA = a.toByteArray();
+        byte[] bytesB = b.toByteArray();
+        byte[] bytes = Arrays.copyOf(bytesA, bytesA.length + bytesB.length);
+        System.arraycopy(bytesB, 0, bytes, bytesA.length, bytesB.length);
+
+        // Parsers see the last occurrence
+        FieldPatcher patcher = FieldPatcher.newInstance().setInput(bytes);
+        assertTrue(patcher.findOffset(TestAllTypes.FieldPaths.OPTIONAL_FIXED64) > bytesA.length);
+        assertTrue(patcher.findOffset(TestAllTypes.FieldPaths.OPTIONAL_FLOAT) < bytesA.length);
+
+        assertTrue(patcher.setFixed64(TestAllTypes.FieldPaths.OPTIONAL_FIXED64, 6));
+        assertTrue(patcher.setFloat(TestAllTypes.FieldPaths.OPTIONAL_FLOAT, 7));
+        assertTrue(patcher.setDouble(TestAllTypes.FieldPaths.OPTIONAL_DOUBLE, 8));
+        TestAllTypes expected = a.clone().mergeFrom(b).setOptionalFixed64(6).setOptionalFloat(7).setOptionalDouble(8);
+        assertEquals(expected, TestAllTypes.parseFrom(bytes));
+
+        // Every occurrence gets patched, including those inside of nested messages that get merged
+        assertEquals(6, TestAllTypes.parseFrom(Arrays.copyOf(bytes, bytesA.length)).getOptionalFixed64());
+        byte[] outer = new byte[2 * (bytes.length + 10)];
+        ProtoSink sink = ProtoSink.newInstance(outer);
+        sink.writeBytes(5, RepeatedByte.newEmptyInstance().copyFrom(bytesA));
+        sink.writeBytes(5, RepeatedByte.newEmptyInstance().copyFrom(bytesB));
+        int length = sink.getTotalBytesWritten();
+        FieldPath path = FieldPath.of(5).append(TestAllTypes.FieldPaths.OPTIONAL_FIXED64);
+        assertTrue(patcher.setInput(outer, 0, length).setFixed64(path, 9));
+
+        ProtoSource source = ProtoSource.newInstance(outer, 0, length);
+        TestAllTypes merged = TestAllTypes.newInstance();
+        while (!source.isAtEnd()) {
+            assertEquals(42, source.readTag());
+            TestAllTypes nested = TestAllTypes.newInstance();
+            source.readMessage(nested);
+            assertEquals(9, nested.getOptionalFixed64());
+            merged.mergeFrom(nested);
+        }
+        assertEquals(a.clone().mergeFrom(b).setOptionalFixed64(9), merged);
+    }
+
+    @Test
+    public void testFieldPatcherTruncatedValues() throws IOException {
+        FieldPatcher patcher = FieldPatcher.newInstance();
+
+        // Tag of a fixed64 field without the value, followed by bytes outside of the input
+        byte[] bytes = new byte[16];
+        bytes[0] = 0x09;
+        for (ByteBuffer buffer : new ByteBuffer[]{ByteBuffer.wrap(bytes, 0, 1), ByteBuffer.allocateDirect(1).put(0, (byte) 0x09)}) {
+            try {
+                patcher.setInput(buffer).setFixed64(FieldPath.of(1), -1L);
+                fail("patched a truncated value");
+            } catch (InvalidProtocolBufferException expected) {
+            }
+            try {
+                patcher.setInput(buffer).findOffset(FieldPath.of(1));
+                fail("found a truncated value");
+            } catch (InvalidProtocolBufferException expected) {
+            }
+        }
+        assertArrayEquals(new byte[15], Arrays.copyOfRange(bytes, 1, 16));
+
+        // Nested fixed32 value that extends beyond the enclosing message
+        byte[] nested = new byte[]{
+                0x2A, 0x03, // field 5, length 3
+                0x0D, 0x01, 0x02, // field 1 (fixed32) with only two bytes of the value
+                0x10, 0x03, 0x04, 0x05 // field 2 (varint) of the outer message
+        };
+        byte[] original = nested.clone();
+        try {
+            patcher.setInput(nested).setFixed32(FieldPath.of(5, 1), -1);
+            fail("patched beyond the nested message");
+        } catch (InvalidProtocolBufferException expected) {
+        }
+        assertArrayEquals(original, nested);
+    }
+
+}
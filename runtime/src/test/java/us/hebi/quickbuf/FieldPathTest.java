@@ -0,0 +1,109 @@
+/*-
+ * #%L
+ * quickbuf-runtime
+ * %%
+ * Copyright (C) 2019 HEBI Robotics
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package us.hebi.quickbuf;
+
+import org.junit.Test;
+import protos.test.quickbuf.*;
+import protos.test.quickbuf.LazyParsingTypes.LazyParsingMessage;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+import static us.hebi.quickbuf.ProtoUtil.Charsets.*;
+
+public class FieldPathTest {
+
+    @Test
+    public void testSeekField() throws IOException {
+        TestAllTypes msg = TestAllTypes.parseFrom(CompatibilityTest.getCombinedMessage());
+        msg.getMutableOptionalNestedMessage().setBb(7);
+        ProtoSource source = ProtoSource.newInstance(msg.toByteArray());
+
+        assertNotEquals(0, source.seekField(TestAllTypes.FieldPaths.OPTIONAL_INT64));
+        assertEquals(msg.getOptionalInt64(), source.readInt64());
+        assertEquals(-1, source.getBytesUntilLimit());
+
+        source.setInput(msg.toByteArray());
+        FieldPath path = TestAllTypes.FieldPaths.OPTIONAL_NESTED_MESSAGE.append(TestAllTypes.NestedMessage.FieldPaths.BB);
+        assertEquals(path, FieldPath.of(18, 1));
+        assertNotEquals(0, source.seekField(path));
+        assertEquals(7, source.readInt32());
+        assertEquals(-1, source.getBytesUntilLimit());
+
+        source.setInput(msg.toByteArray());
+        assertNotEquals(0, source.seekField(TestAllTypes.FieldPaths.OPTIONALGROUP.append(TestAllTypes.OptionalGroup.FieldPaths.A)));
+        assertEquals(msg.getOptionalGroup().getA(), source.readInt32());
+
+        source.setInput(msg.toByteArray());
+        assertNotEquals(0, source.seekField(TestAllTypes.FieldPaths.OPTIONAL_STRING));
+        int length = source.readLength();
+        int offset = source.getTotalBytesRead();
+        assertEquals(msg.getOptionalString(), new String(msg.toByteArray(), offset, length, UTF_8));
+
+        // Missing fields
+        source.setInput(msg.toByteArray());
+        assertEquals(0, source.seekField(FieldPath.of(18, 2)));
+        assertTrue(source.isAtEnd());
+        source.setInput(msg.toByteArray());
+        assertEquals(0, source.seekField(FieldPath.of(1000)));
+
+        // Repeated messages get searched until the field is found
+        LazyParsingMessage nested = LazyParsingMessage.newInstance();
+        nested.getMutableRepeatedMessage().next().setId(1);
+        nested.getMutableRepeatedMessage().next().setName("second");
+        source.setInput(nested.toByteArray());
+        assertNotEquals(0, source.seekField(FieldPath.of(8, 2)));
+        Utf8String value = Utf8String.newEmptyInstance();
+        source.readString(value);
+        assertEquals("second", value.getString());
+    }
+
+    @Test
+    public void testSeekFieldDuplicates() throws IOException {
+        TestAllTypes a = TestAllTypes.newInstance().setOptionalInt64(1);
+        a.getMutableOptionalNestedMessage().setBb(2);
+        TestAllTypes b = TestAllTypes.newInstance().setOptionalInt64(3);
+        b.getMutableOptionalNestedMessage();
+        byte[] bytesA = a.toByteArray();
+        byte[] bytesB = b.toByteArray();
+        byte[] bytes = Arrays.copyOf(bytesA, bytesA.length + bytesB.length);
+        System.arraycopy(bytesB, 0, bytes, bytesA.length, bytesB.length);
+        TestAllTypes merged = TestAllTypes.parseFrom(bytes);
+        assertEquals(3, merged.getOptionalInt64());
+        assertEquals(2, merged.getOptionalNestedMessage().getBb());
+
+        // The first occurrence gets returned, which differs from mergeFrom for singular fields
+        ProtoSource source = ProtoSource.newInstance(bytes);
+        assertNotEquals(0, source.seekField(TestAllTypes.FieldPaths.OPTIONAL_INT64));
+        assertEquals(1, source.readInt64());
+        assertTrue(source.getTotalBytesRead() < bytesA.length);
+
+        // Nested fields get found in the first nested message that contains them
+        source.setInput(bytes);
+        FieldPath path = TestAllTypes.FieldPaths.OPTIONAL_NESTED_MESSAGE.append(TestAllTypes.NestedMessage.FieldPaths.BB);
+        assertNotEquals(0, source.seekField(path));
+        assertEquals(2, source.readInt32());
+        source.setInput(bytes, bytesA.length, bytesB.length);
+        assertEquals(0, source.seekField(path));
+    }
+
+}
@@ -0,0 +1,104 @@
+/*-
+ * #%L
+ * quickbuf-runtime
+ * %%
+ * Copyright (C) 2019 HEBI Robotics
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package us.hebi.quickbuf;
+
+import org.junit.Test;
+import protos.test.quickbuf.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class GatheringSinkTest {
+
+    @Test
+    public void testGatheringSink() throws IOException {
+        TestAllTypes msg = TestAllTypes.parseFrom(CompatibilityTest.getCombinedMessage());
+        byte[] payload = new byte[3000];
+        new Random(0).nextBytes(payload);
+        msg.getMutableOptionalBytes().copyFrom(payload);
+        msg.setOptionalString(new String(new char[2000]).replace('\0', 'x'));
+        msg.getMutableOptionalNestedMessage().setBb(7);
+
+        GatheringSink sink = ProtoSink.newGatheringSink(64, 32);
+        for (int i = 0; i < 3; i++) {
+            msg.setOptionalInt32(i).writeDelimitedTo(sink);
+        }
+        int expectedSize = 3 * (msg.getSerializedSize() + ProtoSink.computeUInt32SizeNoTag(msg.getSerializedSize()));
+        assertEquals(expectedSize, sink.getTotalBytesWritten());
+
+        // Payload is referenced rather than copied, but can't be modified through the buffers
+        byte[] data = toByteArray(sink.getBuffers());
+        for (ByteBuffer buffer : sink.getBuffers()) {
+            assertTrue(buffer.isReadOnly());
+        }
+        byte[] referenced = msg.getOptionalBytes().array();
+        referenced[0]++;
+        assertFalse(Arrays.equals(data, toByteArray(sink.getBuffers())));
+        referenced[0]--;
+        assertArrayEquals(data, toByteArray(sink.getBuffers()));
+
+        ProtoSource source = ProtoSource.newInstance(data);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(msg.setOptionalInt32(i), TestAllTypes.newInstance().mergeDelimitedFrom(source));
+        }
+        assertTrue(source.isAtEnd());
+
+        // Vectored write to a file
+        File file = File.createTempFile("quickbuf", ".bin");
+        file.deleteOnExit();
+        RandomAccessFile output = new RandomAccessFile(file, "rw");
+        try {
+            assertEquals(expectedSize, sink.writeTo(output.getChannel()));
+            assertEquals(expectedSize, output.length());
+        } finally {
+            output.close();
+        }
+
+        // Chunks get reused after a reset
+        sink.reset();
+        assertEquals(0, sink.getTotalBytesWritten());
+        assertEquals(0, sink.getBuffers().length);
+        msg.writeTo(sink);
+        int size = 0;
+        for (ByteBuffer buffer : sink.getBuffers()) {
+            size += buffer.remaining();
+        }
+        assertEquals(msg.getSerializedSize(), size);
+    }
+
+    private static byte[] toByteArray(ByteBuffer[] buffers) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (ByteBuffer buffer : buffers) {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            out.write(bytes);
+        }
+        return out.toByteArray();
+    }
+
+}
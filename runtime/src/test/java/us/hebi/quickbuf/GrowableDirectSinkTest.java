@@ -0,0 +1,76 @@
+/*-
+ * #%L
+ * quickbuf-runtime
+ * %%
+ * Copyright (C) 2019 HEBI Robotics
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package us.hebi.quickbuf;
+
+import org.junit.Test;
+import protos.test.quickbuf.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class GrowableDirectSinkTest {
+
+    @Test
+    public void testGrowableDirectSink() throws IOException {
+        TestAllTypes msg = TestAllTypes.parseFrom(CompatibilityTest.getCombinedMessage());
+        byte[] expected = msg.toByteArray();
+        GrowableDirectSink sink = GrowableDirectSink.newInstance(16);
+        try {
+            assertEquals(0, sink.getAddress());
+            msg.writeTo(sink);
+            assertEquals(expected.length, sink.getTotalBytesWritten());
+            assertTrue(sink.capacity() >= expected.length);
+
+            ByteBuffer buffer = ByteBuffer.allocate(expected.length);
+            sink.copyTo(buffer);
+            assertArrayEquals(expected, buffer.array());
+
+            ProtoSource source = ProtoSource.newDirectSource().setInput(null, sink.getAddress(), sink.getTotalBytesWritten());
+            assertEquals(msg, TestAllTypes.parseFrom(source));
+
+            // Large strings and bytes grow the memory in a single step
+            sink.clear();
+            char[] chars = new char[10000];
+            Arrays.fill(chars, '\u2603');
+            msg.setOptionalString(new String(chars));
+            msg.getMutableOptionalBytes().setLength(20000);
+            msg.writeTo(sink);
+            buffer = ByteBuffer.allocateDirect(sink.getTotalBytesWritten());
+            sink.copyTo(buffer);
+            buffer.flip();
+            assertEquals(msg, TestAllTypes.parseFrom(ProtoSource.newInstance(buffer)));
+
+            // Memory gets allocated again after being released
+            sink.release();
+            assertEquals(0, sink.getAddress());
+            assertEquals(0, sink.capacity());
+            sink.writeRawByte((byte) 1);
+            assertNotEquals(0, sink.getAddress());
+            assertEquals(1, sink.getTotalBytesWritten());
+        } finally {
+            sink.release();
+        }
+    }
+
+}
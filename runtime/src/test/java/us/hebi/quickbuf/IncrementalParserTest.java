@@ -0,0 +1,95 @@
+/*-
+ * #%L
+ * quickbuf-runtime
+ * %%
+ * Copyright (C) 2019 HEBI Robotics
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package us.hebi.quickbuf;
+
+import org.junit.Test;
+import protos.test.quickbuf.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class IncrementalParserTest {
+
+    @Test
+    public void testIncrementalParser() throws IOException {
+        final TestAllTypes msg = TestAllTypes.parseFrom(CompatibilityTest.getCombinedMessage());
+        final int numMessages = 10;
+        RepeatedByte bytes = RepeatedByte.newEmptyInstance();
+        ProtoSink sink = ProtoSink.newInstance(bytes);
+        for (int i = 0; i < numMessages; i++) {
+            msg.setOptionalInt32(i).writeDelimitedTo(sink);
+        }
+        TestAllTypes.newInstance().writeDelimitedTo(sink);
+
+        final int[] count = new int[1];
+        IncrementalParser<TestAllTypes> parser = IncrementalParser.newInstance(TestAllTypes.getFactory(),
+                new IncrementalParser.Listener<TestAllTypes>() {
+                    @Override
+                    public void onMessage(TestAllTypes message) {
+                        if (count[0] < numMessages) {
+                            assertEquals(msg.setOptionalInt32(count[0]), message);
+                        } else {
+                            assertEquals(TestAllTypes.newInstance(), message);
+                        }
+                        count[0]++;
+                    }
+                });
+
+        // Arbitrary chunk sizes including splits within tags, lengths, and groups
+        for (int chunkSize : new int[]{1, 2, 3, 7, 13, 64, 1000, bytes.length()}) {
+            count[0] = 0;
+            for (int offset = 0; offset < bytes.length(); offset += chunkSize) {
+                parser.feed(bytes.array(), offset, Math.min(chunkSize, bytes.length() - offset));
+            }
+            assertEquals(numMessages + 1, count[0]);
+            assertTrue(parser.isAtMessageBoundary());
+        }
+
+        // Direct buffers
+        count[0] = 0;
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length());
+        direct.put(bytes.array(), 0, bytes.length()).flip();
+        parser.feed(direct);
+        assertFalse(direct.hasRemaining());
+        assertEquals(numMessages + 1, count[0]);
+
+        // Partial messages get discarded on reset
+        count[0] = 0;
+        parser.feed(bytes.array(), 0, 100);
+        assertFalse(parser.isAtMessageBoundary());
+        parser.reset().feed(bytes.array(), 0, bytes.length());
+        assertEquals(numMessages + 1, count[0]);
+
+        // Fields must not exceed the message
+        RepeatedByte truncated = RepeatedByte.newEmptyInstance();
+        sink = ProtoSink.newInstance(truncated);
+        sink.writeUInt32NoTag(3);
+        sink.writeInt64(1, Long.MIN_VALUE);
+        try {
+            parser.reset().feed(truncated.toArray());
+            fail("field exceeds message");
+        } catch (InvalidProtocolBufferException expected) {
+        }
+    }
+
+}
@@ -0,0 +1,266 @@
+/*-
+ * #%L
+ * quickbuf-runtime
+ * %%
+ * Copyright (C) 2019 HEBI Robotics
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package us.hebi.quickbuf;
+
+import org.junit.Test;
+import protos.test.quickbuf.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MappedFileTest {
+
+    @Test
+    public void testMappedFileSource() throws IOException {
+        TestAllTypes msg = TestAllTypes.parseFrom(CompatibilityTest.getCombinedMessage());
+        final int numMessages = 10;
+        final long[] positions = new long[numMessages];
+        File file = File.createTempFile("quickbuf", ".bin");
+        file.deleteOnExit();
+
+        RandomAccessFile output = new RandomAccessFile(file, "rw");
+        try {
+            ProtoSink sink = ProtoSink.newInstance(output.getChannel());
+            for (int i = 0; i < numMessages; i++) {
+                positions[i] = sink.getTotalBytesWritten();
+                msg.setOptionalInt32(i).writeDelimitedTo(sink);
+            }
+            sink.flush();
+        } finally {
+            output.close();
+        }
+
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            // Small segments so that messages cross segment boundaries
+            ProtoSource source = ProtoSource.newMappedFileSource(64).setInput(input.getChannel());
+            TestAllTypes actual = TestAllTypes.newInstance();
+            for (int i = 0; i < numMessages; i++) {
+                assertEquals(positions[i], source.getPosition());
+                actual.clearQuick().mergeDelimitedFrom(source);
+                assertEquals(msg.setOptionalInt32(i), actual);
+            }
+            assertTrue(source.isAtEnd());
+            assertEquals(input.length(), source.getPosition());
+
+            // Random access
+            for (int i = numMessages - 1; i >= 0; i--) {
+                actual.clearQuick().mergeDelimitedFrom(source.setPosition(positions[i]));
+                assertEquals(msg.setOptionalInt32(i), actual);
+            }
+
+            // Skip over messages
+            source.setPosition(0);
+            for (int i = 0; i < numMessages - 1; i++) {
+                source.skipRawBytes(source.readRawVarint32());
+            }
+            assertEquals(positions[numMessages - 1], source.getPosition());
+
+            // Truncated data
+            try {
+                source.skipRawBytes((int) (input.length() - positions[numMessages - 1]) + 1);
+                fail("skipped beyond the end of the file");
+            } catch (InvalidProtocolBufferException expected) {
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+    @Test
+    public void testMappedFileSourceFixedWidthAcrossWindows() throws IOException {
+        final int numValues = 2000;
+        File file = File.createTempFile("quickbuf", ".bin");
+        file.deleteOnExit();
+
+        // Odd offset so that values straddle the end of the mapped windows
+        RandomAccessFile output = new RandomAccessFile(file, "rw");
+        try {
+            ProtoSink sink = ProtoSink.newInstance(output.getChannel());
+            sink.writeRawByte((byte) 1);
+            for (int i = 0; i < numValues; i++) {
+                sink.writeRawLittleEndian64(i * 0x0101010101010101L);
+                sink.writeRawLittleEndian32(i);
+                sink.writeDoubleNoTag(i / 3d);
+                sink.writeFloatNoTag(i / 7f);
+                sink.writeRawLittleEndian16((short) i);
+            }
+            sink.flush();
+        } finally {
+            output.close();
+        }
+
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            ProtoSource source = ProtoSource.newMappedFileSource(64).setInput(input.getChannel());
+            assertEquals(1, source.readRawByte());
+            for (int i = 0; i < numValues; i++) {
+                assertEquals(i * 0x0101010101010101L, source.readRawLittleEndian64());
+                assertEquals(i, source.readRawLittleEndian32());
+                assertEquals(i / 3d, source.readDouble(), 0);
+                assertEquals(i / 7f, source.readFloat(), 0);
+                assertEquals((short) i, source.readRawLittleEndian16());
+            }
+            assertTrue(source.isAtEnd());
+        } finally {
+            input.close();
+        }
+    }
+
+    @Test
+    public void testMappedFileSink() throws IOException {
+        TestAllTypes msg = TestAllTypes.parseFrom(CompatibilityTest.getCombinedMessage());
+        final int numMessages = 10;
+        final long[] positions = new long[numMessages];
+        File file = File.createTempFile("quickbuf", ".bin");
+        file.deleteOnExit();
+
+        RandomAccessFile output = new RandomAccessFile(file, "rw");
+        try {
+            // Small window so that messages span multiple windows
+            ProtoSink sink = ProtoSink.newMappedFileSink(64, 0).setOutput(output.getChannel());
+            for (int i = 0; i < numMessages; i++) {
+                positions[i] = sink.getPosition();
+                msg.setOptionalInt32(i).writeDelimitedTo(sink);
+                sink.flush();
+            }
+            assertEquals(sink.getTotalBytesWritten(), sink.getPosition());
+            sink.clear();
+            final long length = output.length();
+            assertEquals(positions[numMessages - 1] + msg.getSerializedSize()
+                    + ProtoSink.computeUInt32SizeNoTag(msg.getSerializedSize()), length);
+
+            // Appends to the existing file
+            sink.setOutput(output.getChannel());
+            assertEquals(length, sink.getPosition());
+            sink.writeRawByte((byte) 0);
+            sink.clear();
+            assertEquals(length + 1, output.length());
+        } finally {
+            output.close();
+        }
+
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            ProtoSource source = ProtoSource.newMappedFileSource().setInput(input.getChannel());
+            TestAllTypes actual = TestAllTypes.newInstance();
+            for (int i = 0; i < numMessages; i++) {
+                assertEquals(positions[i], source.getPosition());
+                actual.clearQuick().mergeDelimitedFrom(source);
+                assertEquals(msg.setOptionalInt32(i), actual);
+            }
+            assertEquals(0, source.readRawByte());
+            assertTrue(source.isAtEnd());
+        } finally {
+            input.close();
+        }
+    }
+
+    @Test
+    public void testMappedFileSinkFixedWidthAcrossWindows() throws IOException {
+        final int numValues = 200;
+        File file = File.createTempFile("quickbuf", ".bin");
+        file.deleteOnExit();
+
+        // Odd offset so that values straddle the end of the mapped windows
+        RandomAccessFile output = new RandomAccessFile(file, "rw");
+        try {
+            ProtoSink sink = ProtoSink.newMappedFileSink(64, 0).setOutput(output.getChannel());
+            sink.writeRawByte((byte) 1);
+            for (int i = 0; i < numValues; i++) {
+                sink.writeRawLittleEndian64(i * 0x0101010101010101L);
+                sink.writeRawLittleEndian32(i);
+                sink.writeDoubleNoTag(i / 3d);
+                sink.writeFloatNoTag(i / 7f);
+                sink.writeRawLittleEndian16((short) i);
+            }
+            sink.clear();
+        } finally {
+            output.close();
+        }
+
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            byte[] bytes = new byte[(int) input.length()];
+            input.readFully(bytes);
+            ProtoSource source = ProtoSource.newInstance(bytes);
+            assertEquals(1, source.readRawByte());
+            for (int i = 0; i < numValues; i++) {
+                assertEquals(i * 0x0101010101010101L, source.readRawLittleEndian64());
+                assertEquals(i, source.readRawLittleEndian32());
+                assertEquals(i / 3d, source.readDouble(), 0);
+                assertEquals(i / 7f, source.readFloat(), 0);
+                assertEquals((short) i, source.readRawLittleEndian16());
+            }
+            assertTrue(source.isAtEnd());
+        } finally {
+            input.close();
+        }
+    }
+
+    @Test
+    public void testPackedFixedAcrossMappedSegments() throws IOException {
+        Random rnd = new Random(0);
+        RepeatedPackables.Packed msg = RepeatedPackables.Packed.newInstance();
+        for (int i = 0; i < 2000; i++) {
+            msg.getMutableFixed32S().add(rnd.nextInt());
+            msg.getMutableFixed64S().add(rnd.nextLong());
+            msg.getMutableFloats().add(rnd.nextFloat());
+            msg.getMutableDoubles().add(rnd.nextDouble());
+        }
+        File file = File.createTempFile("quickbuf", ".bin");
+        file.deleteOnExit();
+
+        // Bulk writes that need to map new windows
+        RandomAccessFile output = new RandomAccessFile(file, "rw");
+        try {
+            ProtoSink sink = ProtoSink.newMappedFileSink(100, 0).setOutput(output.getChannel());
+            msg.writeTo(sink);
+            sink.clear();
+            byte[] actual = new byte[(int) output.length()];
+            output.seek(0);
+            output.readFully(actual);
+            assertArrayEquals(msg.toByteArray(), actual);
+        } finally {
+            output.close();
+        }
+
+        // Windows that start in the middle of a segment are shorter than the
+        // buffer capacity, so the packed fields need to be read in smaller chunks
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            for (int segmentSize : new int[]{7, 64, 1000, 4096, 10000}) {
+                ProtoSource source = ProtoSource.newMappedFileSource(segmentSize).setInput(input.getChannel());
+                RepeatedPackables.Packed actual = RepeatedPackables.Packed.newInstance();
+                actual.mergeFrom(source);
+                assertEquals("segment size " + segmentSize, msg, actual);
+                assertTrue(source.isAtEnd());
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+}
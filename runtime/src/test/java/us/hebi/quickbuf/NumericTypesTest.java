@@ -25,6 +25,7 @@ import org.junit.Test;
 import protos.test.quickbuf.TestAllTypes;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Random;
 
 import static org.junit.Assert.*;
@@ -292,6 +293,59 @@ public class NumericTypesTest {
                 Double.doubleToLongBits(encodeAndDecode(msg.setOptionalDouble(value)).getOptionalDouble()));
     }
 
+    @Test
+    public void testVarintWithPadding() throws IOException {
+        // Varints that are followed by enough bytes to be decoded as a single word
+        ProtoSource directSource = ProtoSource.newDirectSource();
+        for (int i = 0; i < 64; i++) {
+            for (long value : new long[]{1L << i, ~0L << i, -(1L << i), (1L << i) - 1}) {
+                for (int padding = 0; padding <= 8; padding++) {
+                    bytes.clear();
+                    sink.reset().writeRawVarint64(value);
+                    final int length = bytes.length();
+                    bytes.setLength(length + padding);
+                    Arrays.fill(bytes.array(), length, length + padding, (byte) 0x80);
+
+                    for (ProtoSource source : new ProtoSource[]{this.source, directSource}) {
+                        source.setInput(bytes);
+                        assertEquals(value, source.readRawVarint64());
+                        assertEquals(length, source.getTotalBytesRead());
+
+                        source.setInput(bytes);
+                        assertEqual((int) value, source.readRawVarint32());
+                        assertEquals(length, source.getTotalBytesRead());
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testVarintBeyondLimit() throws IOException {
+        bytes.clear();
+        sink.reset().writeRawVarint64(1L << 20);
+        bytes.addAll(new byte[8]);
+        for (ProtoSource source : new ProtoSource[]{this.source, ProtoSource.newDirectSource()}) {
+            source.setInput(bytes).pushLimit(2);
+            try {
+                source.readRawVarint32();
+                fail("read beyond the limit");
+            } catch (InvalidProtocolBufferException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void testVarintSize() {
+        assertEquals(1, ProtoSink.computeVarintSize(0));
+        for (int bits = 1; bits <= 64; bits++) {
+            final long min = 1L << (bits - 1);
+            final long max = -1L >>> (64 - bits);
+            assertEquals(ProtoSink.computeRawVarint64Size(min), ProtoSink.computeVarintSize(min));
+            assertEquals(ProtoSink.computeRawVarint64Size(max), ProtoSink.computeVarintSize(max));
+        }
+    }
+
     private static void assertEqual(int expected, int actual){
         if(expected != actual) {
             fail("Values are not equal:\n" +
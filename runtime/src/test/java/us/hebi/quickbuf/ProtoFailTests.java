@@ -28,6 +28,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -414,6 +415,13 @@ public class ProtoFailTests {
         } catch (InvalidProtocolBufferException ex) {
         }
 
+        try {
+            ByteArrayInputStream input = new ByteArrayInputStream(data, 0, data.length - 1);
+            msg.clear().mergeFrom(ProtoSource.newChannelSource().setInput(Channels.newChannel(input)));
+            fail("ChannelSource");
+        } catch (InvalidProtocolBufferException ex) {
+        }
+
         try {
             msg.clear().mergeFrom(ProtoSource.newBufferSource().setInput(ByteBuffer.wrap(data, 0, data.length - 1)));
             fail("BufferSource");
@@ -25,6 +25,7 @@ import com.google.quickbuf.Value;
 import org.junit.Ignore;
 import org.junit.Test;
 import protos.test.quickbuf.*;
+import protos.test.quickbuf.LazyParsingTypes.LazyParsingMessage;
 import protos.test.quickbuf.LazyTypes.LazyMessage;
 import protos.test.quickbuf.TestAllTypes.NestedEnum;
 import protos.test.quickbuf.TestEnumsMessage.EnumAllowingAlias;
@@ -36,6 +37,8 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Random;
@@ -68,6 +71,408 @@ public class ProtoTests {
         assertEquals(TestAllTypes.parseFrom(bytes), actual);
     }
 
+    @Test
+    public void testPackedVarintBulkDecoding() throws IOException {
+        // Values with mixed sizes so that words contain multiple varints and some cross word boundaries
+        Random rnd = new Random(0);
+        RepeatedPackables.Packed msg = RepeatedPackables.Packed.newInstance();
+        for (int i = 0; i < 10000; i++) {
+            final long value = rnd.nextLong() >>> rnd.nextInt(64);
+            msg.getMutableInt32S().add((int) value);
+            msg.getMutableSint32S().add((int) value * (i % 2 == 0 ? 1 : -1));
+            msg.getMutableInt64S().add(value);
+            msg.getMutableSint64S().add(value * (i % 2 == 0 ? 1 : -1));
+            msg.getMutableEnums().addValue(1 + (i % 2));
+        }
+        msg.addAllInt32S(-1, Integer.MIN_VALUE, Integer.MAX_VALUE, 0);
+        msg.addAllInt64S(-1, Long.MIN_VALUE, Long.MAX_VALUE, 0);
+        byte[] bytes = msg.toByteArray();
+
+        RepeatedPackables.Packed actual = RepeatedPackables.Packed.newInstance();
+        assertEquals(msg, actual.mergeFrom(ProtoSource.newArraySource().setInput(bytes)));
+        assertEquals(msg, actual.clearQuick().mergeFrom(ProtoSource.newDirectSource().setInput(bytes)));
+        assertEquals(msg, actual.clearQuick().mergeFrom(ProtoSource.newInstance(new ByteArrayInputStream(bytes))));
+
+        // Appending to existing values
+        actual.mergeFrom(ProtoSource.newArraySource().setInput(bytes));
+        assertEquals(2 * msg.getInt32S().length(), actual.getInt32S().length());
+        assertEquals(msg.getSint64S().get(123), actual.getSint64S().get(msg.getSint64S().length() + 123));
+    }
+
+    @Test
+    public void testPackedVarintBulkEncoding() throws IOException {
+        Random rnd = new Random(0);
+        RepeatedPackables.Packed msg = RepeatedPackables.Packed.newInstance();
+        for (int i = 0; i < 10000; i++) {
+            final long value = rnd.nextLong() >>> rnd.nextInt(64);
+            msg.getMutableInt32S().add((int) value);
+            msg.getMutableUint32S().add((int) value);
+            msg.getMutableSint32S().add((int) value);
+            msg.getMutableInt64S().add(value);
+            msg.getMutableSint64S().add(-value);
+            msg.getMutableEnums().addValue(1 + (i % 2));
+        }
+
+        // Reference encoding that writes one value at a time
+        RepeatedByte expected = RepeatedByte.newEmptyInstance();
+        msg.writeTo(ProtoSink.newInstance(expected));
+        assertEquals(expected.length(), msg.getSerializedSize());
+
+        // Exactly sized outputs
+        byte[] actual = new byte[msg.getSerializedSize()];
+        msg.writeTo(ProtoSink.newArraySink().setOutput(actual));
+        assertArrayEquals(expected.toArray(), actual);
+
+        Arrays.fill(actual, (byte) 0);
+        msg.writeTo(ProtoSink.newDirectSink().setOutput(actual));
+        assertArrayEquals(expected.toArray(), actual);
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(actual.length);
+        msg.writeTo(ProtoSink.newDirectSink().setOutput(buffer));
+        buffer.get(actual);
+        assertArrayEquals(expected.toArray(), actual);
+
+        assertEquals(msg, RepeatedPackables.Packed.parseFrom(actual));
+    }
+
+    @Test
+    public void testPackedFixedBulkCopy() throws IOException {
+        Random rnd = new Random(0);
+        RepeatedPackables.Packed msg = RepeatedPackables.Packed.newInstance();
+        for (int i = 0; i < 1001; i++) {
+            msg.getMutableFixed32S().add(rnd.nextInt());
+            msg.getMutableFixed64S().add(rnd.nextLong());
+            msg.getMutableFloats().add(rnd.nextFloat());
+            msg.getMutableDoubles().add(rnd.nextDouble());
+        }
+        final byte[] expected = msg.toByteArray();
+
+        // Sinks with buffers that are smaller than the packed fields
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        msg.writeTo(ProtoSink.newInstance(baos));
+        assertArrayEquals(expected, baos.toByteArray());
+
+        baos.reset();
+        ProtoSink sink = ProtoSink.newBufferedStreamSink(100).setOutput(baos);
+        msg.writeTo(sink);
+        sink.flush();
+        assertArrayEquals(expected, baos.toByteArray());
+
+        baos.reset();
+        sink = ProtoSink.newChannelSink(100).setOutput(Channels.newChannel(baos));
+        msg.writeTo(sink);
+        sink.flush();
+        assertArrayEquals(expected, baos.toByteArray());
+
+        for (ByteBuffer buffer : new ByteBuffer[]{ByteBuffer.allocate(expected.length), ByteBuffer.allocateDirect(expected.length)}) {
+            msg.writeTo(ProtoSink.newBufferSink().setOutput(buffer));
+            assertFalse(buffer.hasRemaining());
+            byte[] actual = new byte[expected.length];
+            ((ByteBuffer) buffer.flip()).get(actual);
+            assertArrayEquals(expected, actual);
+        }
+
+        // Sources that need to copy in chunks or across fragments. Merging twice
+        // makes sure that the values get appended after existing values.
+        ByteBuffer[] fragments = new ByteBuffer[]{
+                ByteBuffer.wrap(expected, 0, 1001),
+                ByteBuffer.allocateDirect(expected.length - 1001).put(expected, 1001, expected.length - 1001)};
+        fragments[1].flip();
+        ProtoSource[] sources = new ProtoSource[]{
+                ProtoSource.newStreamSource(100).setInput(new ByteArrayInputStream(expected)),
+                ProtoSource.newChannelSource(100).setInput(Channels.newChannel(new ByteArrayInputStream(expected))),
+                ProtoSource.newBufferSource().setInput(ByteBuffer.wrap(expected)),
+                ProtoSource.newCompositeSource().setInput(fragments)
+        };
+        for (ProtoSource source : sources) {
+            RepeatedPackables.Packed actual = RepeatedPackables.Packed.newInstance();
+            actual.mergeFrom(source);
+            assertEquals(msg, actual);
+        }
+        RepeatedPackables.Packed twice = RepeatedPackables.Packed.newInstance();
+        twice.mergeFrom(ProtoSource.newStreamSource(100).setInput(new ByteArrayInputStream(expected)));
+        twice.mergeFrom(ProtoSource.newBufferSource().setInput(ByteBuffer.wrap(expected)));
+        RepeatedPackables.Packed concatenated = RepeatedPackables.Packed.newInstance();
+        concatenated.copyFrom(msg).mergeFrom(msg);
+        assertEquals(concatenated, twice);
+    }
+
+    @Test
+    public void testAliasingSource() throws IOException {
+        TestAllTypes msg = TestAllTypes.newInstance()
+                .setOptionalString("optionalString\uD83D\uDCA9")
+                .setOptionalCord("optionalCord")
+                .addRepeatedString("first")
+                .addRepeatedString("second");
+        byte[] bytes = msg.toByteArray();
+
+        ProtoSource[] sources = new ProtoSource[]{
+                ProtoSource.newArraySource().setInput(bytes),
+                ProtoSource.newDirectSource().setInput(bytes)
+        };
+
+        for (ProtoSource source : sources) {
+            TestAllTypes actual = TestAllTypes.parseFrom(source.enableAliasing(true));
+
+            // Aliased strings reference the source array
+            bytes[bytes.length - 1] = 'D';
+            assertEquals("seconD", actual.getRepeatedString().get(1));
+            bytes[bytes.length - 1] = 'd';
+            actual.getRepeatedString().set(1, "second");
+
+            assertEquals(msg, actual);
+            assertTrue(actual.getOptionalStringBytes().isAliased());
+            assertTrue(actual.getOptionalCordBytes().isAliased());
+            assertArrayEquals(bytes, actual.toByteArray());
+
+            // Copy on explicit detach
+            Utf8String str = actual.getMutableOptionalStringBytes().detach();
+            assertFalse(str.isAliased());
+            assertEquals(msg.getOptionalString(), str.getString());
+
+            // Copy on modification
+            Utf8String cord = actual.getMutableOptionalCordBytes();
+            cord.ensureCapacity(64);
+            assertFalse(cord.isAliased());
+            assertEquals(msg.getOptionalCord(), cord.getString());
+
+        }
+
+        // Sources wrapping native memory copy the data
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes).flip();
+        TestAllTypes actual = TestAllTypes.parseFrom(ProtoSource.newDirectSource().setInput(direct).enableAliasing(true));
+        assertEquals(msg, actual);
+        assertFalse(actual.getOptionalStringBytes().isAliased());
+
+        // Disabled by default
+        actual = TestAllTypes.parseFrom(ProtoSource.newArraySource().setInput(bytes));
+        assertFalse(actual.getOptionalStringBytes().isAliased());
+    }
+
+    @Test
+    public void testLazyParsing() throws IOException {
+        LazyParsingMessage msg = LazyParsingMessage.newInstance().setId(1).setName("name");
+        msg.getMutableFirstMessage().setId(2).setName("first").addAllValues(1.0, 2.0)
+                .getMutableChild().setId(3);
+        msg.getMutableSecondMessage().setId(4);
+        msg.getMutableOneofMessage().setName("oneof");
+        msg.getMutableRequiredMessage().setId(5);
+        msg.getMutableOptionalGroup().setA(6);
+        msg.addRepeatedMessage(msg.getFirstMessage());
+        byte[] bytes = msg.toByteArray();
+
+        // Untouched fields get written without being parsed
+        LazyParsingMessage lazy = LazyParsingMessage.parseFrom(bytes);
+        assertEquals(bytes.length, lazy.getSerializedSize());
+        assertArrayEquals(bytes, lazy.toByteArray());
+        assertArrayEquals(bytes, LazyParsingMessage.parseFrom(bytes).clone().toByteArray());
+
+        // Fields get parsed on first access
+        assertEquals("first", lazy.getFirstMessage().getName());
+        assertEquals(3, lazy.getFirstMessage().getChild().getId());
+        lazy.getMutableSecondMessage().setId(7);
+        assertEquals(msg.clone().setSecondMessage(msg.getSecondMessage().clone().setId(7)), lazy);
+        assertEquals(msg, LazyParsingMessage.parseFrom(bytes));
+        assertEquals(msg.toString(), LazyParsingMessage.parseFrom(bytes).toString());
+
+        // Repeated occurrences get merged
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(bytes);
+        out.write(bytes);
+        LazyParsingMessage merged = LazyParsingMessage.newInstance().mergeFrom(msg).mergeFrom(msg);
+        assertEquals(merged, LazyParsingMessage.parseFrom(out.toByteArray()));
+        assertArrayEquals(merged.toByteArray(), LazyParsingMessage.parseFrom(out.toByteArray()).toByteArray());
+
+        // Later oneof fields replace pending ones
+        out.write(LazyParsingMessage.newInstance().setOneofString("str").toByteArray());
+        lazy.clearQuick().mergeFrom(ProtoSource.newInstance(out.toByteArray()));
+        assertFalse(lazy.hasOneofMessage());
+        assertEquals("str", lazy.getOneofString());
+        assertEquals(merged.setOneofString("str"), lazy);
+
+        // Invalid contents only fail on access
+        byte[] invalid = new byte[]{26, 1, (byte) 0xFF};
+        lazy = LazyParsingMessage.parseFrom(invalid);
+        assertTrue(lazy.hasFirstMessage());
+        assertArrayEquals(invalid, lazy.toByteArray());
+        try {
+            lazy.getFirstMessage();
+            fail("expected parse failure");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void testProjectedParsing() throws IOException {
+        TestAllTypes msg = TestAllTypes.parseFrom(CompatibilityTest.getCombinedMessage());
+        assertTrue(msg.hasOptionalInt32() && msg.hasOptionalGroup() && msg.hasRepeatedString()
+                && msg.hasRepeatedPackedInt32() && msg.hasRepeatedForeignMessage());
+        FieldProjection projection = FieldProjection.newInstance()
+                .include(1) // optional_int32
+                .include(16) // optional_group
+                .include(44) // repeated_string
+                .include(87) // repeated_packed_int32
+                .include(49); // repeated_foreign_message
+
+        TestAllTypes expected = TestAllTypes.newInstance()
+                .setOptionalInt32(msg.getOptionalInt32())
+                .setOptionalGroup(msg.getOptionalGroup());
+        expected.getMutableRepeatedString().copyFrom(msg.getRepeatedString());
+        expected.getMutableRepeatedPackedInt32().copyFrom(msg.getRepeatedPackedInt32());
+        expected.getMutableRepeatedForeignMessage().copyFrom(msg.getRepeatedForeignMessage());
+
+        byte[] bytes = msg.toByteArray();
+        TestAllTypes actual = TestAllTypes.newInstance();
+        assertEquals(expected, actual.mergeFrom(ProtoSource.newInstance(bytes), projection));
+        assertEquals(0, actual.getUnknownBytes().length());
+        assertEquals(expected, actual.clear().mergeFrom(ProtoSource.newDirectSource().setInput(bytes), projection));
+        assertEquals(TestAllTypes.newInstance(), actual.clear()
+                .mergeFrom(ProtoSource.newInstance(bytes), FieldProjection.newInstance()));
+
+        // Nested projections
+        LazyParsingMessage nested = LazyParsingMessage.newInstance().setId(1).setName("name");
+        nested.getMutableFirstMessage().setId(2).setName("first").getMutableChild().setId(3).setName("child");
+        nested.getMutableRepeatedMessage().next().setId(4).setName("repeated");
+        nested.getMutableOptionalGroup().setA(5);
+        projection = FieldProjection.newInstance()
+                .include(1)
+                .includePath(3, 2) // first_message.name
+                .includePath(3, 4, 1) // first_message.child.id
+                .include(8, FieldProjection.newInstance().include(2)); // repeated_message.name
+
+        LazyParsingMessage expectedNested = LazyParsingMessage.newInstance().setId(1);
+        expectedNested.getMutableFirstMessage().setName("first").getMutableChild().setId(3);
+        expectedNested.getMutableRepeatedMessage().next().setName("repeated");
+        assertEquals(expectedNested, LazyParsingMessage.newInstance()
+                .mergeFrom(ProtoSource.newInstance(nested.toByteArray()), projection));
+
+        // Including the entire field removes nested restrictions
+        projection.include(3);
+        expectedNested.setFirstMessage(nested.getFirstMessage());
+        assertEquals(expectedNested, LazyParsingMessage.newInstance()
+                .mergeFrom(ProtoSource.newInstance(nested.toByteArray()), projection));
+    }
+
+    @Test
+    public void testProtoVisitor() throws IOException {
+        TestAllTypes msg = TestAllTypes.newInstance()
+                .setOptionalInt32(-3)
+                .setOptionalSint32(-7)
+                .setOptionalFloat(1.5f)
+                .setOptionalDouble(2.5)
+                .setOptionalBool(true)
+                .setOptionalString("visit");
+        msg.getMutableOptionalNestedMessage().setBb(9);
+        msg.getMutableOptionalGroup().setA(11);
+        msg.getMutableRepeatedInt32().addAll(new int[]{1, 2});
+        msg.getMutableRepeatedPackedInt32().addAll(new int[]{3, 4, 5});
+
+        class Recorder extends TestAllTypes.Visitor {
+
+            @Override
+            public void onStartMessage() {
+                depth++;
+            }
+
+            @Override
+            public void onEndMessage() {
+                depth--;
+            }
+
+            @Override
+            public void onOptionalInt32(int value) {
+                int32 = value;
+            }
+
+            @Override
+            public void onOptionalSint32(int value) {
+                sint32 = value;
+            }
+
+            @Override
+            public void onOptionalFloat(float value) {
+                float32 = value;
+            }
+
+            @Override
+            public void onOptionalDouble(double value) {
+                float64 = value;
+            }
+
+            @Override
+            public void onOptionalBool(boolean value) {
+                bool = value;
+            }
+
+            @Override
+            public void onOptionalString(ProtoSource source, int length) throws IOException {
+                string = new byte[length];
+                source.readRawBytes(string, 0, length);
+            }
+
+            @Override
+            public void onOptionalNestedMessage(ProtoSource source, int length) throws IOException {
+                assertEquals(length, source.getBytesUntilLimit());
+                source.visit(new TestAllTypes.NestedMessage.Visitor() {
+                    @Override
+                    public void onBb(int value) {
+                        bb = value;
+                    }
+                });
+            }
+
+            @Override
+            public void onOptionalGroup(ProtoSource source) throws IOException {
+                source.visit(new TestAllTypes.OptionalGroup.Visitor() {
+                    @Override
+                    public void onA(int value) {
+                        a = value;
+                    }
+                });
+            }
+
+            @Override
+            public void onRepeatedInt32(int value) {
+                repeatedSum += value;
+            }
+
+            @Override
+            public void onRepeatedPackedInt32(int value) {
+                packedSum += value;
+            }
+
+            int depth, int32, sint32, bb, a, repeatedSum, packedSum;
+            float float32;
+            double float64;
+            boolean bool;
+            byte[] string;
+
+        }
+
+        Recorder recorder = new Recorder();
+        ProtoSource source = ProtoSource.newInstance(msg.toByteArray());
+        source.visit(recorder);
+        assertTrue(source.isAtEnd());
+        assertEquals(0, recorder.depth);
+        assertEquals(-3, recorder.int32);
+        assertEquals(-7, recorder.sint32);
+        assertEquals(1.5f, recorder.float32, 0);
+        assertEquals(2.5, recorder.float64, 0);
+        assertTrue(recorder.bool);
+        assertEquals("visit", new String(recorder.string, UTF_8));
+        assertEquals(9, recorder.bb);
+        assertEquals(11, recorder.a);
+        assertEquals(3, recorder.repeatedSum);
+        assertEquals(12, recorder.packedSum);
+
+        // Callbacks that don't consume nested content get skipped
+        source.setInput(CompatibilityTest.getCombinedMessage());
+        source.visit(new TestAllTypes.Visitor() {
+        });
+        assertTrue(source.isAtEnd());
+    }
+
     @Test
     public void testByteBufferSource() throws IOException {
         byte[] bytes = CompatibilityTest.getCombinedMessage();
@@ -0,0 +1,72 @@
+/*-
+ * #%L
+ * quickbuf-runtime
+ * %%
+ * Copyright (C) 2019 HEBI Robotics
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package us.hebi.quickbuf;
+
+import org.junit.Test;
+import protos.test.quickbuf.*;
+import protos.test.quickbuf.UnittestRequired.TestAllTypesRequired;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class ReverseSinkTest {
+
+    @Test
+    public void testReverseSink() throws IOException {
+        ReverseSink sink = ReverseSink.newInstance(0);
+
+        TestAllTypes msg = TestAllTypes.parseFrom(CompatibilityTest.getCombinedMessage());
+        msg.getMutableRepeatedNestedMessage().next().setBb(-1);
+        msg.writeToReverse(sink.reset());
+        assertArrayEquals(msg.toByteArray(), sink.toByteArray());
+
+        RepeatedPackables.Packed packed = RepeatedPackables.Packed.parseFrom(CompatibilityTest.repeatedPackablesPacked());
+        packed.writeToReverse(sink.reset());
+        assertArrayEquals(packed.toByteArray(), sink.toByteArray());
+
+        RepeatedPackables.NonPacked nonPacked = RepeatedPackables.NonPacked.parseFrom(CompatibilityTest.repeatedPackablesNonPacked());
+        nonPacked.writeToReverse(sink.reset());
+        assertArrayEquals(nonPacked.toByteArray(), sink.toByteArray());
+
+        // Unknown fields
+        ForeignMessage unknown = ForeignMessage.parseFrom(packed.toByteArray());
+        unknown.writeToReverse(sink.reset());
+        assertArrayEquals(unknown.toByteArray(), sink.toByteArray());
+
+        // Data is located at the end of the array
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ProtoSink output = ProtoSink.newInstance(out);
+        msg.writeToReverse(sink.reset());
+        sink.writeTo(output);
+        assertEquals(sink.length(), sink.array().length - sink.offset());
+        assertArrayEquals(msg.toByteArray(), out.toByteArray());
+
+        // Missing required fields
+        try {
+            TestAllTypesRequired.newInstance().writeToReverse(sink.reset());
+            fail("should not serialize with missing required field");
+        } catch (UninitializedMessageException expected) {
+        }
+    }
+
+}
@@ -0,0 +1,74 @@
+/*-
+ * #%L
+ * quickbuf-runtime
+ * %%
+ * Copyright (C) 2019 HEBI Robotics
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package us.hebi.quickbuf;
+
+import org.junit.Test;
+import protos.test.quickbuf.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.*;
+
+public class StreamSourceTest {
+
+    @Test
+    public void testInputStreamSourceChunks() throws IOException {
+        byte[] bytes = CompatibilityTest.getCombinedMessage();
+        TestAllTypes expected = TestAllTypes.parseFrom(bytes);
+        for (int bufferSize = StreamSource.MIN_BUFFER_SIZE; bufferSize < bytes.length + 16; bufferSize += 7) {
+            // stream that returns fewer bytes than requested
+            InputStream stream = new ByteArrayInputStream(bytes) {
+                @Override
+                public synchronized int read(byte[] b, int off, int len) {
+                    return super.read(b, off, Math.min(len, 3));
+                }
+            };
+            ProtoSource source = ProtoSource.newStreamSource(bufferSize).setInput(stream);
+            assertEquals(expected, TestAllTypes.newInstance().mergeFrom(source));
+            assertEquals(bytes.length, source.getTotalBytesRead());
+            assertTrue(source.isAtEnd());
+        }
+    }
+
+    @Test
+    public void testDelimitedStreamSource() throws IOException {
+        TestAllTypes msg = TestAllTypes.parseFrom(CompatibilityTest.getCombinedMessage());
+        final int numMessages = 10;
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        for (int i = 0; i < numMessages; i++) {
+            msg.setOptionalInt32(i).writeDelimitedTo(ProtoSink.newInstance(outputStream));
+        }
+
+        ProtoSource source = ProtoSource.newStreamSource(64)
+                .setInput(new ByteArrayInputStream(outputStream.toByteArray()));
+        TestAllTypes actual = TestAllTypes.newInstance();
+        for (int i = 0; i < numMessages; i++) {
+            assertFalse(source.isAtEnd());
+            actual.clearQuick().mergeDelimitedFrom(source);
+            assertEquals(msg.setOptionalInt32(i), actual);
+        }
+        assertTrue(source.isAtEnd());
+    }
+
+}
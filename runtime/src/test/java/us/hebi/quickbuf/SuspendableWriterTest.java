@@ -0,0 +1,191 @@
+/*-
+ * #%L
+ * quickbuf-runtime
+ * %%
+ * Copyright (C) 2019 HEBI Robotics
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package us.hebi.quickbuf;
+
+import org.junit.Test;
+import protos.test.quickbuf.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class SuspendableWriterTest {
+
+    @Test
+    public void testSuspendableWriter() throws IOException {
+        TestAllTypes msg = TestAllTypes.parseFrom(CompatibilityTest.getCombinedMessage());
+        SuspendableWriter writer = SuspendableWriter.newInstance();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(37);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        writer.setMessage(msg);
+        assertEquals(msg.getSerializedSize(), writer.getBytesRemaining());
+        int calls = 0;
+        boolean done;
+        do {
+            done = writer.writeTo(buffer);
+            assertTrue(done || !buffer.hasRemaining());
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                output.write(buffer.get());
+            }
+            buffer.clear();
+            calls++;
+        } while (!done);
+        assertArrayEquals(msg.toByteArray(), output.toByteArray());
+        assertEquals((msg.getSerializedSize() + buffer.capacity() - 1) / buffer.capacity(), calls);
+        assertEquals(msg.getSerializedSize(), writer.getBytesWritten());
+        assertTrue(writer.writeTo(buffer));
+        assertEquals(0, buffer.position());
+
+        // Delimited messages into a heap buffer that is partially drained
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        ProtoSink sink = ProtoSink.newInstance(expected);
+        msg.writeDelimitedTo(sink);
+        msg.writeDelimitedTo(sink);
+        output.reset();
+        buffer = ByteBuffer.allocate(100);
+        for (int i = 0; i < 2; i++) {
+            writer.setDelimitedMessage(msg);
+            while (!writer.writeTo(buffer)) {
+                buffer.flip();
+                output.write(buffer.get());
+                buffer.compact();
+            }
+        }
+        buffer.flip();
+        output.write(buffer.array(), 0, buffer.limit());
+        assertArrayEquals(expected.toByteArray(), output.toByteArray());
+    }
+
+    @Test
+    public void testSuspendableWriterSkipsWrittenMessages() throws IOException {
+        // ~100 KB message with two levels of nesting that gets written through a 1 KB buffer
+        CountingMessage[] children = new CountingMessage[100];
+        CountingMessage[] grandChildren = new CountingMessage[children.length * 10];
+        for (int i = 0; i < children.length; i++) {
+            CountingMessage[] nested = new CountingMessage[10];
+            for (int j = 0; j < nested.length; j++) {
+                nested[j] = grandChildren[i * nested.length + j] = new CountingMessage(new byte[97], new CountingMessage[0]);
+            }
+            children[i] = new CountingMessage(new byte[17], nested);
+        }
+        CountingMessage msg = new CountingMessage(new byte[3], children);
+        byte[] expected = msg.toByteArray();
+
+        SuspendableWriter writer = SuspendableWriter.newInstance().setMessage(msg);
+        msg.writeCount = 0;
+        for (CountingMessage child : children) {
+            child.writeCount = 0;
+        }
+        for (CountingMessage child : grandChildren) {
+            child.writeCount = 0;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        int calls = 0;
+        boolean done;
+        do {
+            done = writer.writeTo(buffer);
+            output.write(buffer.array(), 0, buffer.position());
+            buffer.clear();
+            calls++;
+        } while (!done);
+        assertArrayEquals(expected, output.toByteArray());
+        assertTrue(calls > 90);
+
+        // Only messages that straddle a buffer boundary get serialized more than once
+        assertEquals(calls, msg.writeCount);
+        for (CountingMessage child : children) {
+            assertTrue(child.writeCount <= 3);
+        }
+        for (CountingMessage child : grandChildren) {
+            assertTrue(child.writeCount <= 2);
+        }
+    }
+
+    /**
+     * Message with a bytes field (1) and a repeated message field (2)
+     * that counts how often it gets serialized
+     */
+    static class CountingMessage extends ProtoMessage<CountingMessage> {
+
+        CountingMessage(byte[] payload, CountingMessage[] children) {
+            this.payload = payload;
+            this.children = children;
+        }
+
+        @Override
+        protected int computeSerializedSize() {
+            int size = 1 + ProtoSink.computeRawVarint32Size(payload.length) + payload.length;
+            for (CountingMessage child : children) {
+                size += 1 + ProtoSink.computeMessageSizeNoTag(child);
+            }
+            return size;
+        }
+
+        @Override
+        public void writeTo(ProtoSink output) throws IOException {
+            writeCount++;
+            output.writeRawByte((byte) 10);
+            output.writeLength(payload.length);
+            output.writeRawBytes(payload);
+            for (CountingMessage child : children) {
+                output.writeRawByte((byte) 18);
+                output.writeMessageNoTag(child);
+            }
+        }
+
+        @Override
+        public CountingMessage copyFrom(CountingMessage other) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CountingMessage clear() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CountingMessage mergeFrom(ProtoSource input) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj == this;
+        }
+
+        @Override
+        public CountingMessage clone() {
+            throw new UnsupportedOperationException();
+        }
+
+        final byte[] payload;
+        final CountingMessage[] children;
+        int writeCount;
+
+    }
+
+}
@@ -0,0 +1,111 @@
+/*-
+ * #%L
+ * quickbuf-runtime
+ * %%
+ * Copyright (C) 2019 HEBI Robotics
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+package us.hebi.quickbuf;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+import static us.hebi.quickbuf.ProtoUtil.Charsets.*;
+
+public class Utf8Test {
+
+    @Test
+    public void testCompactStringEncoding() throws IOException {
+        String[] values = new String[]{
+                "",
+                "ascii",
+                "ascii chars that span several words",
+                "latin1 \u00e9 after eight ascii chars",
+                "\u00e9\u00e8\u00ea latin1 at the start and end \u00ff",
+                "ascii followed by utf16 \u20ac and \ud83d\ude00",
+        };
+        for (String value : values) {
+            byte[] utf8 = value.getBytes(UTF_8);
+            assertEquals(value, utf8.length, ProtoSink.computeStringSizeNoTag(value) - 1);
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            Utf8String.newInstance(value).writeTo(baos);
+            assertArrayEquals(value, utf8, baos.toByteArray());
+
+            byte[] expected = new byte[utf8.length + 1];
+            expected[0] = (byte) utf8.length;
+            System.arraycopy(utf8, 0, expected, 1, utf8.length);
+            for (ProtoSink sink : new ProtoSink[]{ProtoSink.newArraySink(), ProtoSink.newDirectSink()}) {
+                byte[] actual = new byte[expected.length];
+                sink.setOutput(actual).writeStringNoTag(value);
+                assertArrayEquals(value, expected, actual);
+            }
+
+            baos.reset();
+            ProtoSink.newInstance(baos).writeStringNoTag(value);
+            assertArrayEquals(value, expected, baos.toByteArray());
+
+            // Strings that do not fit must still fail
+            if (utf8.length > 0) {
+                try {
+                    ProtoSink.newArraySink().setOutput(new byte[utf8.length]).writeStringNoTag(value);
+                    fail(value);
+                } catch (ProtoSink.OutOfSpaceException expectedException) {
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCompactStringsAreNotExposed() throws IOException {
+        char[] chars = new char[4000];
+        Arrays.fill(chars, 'a');
+        String value = new String(chars);
+        String copy = new String(chars);
+
+        // Sinks that reference large arrays
+        GatheringSink gatheringSink = ProtoSink.newGatheringSink();
+        gatheringSink.writeStringNoTag(value);
+        for (ByteBuffer buffer : gatheringSink.getBuffers()) {
+            if (!buffer.isReadOnly()) {
+                while (buffer.hasRemaining()) {
+                    buffer.put((byte) 'Z');
+                }
+            }
+        }
+        assertEquals(copy, value);
+
+        // Sinks that pass large arrays on to user code
+        OutputStream mutatingStream = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                Arrays.fill(b, off, off + len, (byte) 'Z');
+            }
+        };
+        ProtoSink.newInstance(mutatingStream).writeStringNoTag(value);
+        assertEquals(copy, value);
+    }
+
+}